@@ -0,0 +1,184 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+/**
+ * Compact binary wire protocol shared by TypefastServer and TypefastClient. A client opts in by
+ * sending the text line BINARY; once the server answers with NEGOTIATE_ACK, both directions carry
+ * frames of [u16 length][u8 opcode][payload], where length counts the opcode and payload bytes.
+ * Strings are u16-length-prefixed UTF-8, ticks and page sizes are u16, other counts, ranks and
+ * times are i32 and scores are IEEE doubles. Clients that never send BINARY keep using the text protocol.
+ */
+final class BinaryProtocol {
+    static final String NEGOTIATE_CMD = "BINARY";
+    static final String NEGOTIATE_ACK = "Binary protocol enabled.";
+    static final int MAX_FRAME_LENGTH = 0xFFFF;
+
+    // Client to server
+    static final int REGISTER = 0x01;       // string username, string password
+    static final int LOGIN = 0x02;          // string username, string password
+    static final int LOGOUT = 0x03;
+    static final int JOIN = 0x04;
+    static final int SCOREBOARD = 0x05;     // u16 page, 0 is the top
+    static final int EXIT = 0x06;
+    static final int ANSWER = 0x07;         // string word
+    static final int PONG = 0x08;           // reply to PING
+    static final int PING = 0x09;
+
+    // Server to client
+    static final int TEXT = 0x40;           // string message without a dedicated opcode
+    static final int WORD = 0x41;           // string word
+    static final int TICK = 0x42;           // u16 seconds remaining; sent at sync points, clients count down in between
+    static final int CORRECT = 0x43;        // i32 time taken in ms, f64 score for the word, i32 placement, i32 players
+    static final int INCORRECT = 0x44;
+    static final int TIME_UP = 0x45;
+    static final int GAME_OVER = 0x46;
+    static final int LOGIN_OK = 0x47;       // string username
+    static final int LOGIN_FAILED = 0x48;
+    static final int REGISTERED = 0x49;
+    static final int REGISTER_FAILED = 0x4A;
+    static final int LOGOUT_OK = 0x4B;
+    static final int QUEUED = 0x4C;
+    static final int ALREADY_QUEUED = 0x4D;
+    static final int WAITING = 0x4E;        // i32 players in the waiting list
+    static final int EXITED = 0x4F;
+    static final int SCOREBOARD_PAGE = 0x50; // u16 count, then count x (string username, f64 score)
+    static final int RANK = 0x51;           // i32 rank, i32 players ranked
+    static final int SERVER_PING = 0x52;    // sent to idle clients, which reply with PONG
+    static final int SERVER_PONG = 0x53;
+    static final int ROUND_WINNER = 0x54;   // string username of the first to type the word
+    static final int THROTTLED = 0x55;      // sent once when messages start being dropped for exceeding the rate limit
+    static final int TOO_FAST = 0x56;       // correct answer rejected as typed faster than a person can
+    static final int RESTARTING = 0x57;     // i32 ms to wait before reconnecting; the connection closes soon after
+
+    private static final int CACHED_TICKS = 256;
+    private static final byte[][] EVENT_FRAMES = new byte[256][];
+    private static final byte[][] TICK_FRAMES = new byte[CACHED_TICKS][];
+
+    static {
+        for (int opcode = 0; opcode < EVENT_FRAMES.length; opcode++) {
+            EVENT_FRAMES[opcode] = new Writer(opcode).toFrame();
+        }
+        for (int seconds = 0; seconds < CACHED_TICKS; seconds++) {
+            TICK_FRAMES[seconds] = new Writer(TICK).putShort(seconds).toFrame();
+        }
+    }
+
+    private BinaryProtocol() {
+    }
+
+    /**
+     * Shared frame for an opcode without payload. Callers must not modify it.
+     */
+    static byte[] event(int opcode) {
+        return EVENT_FRAMES[opcode];
+    }
+
+    static byte[] tick(int secondsRemaining) {
+        if (secondsRemaining < CACHED_TICKS) {
+            return TICK_FRAMES[secondsRemaining];
+        }
+        return new Writer(TICK).putShort(secondsRemaining).toFrame();
+    }
+
+    static byte[] text(int opcode, String value) {
+        return new Writer(opcode).putString(value).toFrame();
+    }
+
+    /**
+     * Reads one frame and returns its opcode followed by the payload, or null at end of stream.
+     */
+    static ByteBuffer readFrame(DataInputStream in) throws IOException {
+        return readFrame(in, null);
+    }
+
+    /**
+     * Like readFrame(in), but reads into reuse when it is large enough. The returned buffer is only
+     * valid until the next call with it.
+     */
+    static ByteBuffer readFrame(DataInputStream in, ByteBuffer reuse) throws IOException {
+        int length;
+        try {
+            length = in.readUnsignedShort();
+        } catch (EOFException e) {
+            return null;
+        }
+        ByteBuffer frame = reuse != null && reuse.capacity() >= length ? reuse : ByteBuffer.allocate(Math.max(length, 256));
+        frame.clear().limit(length);
+        in.readFully(frame.array(), 0, length);
+        return frame;
+    }
+
+    static String getString(ByteBuffer buffer) {
+        int length = buffer.getShort() & 0xFFFF;
+        String value = new String(buffer.array(), buffer.arrayOffset() + buffer.position(), length, StandardCharsets.UTF_8);
+        buffer.position(buffer.position() + length);
+        return value;
+    }
+
+    static int getUnsignedShort(ByteBuffer buffer) {
+        return buffer.getShort() & 0xFFFF;
+    }
+
+    /**
+     * Builds a single frame; the length prefix is filled in by toFrame.
+     */
+    static final class Writer {
+        private byte[] bytes = new byte[32];
+        private int position = 2;
+
+        Writer(int opcode) {
+            bytes[position++] = (byte) opcode;
+        }
+
+        Writer putShort(int value) {
+            ensure(2);
+            bytes[position++] = (byte) (value >>> 8);
+            bytes[position++] = (byte) value;
+            return this;
+        }
+
+        Writer putInt(int value) {
+            ensure(4);
+            for (int shift = 24; shift >= 0; shift -= 8) {
+                bytes[position++] = (byte) (value >>> shift);
+            }
+            return this;
+        }
+
+        Writer putDouble(double value) {
+            long bits = Double.doubleToLongBits(value);
+            ensure(8);
+            for (int shift = 56; shift >= 0; shift -= 8) {
+                bytes[position++] = (byte) (bits >>> shift);
+            }
+            return this;
+        }
+
+        Writer putString(String value) {
+            byte[] encoded = value.getBytes(StandardCharsets.UTF_8);
+            putShort(encoded.length);
+            ensure(encoded.length);
+            System.arraycopy(encoded, 0, bytes, position, encoded.length);
+            position += encoded.length;
+            return this;
+        }
+
+        byte[] toFrame() {
+            int length = position - 2;
+            if (length > MAX_FRAME_LENGTH) {
+                throw new IllegalStateException("Frame too large: " + length + " bytes");
+            }
+            bytes[0] = (byte) (length >>> 8);
+            bytes[1] = (byte) length;
+            return position == bytes.length ? bytes : Arrays.copyOf(bytes, position);
+        }
+
+        private void ensure(int extra) {
+            if (position + extra > bytes.length) {
+                bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, position + extra));
+            }
+        }
+    }
+}
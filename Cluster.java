@@ -0,0 +1,114 @@
+import java.util.*;
+
+/**
+ * Coordination between Typefast server nodes, so players connected to different nodes share
+ * session ownership, one waiting list and one leaderboard, and can be put into the same match.
+ * A match runs on a single node, its host. Players connected to other nodes take part through
+ * proxies on the host: what the match sends them is delivered to their own node, and their
+ * answers and exits are forwarded back to the host.
+ *
+ * All coordination happens in a ClusterHub. InProcessCluster is the backend for the node that
+ * runs the hub; SocketCluster connects any other node to it.
+ *
+ * Accounts are not shared. Each node keeps its own UserStore in its own data directory, so an
+ * account registered on one node cannot log in on another, and a player's stored score is the one
+ * their own node keeps. Players are expected to reach the same node every time, for example through
+ * a load balancer that routes by account, or to register on every node they use.
+ */
+interface Cluster {
+    String nodeId();
+
+    /**
+     * False while the link to the hub is down; calls made meanwhile are dropped.
+     */
+    boolean isConnected();
+
+    /**
+     * Makes this node the owner of the user's session; a node that owned it before is told to drop it.
+     */
+    void claimSession(String username);
+
+    void releaseSession(String username);
+
+    /**
+     * Adds a player of this node to the cluster-wide waiting list. Players are grouped with others
+     * of the same bucket, and every node with a player in the group is told through matchFormed.
+     */
+    void enqueue(Member member, int bucket, int groupSize);
+
+    void dequeue(String username);
+
+    void publishScore(String username, double score);
+
+    void removeScore(String username);
+
+    /**
+     * Sends already encoded bytes to a player connected to another node.
+     */
+    void deliver(String nodeId, String username, byte[] bytes);
+
+    /**
+     * Passes a local player's answer, in either protocol, to the node hosting their match.
+     */
+    void forwardAnswer(String hostNodeId, String username, byte[] answer);
+
+    /**
+     * Tells the node hosting a local player's match that they left it.
+     */
+    void forwardExit(String hostNodeId, String username);
+
+    /**
+     * Tells a player's own node that their match on this node is over.
+     */
+    void matchEnded(String nodeId, String username);
+
+    /**
+     * Events from the hub. Implementations must not block for long; they run on the caller's or
+     * the connection's thread.
+     */
+    interface Listener {
+        void sessionRevoked(String username);
+
+        void scoreChanged(String username, double score);
+
+        void scoreRemoved(String username);
+
+        void matchFormed(String hostNodeId, List<Member> members);
+
+        void delivered(String username, byte[] bytes);
+
+        void answerForwarded(String username, byte[] answer);
+
+        void exitForwarded(String username);
+
+        void matchEnded(String username);
+
+        /**
+         * How many players wait on the cluster-wide waiting list, from every node; sent whenever it changes.
+         */
+        void waitingCountChanged(int count);
+
+        /**
+         * The link to the hub is back after it was lost. The hub forgot this node's sessions and
+         * waiting players when it went down, so the node claims and queues them again.
+         */
+        void reconnected();
+    }
+
+    /**
+     * A queued player and what a host needs to stand in for them.
+     */
+    final class Member {
+        final String nodeId;
+        final String username;
+        final boolean binary;
+        final double score;
+
+        Member(String nodeId, String username, boolean binary, double score) {
+            this.nodeId = nodeId;
+            this.username = username;
+            this.binary = binary;
+            this.score = score;
+        }
+    }
+}
@@ -0,0 +1,176 @@
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * The cluster's single point of coordination: who owns which session, the global waiting list,
+ * the latest score of every logged-in player, and routing between nodes. It does not care how
+ * nodes reach it; every method takes the calling node's id and answers through that node's
+ * Cluster.Listener, whether it is a direct call (InProcessCluster) or a socket (SocketCluster).
+ * Each change to the waiting list is followed by its new size, which every node passes on to the
+ * players waiting there.
+ */
+class ClusterHub {
+    private final Map<String, Cluster.Listener> nodes = new ConcurrentHashMap<>();
+    private final Map<String, String> sessions = new ConcurrentHashMap<>();
+    // Lets a node that joins late fill its leaderboard
+    private final Map<String, Double> scores = new ConcurrentHashMap<>();
+    // The cluster-wide waiting list, one per group size nodes asked for; they normally all use the same
+    private final Map<Integer, Matchmaker<Cluster.Member>> waiting = new ConcurrentHashMap<>();
+    // Queued players by username, so a repeated enqueue or a dequeue finds its entry without a scan
+    private final Map<String, Cluster.Member> queued = new ConcurrentHashMap<>();
+    private final int shards;
+
+    ClusterHub(int shards) {
+        this.shards = shards;
+    }
+
+    void register(String nodeId, Cluster.Listener listener) {
+        if (nodes.putIfAbsent(nodeId, listener) != null) {
+            throw new IllegalStateException("Node " + nodeId + " is already part of the cluster");
+        }
+        for (Map.Entry<String, Double> score : scores.entrySet()) {
+            listener.scoreChanged(score.getKey(), score.getValue());
+        }
+        publishWaitingCount();
+        Log.info("Node " + nodeId + " joined the cluster (" + nodes.size() + " nodes)");
+    }
+
+    /**
+     * Forgets a node that left: its sessions end, its players leave the leaderboard and the waiting list.
+     */
+    void unregister(String nodeId) {
+        nodes.remove(nodeId);
+        for (Cluster.Member member : queued.values()) {
+            if (member.nodeId.equals(nodeId)) {
+                remove(member);
+            }
+        }
+        publishWaitingCount();
+        for (Iterator<Map.Entry<String, String>> it = sessions.entrySet().iterator(); it.hasNext(); ) {
+            Map.Entry<String, String> session = it.next();
+            if (session.getValue().equals(nodeId)) {
+                it.remove();
+                removeScore(nodeId, session.getKey());
+            }
+        }
+        Log.info("Node " + nodeId + " left the cluster (" + nodes.size() + " nodes)");
+    }
+
+    void claimSession(String nodeId, String username) {
+        String previous = sessions.put(username, nodeId);
+        if (previous != null && !previous.equals(nodeId)) {
+            dequeue(previous, username);
+            Cluster.Listener previousNode = nodes.get(previous);
+            if (previousNode != null) {
+                previousNode.sessionRevoked(username);
+            }
+        }
+    }
+
+    void releaseSession(String nodeId, String username) {
+        sessions.remove(username, nodeId);
+    }
+
+    void enqueue(Cluster.Member member, int bucket, int groupSize) {
+        if (queued.putIfAbsent(member.username, member) != null) {
+            return;
+        }
+        Matchmaker<Cluster.Member> matchmaker = waiting.computeIfAbsent(groupSize, size -> Matchmaker.shared(size, shards));
+        matchmaker.enqueue(member, bucket);
+        for (List<Cluster.Member> group : matchmaker.formGroups()) {
+            for (Cluster.Member grouped : group) {
+                queued.remove(grouped.username, grouped);
+            }
+            startMatch(group);
+        }
+        publishWaitingCount();
+    }
+
+    void dequeue(String nodeId, String username) {
+        Cluster.Member member = queued.get(username);
+        if (member != null && member.nodeId.equals(nodeId) && remove(member)) {
+            publishWaitingCount();
+        }
+    }
+
+    // Does nothing, and returns false, if a group claimed the member in the meantime
+    private boolean remove(Cluster.Member member) {
+        for (Matchmaker<Cluster.Member> matchmaker : waiting.values()) {
+            if (matchmaker.remove(member)) {
+                queued.remove(member.username, member);
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // Counted and sent under one lock, so a node never gets an older count after a newer one
+    private synchronized void publishWaitingCount() {
+        int count = queued.size();
+        for (Cluster.Listener node : nodes.values()) {
+            node.waitingCountChanged(count);
+        }
+    }
+
+    void publishScore(String nodeId, String username, double score) {
+        scores.put(username, score);
+        for (Map.Entry<String, Cluster.Listener> node : nodes.entrySet()) {
+            if (!node.getKey().equals(nodeId)) {
+                node.getValue().scoreChanged(username, score);
+            }
+        }
+    }
+
+    void removeScore(String nodeId, String username) {
+        scores.remove(username);
+        for (Map.Entry<String, Cluster.Listener> node : nodes.entrySet()) {
+            if (!node.getKey().equals(nodeId)) {
+                node.getValue().scoreRemoved(username);
+            }
+        }
+    }
+
+    void deliver(String nodeId, String username, byte[] bytes) {
+        Cluster.Listener node = nodes.get(nodeId);
+        if (node != null) {
+            node.delivered(username, bytes);
+        }
+    }
+
+    void forwardAnswer(String hostNodeId, String username, byte[] answer) {
+        Cluster.Listener host = nodes.get(hostNodeId);
+        if (host != null) {
+            host.answerForwarded(username, answer);
+        }
+    }
+
+    void forwardExit(String hostNodeId, String username) {
+        Cluster.Listener host = nodes.get(hostNodeId);
+        if (host != null) {
+            host.exitForwarded(username);
+        }
+    }
+
+    void matchEnded(String nodeId, String username) {
+        Cluster.Listener node = nodes.get(nodeId);
+        if (node != null) {
+            node.matchEnded(username);
+        }
+    }
+
+    private void startMatch(List<Cluster.Member> group) {
+        // Hosted by the node of the player who has waited longest
+        String host = group.get(0).nodeId;
+        Set<String> involved = new LinkedHashSet<>();
+        involved.add(host);
+        for (Cluster.Member member : group) {
+            involved.add(member.nodeId);
+        }
+        for (String nodeId : involved) {
+            Cluster.Listener node = nodes.get(nodeId);
+            if (node != null) {
+                node.matchFormed(host, group);
+            }
+        }
+    }
+}
@@ -0,0 +1,228 @@
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Immutable word list backed by a memory-mapped packed file, so even very large dictionaries cost
+ * almost no heap. Words are stored grouped into buckets by (difficulty, length), and a Walker alias
+ * table over the buckets lets pick() draw a word, weighted by difficulty, in O(1) without
+ * allocating. A (difficulty, length) index over the same buckets lets pick(difficulty, length) draw
+ * a word of an exact shape in O(1) too.
+ *
+ * Packed layout (big-endian):
+ * <pre>
+ * i32 magic "TFD1", i64 source file modification time, i32 word count, i32 bucket count
+ * bucket count x (u8 difficulty, u8 length, i32 first word id, i32 word count)
+ * (word count + 1) x i32 offset of each word in the data section
+ * UTF-8 word data
+ * </pre>
+ */
+final class Dictionary {
+    static final int MAX_DIFFICULTY = 5;
+    private static final int MAGIC = 0x54464431; // "TFD1"
+    private static final int MAX_INDEXED_LENGTH = 255;
+    private static final int HEADER_BYTES = 4 + 8 + 4 + 4;
+    private static final int BUCKET_BYTES = 1 + 1 + 4 + 4;
+
+    private final MappedByteBuffer data;
+    private final long sourceModified;
+    private final int wordCount;
+    private final int offsetsStart;
+    private final int wordsStart;
+    private final int[] bucketFirst;
+    private final int[] bucketCount;
+    // Bucket of each (difficulty, length), or -1; see indexOf
+    private final int[] bucketIndex = new int[MAX_DIFFICULTY * (MAX_INDEXED_LENGTH + 1)];
+    // Walker alias table over buckets
+    private final double[] aliasProbability;
+    private final int[] alias;
+
+    private Dictionary(MappedByteBuffer data, double[] difficultyWeights) throws IOException {
+        this.data = data;
+        if (data.limit() < HEADER_BYTES || data.getInt(0) != MAGIC) {
+            throw new IOException("Not a packed Typefast dictionary");
+        }
+        sourceModified = data.getLong(4);
+        wordCount = data.getInt(12);
+        int buckets = data.getInt(16);
+        bucketFirst = new int[buckets];
+        bucketCount = new int[buckets];
+        double[] weights = new double[buckets];
+        Arrays.fill(bucketIndex, -1);
+        for (int i = 0; i < buckets; i++) {
+            int at = HEADER_BYTES + i * BUCKET_BYTES;
+            int difficulty = data.get(at) & 0xFF;
+            bucketIndex[indexOf(difficulty, data.get(at + 1) & 0xFF)] = i;
+            bucketFirst[i] = data.getInt(at + 2);
+            bucketCount[i] = data.getInt(at + 6);
+            weights[i] = bucketCount[i] * difficultyWeights[difficulty - 1];
+        }
+        offsetsStart = HEADER_BYTES + buckets * BUCKET_BYTES;
+        wordsStart = offsetsStart + (wordCount + 1) * 4;
+        aliasProbability = new double[buckets];
+        alias = new int[buckets];
+        buildAliasTable(weights);
+    }
+
+    /**
+     * Maps a packed dictionary. difficultyWeights[d - 1] is the relative chance of a word of difficulty d.
+     */
+    static Dictionary open(Path packed, double[] difficultyWeights) throws IOException {
+        try (FileChannel channel = FileChannel.open(packed, StandardOpenOption.READ)) {
+            return new Dictionary(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()), difficultyWeights);
+        }
+    }
+
+    /**
+     * Reads one word per line from source and writes the packed form to target, replacing it atomically.
+     * Target must not be mapped by an open Dictionary; Windows cannot replace a mapped file.
+     */
+    static void build(Path source, Path target) throws IOException {
+        SortedMap<Integer, List<byte[]>> buckets = new TreeMap<>();
+        int wordCount = 0;
+        long dataBytes = 0;
+        try (BufferedReader reader = Files.newBufferedReader(source, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String word = line.trim();
+                if (word.isEmpty()) {
+                    continue;
+                }
+                int length = Math.min(word.length(), MAX_INDEXED_LENGTH);
+                int key = difficultyOf(word) << 8 | length;
+                byte[] encoded = word.getBytes(StandardCharsets.UTF_8);
+                buckets.computeIfAbsent(key, k -> new ArrayList<>()).add(encoded);
+                wordCount++;
+                dataBytes += encoded.length;
+            }
+        }
+        long size = HEADER_BYTES + (long) buckets.size() * BUCKET_BYTES + (wordCount + 1L) * 4 + dataBytes;
+        if (size > Integer.MAX_VALUE) {
+            throw new IOException("Dictionary too large to map: " + source);
+        }
+        Path temp = target.resolveSibling(target.getFileName() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp), 1 << 16))) {
+            out.writeInt(MAGIC);
+            out.writeLong(Files.getLastModifiedTime(source).toMillis());
+            out.writeInt(wordCount);
+            out.writeInt(buckets.size());
+            int first = 0;
+            for (Map.Entry<Integer, List<byte[]>> bucket : buckets.entrySet()) {
+                out.writeByte(bucket.getKey() >>> 8);
+                out.writeByte(bucket.getKey() & 0xFF);
+                out.writeInt(first);
+                out.writeInt(bucket.getValue().size());
+                first += bucket.getValue().size();
+            }
+            int offset = 0;
+            for (List<byte[]> bucket : buckets.values()) {
+                for (byte[] word : bucket) {
+                    out.writeInt(offset);
+                    offset += word.length;
+                }
+            }
+            out.writeInt(offset);
+            for (List<byte[]> bucket : buckets.values()) {
+                for (byte[] word : bucket) {
+                    out.write(word);
+                }
+            }
+        }
+        Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * 1 (easy) to MAX_DIFFICULTY (hard), from the word's length and how many uncommon letters it has.
+     */
+    static int difficultyOf(String word) {
+        int score = word.length();
+        for (int i = 0; i < word.length(); i++) {
+            if ("jkqvwxyz".indexOf(Character.toLowerCase(word.charAt(i))) >= 0) {
+                score += 2;
+            }
+        }
+        return Math.min(MAX_DIFFICULTY, Math.max(1, (score - 1) / 2 - 1));
+    }
+
+    int size() {
+        return wordCount;
+    }
+
+    long sourceModified() {
+        return sourceModified;
+    }
+
+    /**
+     * Draws a word id with probability proportional to its difficulty weight; O(1), allocation free.
+     */
+    int pick() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        int bucket = random.nextInt(alias.length);
+        if (random.nextDouble() >= aliasProbability[bucket]) {
+            bucket = alias[bucket];
+        }
+        return bucketFirst[bucket] + random.nextInt(bucketCount[bucket]);
+    }
+
+    /**
+     * Draws a word id of exactly the given difficulty and length, or -1 if there is none; O(1),
+     * allocation free. Lengths above 255 all share the 255 bucket.
+     */
+    int pick(int difficulty, int length) {
+        if (difficulty < 1 || difficulty > MAX_DIFFICULTY || length < 1) {
+            return -1;
+        }
+        int bucket = bucketIndex[indexOf(difficulty, Math.min(length, MAX_INDEXED_LENGTH))];
+        return bucket < 0 ? -1 : bucketFirst[bucket] + ThreadLocalRandom.current().nextInt(bucketCount[bucket]);
+    }
+
+    /**
+     * Decodes a word into a new String. This is the one allocation per draw (its UTF-8 bytes and the
+     * String), made once per round rather than per message, because the word is kept and compared as
+     * a String for the rest of the round.
+     */
+    String word(int id) {
+        int start = data.getInt(offsetsStart + id * 4);
+        int end = data.getInt(offsetsStart + (id + 1) * 4);
+        byte[] bytes = new byte[end - start];
+        data.get(wordsStart + start, bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static int indexOf(int difficulty, int length) {
+        return (difficulty - 1) * (MAX_INDEXED_LENGTH + 1) + length;
+    }
+
+    private void buildAliasTable(double[] weights) {
+        int n = weights.length;
+        double total = 0;
+        for (double weight : weights) {
+            total += weight;
+        }
+        double[] scaled = new double[n];
+        Deque<Integer> small = new ArrayDeque<>();
+        Deque<Integer> large = new ArrayDeque<>();
+        for (int i = 0; i < n; i++) {
+            scaled[i] = total == 0 ? 1 : weights[i] * n / total;
+            (scaled[i] < 1 ? small : large).add(i);
+        }
+        while (!small.isEmpty() && !large.isEmpty()) {
+            int less = small.poll();
+            int more = large.poll();
+            aliasProbability[less] = scaled[less];
+            alias[less] = more;
+            scaled[more] = scaled[more] + scaled[less] - 1;
+            (scaled[more] < 1 ? small : large).add(more);
+        }
+        for (int i : large) {
+            aliasProbability[i] = 1;
+        }
+        for (int i : small) {
+            aliasProbability[i] = 1;
+        }
+    }
+}
@@ -0,0 +1,215 @@
+import java.io.*;
+import java.net.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.zip.CRC32;
+
+/**
+ * Hands a running server's players over to the process replacing it, so a deploy neither ends
+ * matches nor drops everyone at the same moment. The new process binds the same port, which both
+ * open with SO_REUSEPORT, and asks the old one to drain with POST /drain on its metrics endpoint.
+ * The old process closes its listener so new connections queue at the new one, refuses JOINs and
+ * gives running matches until its drain timeout to finish. It then stops whatever still runs,
+ * writes who was playing and waiting to a snapshot file, tells clients when to reconnect, spread
+ * over a few seconds, and exits.
+ *
+ * Both processes must run in handoff mode, since only then is the port opened with SO_REUSEPORT.
+ * The data directory is locked by whichever process uses it; the old process releases it after
+ * writing the snapshot, and the new process locks it before opening the store.
+ *
+ * The new process only opens the data directory once the snapshot is there. Restored matches go on
+ * with their next word; their players are held like players who dropped out and take their place
+ * back by logging in within the resume window. Waiting players are queued again when they log in.
+ * Scores are not part of the snapshot, since the UserStore already has them on disk.
+ *
+ * The file is [i32 magic][i32 body length][i32 CRC32 of body][body]; the body is a list of
+ * records, and it is written to a temporary file and atomically renamed into place.
+ */
+final class Handoff {
+    static final String SNAPSHOT_FILE = "handoff.snapshot";
+    private static final String LOCK_FILE = "server.lock";
+    private static final int MAGIC = 0x54464831; // "TFH1"
+    private static final byte MATCH_RECORD = 1;   // i64 match id, u8 words played, u16 count, count x string username
+    private static final byte WAITING_RECORD = 2; // string username
+    private static final long POLL_MS = 50;
+
+    private Handoff() {
+    }
+
+    static final class Snapshot {
+        final List<MatchState> matches = new ArrayList<>();
+        final List<String> waiting = new ArrayList<>();
+    }
+
+    /**
+     * A match stopped by a drain: the players still in it, and how many of its words they have played.
+     */
+    static final class MatchState {
+        final long id;
+        final int wordsPlayed;
+        final List<String> players;
+
+        MatchState(long id, int wordsPlayed, List<String> players) {
+            this.id = id;
+            this.wordsPlayed = wordsPlayed;
+            this.players = players;
+        }
+    }
+
+    static void write(Path directory, Snapshot snapshot) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream body = new DataOutputStream(bytes);
+        for (MatchState match : snapshot.matches) {
+            body.writeByte(MATCH_RECORD);
+            body.writeLong(match.id);
+            body.writeByte(match.wordsPlayed);
+            body.writeShort(match.players.size());
+            for (String player : match.players) {
+                writeString(body, player);
+            }
+        }
+        for (String player : snapshot.waiting) {
+            body.writeByte(WAITING_RECORD);
+            writeString(body, player);
+        }
+        byte[] content = bytes.toByteArray();
+        CRC32 crc = new CRC32();
+        crc.update(content);
+        ByteBuffer file = ByteBuffer.allocate(12 + content.length);
+        file.putInt(MAGIC).putInt(content.length).putInt((int) crc.getValue()).put(content);
+        file.flip();
+        Path temp = directory.resolve(SNAPSHOT_FILE + ".tmp");
+        try (FileChannel out = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            while (file.hasRemaining()) {
+                out.write(file);
+            }
+            out.force(true);
+        }
+        Files.move(temp, directory.resolve(SNAPSHOT_FILE), StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Reads and deletes the snapshot, so it is restored at most once; null if there is none.
+     */
+    static Snapshot take(Path directory) throws IOException {
+        Path path = directory.resolve(SNAPSHOT_FILE);
+        if (!Files.exists(path)) {
+            return null;
+        }
+        ByteBuffer file = ByteBuffer.wrap(Files.readAllBytes(path));
+        Files.delete(path);
+        if (file.remaining() < 12 || file.getInt() != MAGIC) {
+            throw new IOException("Not a handoff snapshot: " + path);
+        }
+        int length = file.getInt();
+        int expectedCrc = file.getInt();
+        if (length != file.remaining()) {
+            throw new IOException("Truncated handoff snapshot: " + path);
+        }
+        CRC32 crc = new CRC32();
+        crc.update(file.duplicate());
+        if ((int) crc.getValue() != expectedCrc) {
+            throw new IOException("Corrupt handoff snapshot: " + path);
+        }
+        Snapshot snapshot = new Snapshot();
+        while (file.hasRemaining()) {
+            byte type = file.get();
+            if (type == MATCH_RECORD) {
+                long id = file.getLong();
+                int wordsPlayed = file.get() & 0xFF;
+                int count = file.getShort() & 0xFFFF;
+                List<String> players = new ArrayList<>(count);
+                for (int i = 0; i < count; i++) {
+                    players.add(readString(file));
+                }
+                snapshot.matches.add(new MatchState(id, wordsPlayed, players));
+            } else if (type == WAITING_RECORD) {
+                snapshot.waiting.add(readString(file));
+            } else {
+                throw new IOException("Unknown handoff record " + type + " in " + path);
+            }
+        }
+        return snapshot;
+    }
+
+    /**
+     * Asks the server on this host's metrics port to drain, with the command token if one is set, then
+     * waits for its snapshot. Returns null if no server answered, or if none was written within timeoutMs.
+     */
+    static Snapshot takeOver(Path directory, int metricsPort, String token, long timeoutMs)
+            throws IOException, InterruptedException {
+        if (Files.deleteIfExists(directory.resolve(SNAPSHOT_FILE))) {
+            Log.warn("Deleted a handoff snapshot left over from an earlier drain");
+        }
+        HttpURLConnection request = (HttpURLConnection) URI.create(
+                "http://localhost:" + metricsPort + "/drain").toURL().openConnection();
+        request.setRequestMethod("POST");
+        if (token != null) {
+            request.setRequestProperty(ServerMetrics.TOKEN_HEADER, token);
+        }
+        try {
+            if (request.getResponseCode() / 100 != 2) {
+                throw new IOException("Drain request answered " + request.getResponseCode());
+            }
+        } catch (ConnectException e) {
+            Log.info("No server on metrics port " + metricsPort + " to take over from");
+            return null;
+        } finally {
+            request.disconnect();
+        }
+        Log.info("Waiting up to " + timeoutMs + " ms for the running server to drain");
+        long deadline = System.nanoTime() + timeoutMs * 1000000;
+        while (!Files.exists(directory.resolve(SNAPSHOT_FILE))) {
+            if (System.nanoTime() > deadline) {
+                Log.warn("The running server did not hand over within " + timeoutMs + " ms; starting without it");
+                return null;
+            }
+            Thread.sleep(POLL_MS);
+        }
+        return take(directory);
+    }
+
+    /**
+     * Locks the directory for this process, waiting up to waitMs for another process to let go of it.
+     * The lock lasts until its channel is closed or the process exits; null if it was not released in time.
+     */
+    static FileLock lock(Path directory, long waitMs) throws IOException, InterruptedException {
+        Files.createDirectories(directory);
+        FileChannel channel = FileChannel.open(directory.resolve(LOCK_FILE), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE);
+        long deadline = System.nanoTime() + waitMs * 1000000;
+        try {
+            while (true) {
+                FileLock lock = channel.tryLock();
+                if (lock != null) {
+                    return lock;
+                }
+                if (System.nanoTime() > deadline) {
+                    channel.close();
+                    return null;
+                }
+                Thread.sleep(POLL_MS);
+            }
+        } catch (IOException | InterruptedException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeShort(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.getShort() & 0xFFFF];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
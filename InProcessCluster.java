@@ -0,0 +1,62 @@
+/**
+ * Cluster backend for a node that runs the ClusterHub in its own JVM: every call goes straight to
+ * the hub. Also lets several nodes share a JVM, e.g. in tests.
+ */
+class InProcessCluster implements Cluster {
+    private final ClusterHub hub;
+    private final String nodeId;
+
+    InProcessCluster(ClusterHub hub, String nodeId, Listener listener) {
+        this.hub = hub;
+        this.nodeId = nodeId;
+        hub.register(nodeId, listener);
+    }
+
+    public String nodeId() {
+        return nodeId;
+    }
+
+    public boolean isConnected() {
+        return true;
+    }
+
+    public void claimSession(String username) {
+        hub.claimSession(nodeId, username);
+    }
+
+    public void releaseSession(String username) {
+        hub.releaseSession(nodeId, username);
+    }
+
+    public void enqueue(Member member, int bucket, int groupSize) {
+        hub.enqueue(member, bucket, groupSize);
+    }
+
+    public void dequeue(String username) {
+        hub.dequeue(nodeId, username);
+    }
+
+    public void publishScore(String username, double score) {
+        hub.publishScore(nodeId, username, score);
+    }
+
+    public void removeScore(String username) {
+        hub.removeScore(nodeId, username);
+    }
+
+    public void deliver(String targetNodeId, String username, byte[] bytes) {
+        hub.deliver(targetNodeId, username, bytes);
+    }
+
+    public void forwardAnswer(String hostNodeId, String username, byte[] answer) {
+        hub.forwardAnswer(hostNodeId, username, answer);
+    }
+
+    public void forwardExit(String hostNodeId, String username) {
+        hub.forwardExit(hostNodeId, username);
+    }
+
+    public void matchEnded(String targetNodeId, String username) {
+        hub.matchEnded(targetNodeId, username);
+    }
+}
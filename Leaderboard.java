@@ -0,0 +1,281 @@
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.locks.*;
+
+/**
+ * Ranking of logged-in players, kept up to date as scores change instead of being rebuilt from
+ * authenticatedUsers on every SCOREBOARD request. Players are held in a treap ordered by score
+ * (highest first, then username) where every node knows its subtree size, so an update, a page of
+ * the top K and a player's own rank are all O(log n). The serialized first page is cached and only
+ * rebuilt after the ranking has changed.
+ */
+class Leaderboard {
+    private final int pageSize;
+    private final Map<String, Node> nodes = new HashMap<>();
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private Node root;
+    private volatile long version;
+    private volatile CachedPage<String> cachedFirstPage;
+    private volatile CachedPage<byte[]> cachedFirstFrame;
+
+    Leaderboard(int pageSize) {
+        this.pageSize = pageSize;
+    }
+
+    void update(String username, double score) {
+        lockForWrite();
+        try {
+            Node existing = nodes.get(username);
+            if (existing != null) {
+                if (existing.score == score) {
+                    return;
+                }
+                root = erase(root, existing);
+            }
+            Node node = new Node(username, score);
+            nodes.put(username, node);
+            root = insert(root, node);
+            version++;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    void remove(String username) {
+        lockForWrite();
+        try {
+            Node existing = nodes.remove(username);
+            if (existing != null) {
+                root = erase(root, existing);
+                version++;
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    // Records how long a writer had to wait, but only when the lock was actually contended
+    private void lockForWrite() {
+        Lock writeLock = lock.writeLock();
+        if (!writeLock.tryLock()) {
+            long start = System.nanoTime();
+            writeLock.lock();
+            ServerMetrics.leaderboardLockWaitMicros.record((System.nanoTime() - start) / 1000);
+        }
+    }
+
+    int size() {
+        lock.readLock().lock();
+        try {
+            return size(root);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * 1-based rank of the player, or 0 if the player is not on the leaderboard.
+     */
+    int rankOf(String username) {
+        lock.readLock().lock();
+        try {
+            Node target = nodes.get(username);
+            if (target == null) {
+                return 0;
+            }
+            int before = 0;
+            Node node = root;
+            while (node != null) {
+                int cmp = compare(target, node);
+                if (cmp == 0) {
+                    return before + size(node.left) + 1;
+                } else if (cmp < 0) {
+                    node = node.left;
+                } else {
+                    before += size(node.left) + 1;
+                    node = node.right;
+                }
+            }
+            return 0;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Serialized page of the ranking in the "Scoreboard: name: score" format; page 0 is the top.
+     */
+    String page(int page) {
+        if (page == 0) {
+            CachedPage<String> cached = cachedFirstPage;
+            if (cached != null && cached.version == version) {
+                return cached.value;
+            }
+        }
+        lock.readLock().lock();
+        try {
+            StringBuilder scoreboard = new StringBuilder("Scoreboard: ");
+            visitRange(root, 0, page * pageSize, (page + 1) * pageSize,
+                    (username, score) -> scoreboard.append(username).append(": ").append(score).append("\n"));
+            String text = scoreboard.toString().trim();
+            if (page == 0) {
+                cachedFirstPage = new CachedPage<>(version, text);
+            }
+            return text;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * The same page as a BinaryProtocol SCOREBOARD_PAGE frame. Callers must not modify it.
+     */
+    byte[] pageFrame(int page) {
+        if (page == 0) {
+            CachedPage<byte[]> cached = cachedFirstFrame;
+            if (cached != null && cached.version == version) {
+                return cached.value;
+            }
+        }
+        lock.readLock().lock();
+        try {
+            int from = page * pageSize;
+            int count = Math.max(0, Math.min(size(root), from + pageSize) - from);
+            BinaryProtocol.Writer frame = new BinaryProtocol.Writer(BinaryProtocol.SCOREBOARD_PAGE).putShort(count);
+            visitRange(root, 0, from, from + pageSize, (username, score) -> frame.putString(username).putDouble(score));
+            byte[] bytes = frame.toFrame();
+            if (page == 0) {
+                cachedFirstFrame = new CachedPage<>(version, bytes);
+            }
+            return bytes;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // Visits the nodes whose in-order index is in [from, to), skipping subtrees outside the range
+    private static void visitRange(Node node, int offset, int from, int to, EntryVisitor visitor) {
+        if (node == null || offset >= to || offset + node.size <= from) {
+            return;
+        }
+        visitRange(node.left, offset, from, to, visitor);
+        int index = offset + size(node.left);
+        if (index >= from && index < to) {
+            visitor.visit(node.username, node.score);
+        }
+        visitRange(node.right, index + 1, from, to, visitor);
+    }
+
+    private static Node insert(Node node, Node added) {
+        if (node == null) {
+            return added;
+        }
+        if (added.priority > node.priority) {
+            Node[] halves = split(node, added);
+            added.left = halves[0];
+            added.right = halves[1];
+            added.resize();
+            return added;
+        }
+        if (compare(added, node) < 0) {
+            node.left = insert(node.left, added);
+        } else {
+            node.right = insert(node.right, added);
+        }
+        node.resize();
+        return node;
+    }
+
+    private static Node erase(Node node, Node removed) {
+        if (node == null) {
+            return null;
+        }
+        if (node == removed) {
+            return merge(node.left, node.right);
+        }
+        if (compare(removed, node) < 0) {
+            node.left = erase(node.left, removed);
+        } else {
+            node.right = erase(node.right, removed);
+        }
+        node.resize();
+        return node;
+    }
+
+    // Splits into nodes ordered before the key and nodes ordered at or after it
+    private static Node[] split(Node node, Node key) {
+        if (node == null) {
+            return new Node[2];
+        }
+        if (compare(node, key) < 0) {
+            Node[] halves = split(node.right, key);
+            node.right = halves[0];
+            node.resize();
+            halves[0] = node;
+            return halves;
+        }
+        Node[] halves = split(node.left, key);
+        node.left = halves[1];
+        node.resize();
+        halves[1] = node;
+        return halves;
+    }
+
+    private static Node merge(Node left, Node right) {
+        if (left == null) {
+            return right;
+        }
+        if (right == null) {
+            return left;
+        }
+        if (left.priority > right.priority) {
+            left.right = merge(left.right, right);
+            left.resize();
+            return left;
+        }
+        right.left = merge(left, right.left);
+        right.resize();
+        return right;
+    }
+
+    private static int compare(Node a, Node b) {
+        int byScore = Double.compare(b.score, a.score);
+        return byScore != 0 ? byScore : a.username.compareTo(b.username);
+    }
+
+    private static int size(Node node) {
+        return node == null ? 0 : node.size;
+    }
+
+    private static final class Node {
+        final String username;
+        final double score;
+        final int priority = ThreadLocalRandom.current().nextInt();
+        int size = 1;
+        Node left;
+        Node right;
+
+        Node(String username, double score) {
+            this.username = username;
+            this.score = score;
+        }
+
+        void resize() {
+            size = 1 + Leaderboard.size(left) + Leaderboard.size(right);
+        }
+    }
+
+    private interface EntryVisitor {
+        void visit(String username, double score);
+    }
+
+    private static final class CachedPage<T> {
+        final long version;
+        final T value;
+
+        CachedPage(long version, T value) {
+            this.version = version;
+            this.value = value;
+        }
+    }
+}
@@ -0,0 +1,389 @@
+import java.io.*;
+import java.net.*;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+/**
+ * Headless mode of TypefastClient for end-to-end load tests. Every simulated player runs on its own
+ * virtual thread and speaks the same text or binary protocol as the GUI client: it registers, logs in,
+ * then keeps joining games and typing the words it is sent, after a random typing delay and with a
+ * configurable share of typos. When the run ends it prints latency percentiles and message rates.
+ *
+ * Start it with: java -Dtypefast.load.players=2000 -Dtypefast.load.seconds=60 TypefastClient --load
+ */
+class LoadGenerator {
+    // Match waits this long between a round ending and the next word
+    private static final long WORD_DELAY_MS = 3000;
+    private static final long PROGRESS_INTERVAL_SECONDS = 5;
+    private static final String PASSWORD = "loadtest";
+
+    private final String host = System.getProperty("typefast.load.host", TypefastClient.SERVER_ADDRESS);
+    private final int port = Integer.getInteger("typefast.load.port", TypefastClient.SERVER_PORT);
+    private final int players = Integer.getInteger("typefast.load.players", 100);
+    private final long durationMs = Long.getLong("typefast.load.seconds", 60) * 1000;
+    // Connections are spread over this period so the server is not hit by every login at once
+    private final long rampUpMs = Long.getLong("typefast.load.rampUpSeconds", 5) * 1000;
+    // Mean delay before each answer; actual delays are uniform between half and one and a half times this
+    private final long typingDelayMs = Long.getLong("typefast.load.typingDelayMs", 800);
+    private final double errorRate = Double.parseDouble(System.getProperty("typefast.load.errorRate", "0.1"));
+    private final String userPrefix = System.getProperty("typefast.load.userPrefix", "load");
+    private final boolean binary = Boolean.getBoolean("typefast.binary");
+
+    private final LatencyHistogram loginLatency = new LatencyHistogram();
+    private final LatencyHistogram matchStartLatency = new LatencyHistogram();
+    private final LatencyHistogram wordDeliveryLatency = new LatencyHistogram();
+    private final LatencyHistogram answerLatency = new LatencyHistogram();
+    private final LongAdder messagesSent = new LongAdder();
+    private final LongAdder messagesReceived = new LongAdder();
+    private final LongAdder gamesPlayed = new LongAdder();
+    private final LongAdder failures = new LongAdder();
+    private final AtomicInteger connected = new AtomicInteger();
+    private final Queue<Player> started = new ConcurrentLinkedQueue<>();
+    // Runs the delayed answers of every player, so a thinking player does not hold a thread
+    private final ScheduledExecutorService typist = Executors.newSingleThreadScheduledExecutor(
+            Thread.ofPlatform().name("load-typist").daemon().factory());
+    private volatile boolean stopping;
+
+    void run() throws InterruptedException {
+        System.out.println("Load test: " + players + " players for " + durationMs / 1000 + " s against " + host
+                + ":" + port + " (" + (binary ? "binary" : "text") + " protocol, typing delay " + typingDelayMs
+                + " ms, error rate " + errorRate + ")");
+        long startNanos = System.nanoTime();
+        ScheduledFuture<?> progress = typist.scheduleAtFixedRate(new Runnable() {
+            private long lastReceived;
+
+            public void run() {
+                long received = messagesReceived.sum();
+                System.out.println("  " + (System.nanoTime() - startNanos) / 1000000000 + " s: " + connected.get()
+                        + " connected, " + (received - lastReceived) / PROGRESS_INTERVAL_SECONDS + " messages/s received");
+                lastReceived = received;
+            }
+        }, PROGRESS_INTERVAL_SECONDS, PROGRESS_INTERVAL_SECONDS, TimeUnit.SECONDS);
+        for (int i = 0; i < players; i++) {
+            Player player = new Player(userPrefix + "-" + i);
+            started.add(player);
+            Thread.ofVirtual().name("load-player-" + i).start(player);
+            if (rampUpMs > 0) {
+                Thread.sleep(rampUpMs / players);
+            }
+        }
+        long remainingMs = durationMs - (System.nanoTime() - startNanos) / 1000000;
+        if (remainingMs > 0) {
+            Thread.sleep(remainingMs);
+        }
+        stopping = true;
+        double seconds = (System.nanoTime() - startNanos) / 1e9;
+        // The typist stays up for players still reacting to their last messages; their answers are skipped
+        progress.cancel(false);
+        for (Player player : started) {
+            player.close();
+        }
+        report(seconds);
+    }
+
+    private void report(double seconds) {
+        System.out.println();
+        System.out.printf("%-15s %8s %10s %10s %10s %10s%n", "latency (ms)", "count", "p50", "p99", "p999", "max");
+        printLatency("login", loginLatency);
+        printLatency("match start", matchStartLatency);
+        printLatency("word delivery", wordDeliveryLatency);
+        printLatency("answer ack", answerLatency);
+        System.out.println();
+        System.out.printf("messages sent     %,d (%,.0f/s)%n", messagesSent.sum(), messagesSent.sum() / seconds);
+        System.out.printf("messages received %,d (%,.0f/s)%n", messagesReceived.sum(), messagesReceived.sum() / seconds);
+        System.out.printf("games played      %,d%n", gamesPlayed.sum());
+        System.out.printf("failed players    %,d%n", failures.sum());
+        System.out.println();
+        System.out.println("match start is JOIN to the first word and includes the server's " + WORD_DELAY_MS
+                + " ms countdown; word delivery is how late a word arrives after that countdown.");
+    }
+
+    private static void printLatency(String name, LatencyHistogram histogram) {
+        System.out.printf("%-15s %8d %10.2f %10.2f %10.2f %10.2f%n", name, histogram.count(),
+                histogram.percentile(0.50) / 1000.0, histogram.percentile(0.99) / 1000.0,
+                histogram.percentile(0.999) / 1000.0, histogram.max() / 1000.0);
+    }
+
+    private static long micros(long fromNanos, long toNanos) {
+        return (toNanos - fromNanos) / 1000;
+    }
+
+    /**
+     * One simulated player. Its reader thread handles every server message; answers are typed on the
+     * shared typist thread, so the fields both touch are volatile.
+     */
+    private final class Player implements Runnable {
+        private final String username;
+        private final ByteArrayOutputStream lineBytes = new ByteArrayOutputStream();
+        private Socket socket;
+        private DataInputStream in;
+        private OutputStream out;
+        private boolean registered;
+        private long authSentAt;
+        private long joinedAt;
+        private boolean firstWordPending;
+        private long roundEndedAt;
+        private volatile String currentWord;
+        private volatile long answerSentAt;
+
+        Player(String username) {
+            this.username = username;
+        }
+
+        public void run() {
+            try {
+                socket = new Socket(host, port);
+                socket.setTcpNoDelay(true);
+                in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+                out = new BufferedOutputStream(socket.getOutputStream());
+                connected.incrementAndGet();
+                if (binary) {
+                    // The server switches right after this line, so the registration can already be a frame
+                    sendLine(BinaryProtocol.NEGOTIATE_CMD);
+                }
+                register();
+                String message;
+                while ((message = readLine()) != null) {
+                    messagesReceived.increment();
+                    if (binary && message.equals(BinaryProtocol.NEGOTIATE_ACK)) {
+                        ByteBuffer frame;
+                        while ((frame = BinaryProtocol.readFrame(in)) != null) {
+                            messagesReceived.increment();
+                            handleFrame(frame);
+                        }
+                        break;
+                    }
+                    handleMessage(message);
+                }
+            } catch (IOException e) {
+                if (!stopping) {
+                    failures.increment();
+                    System.err.println(username + ": " + e);
+                }
+            } finally {
+                connected.decrementAndGet();
+                close();
+            }
+        }
+
+        void close() {
+            try {
+                if (socket != null) {
+                    socket.close();
+                }
+            } catch (IOException ignored) {
+            }
+        }
+
+        private void handleMessage(String message) {
+            if (message.equals("PING")) {
+                send("PONG", BinaryProtocol.event(BinaryProtocol.PONG));
+            } else if (message.startsWith("Registration successful") || message.startsWith("Username already exists")) {
+                onRegistered();
+            } else if (message.startsWith("Server is busy")) {
+                onBusy();
+            } else if (message.startsWith("Login successful")) {
+                onLoggedIn();
+            } else if (message.startsWith("Invalid username or password")) {
+                onLoginFailed();
+            } else if (message.startsWith("New word: ")) {
+                onWord(message.substring("New word: ".length()));
+            } else if (message.startsWith("Correct! Time taken")) {
+                onAnswered(true);
+            } else if (message.startsWith("You placed ")) {
+                String[] parts = message.substring("You placed ".length(), message.length() - 1).split(" of ");
+                onPlaced(Integer.parseInt(parts[0]), Integer.parseInt(parts[1]));
+            } else if (message.startsWith("Incorrect word")) {
+                onAnswered(false);
+            } else if (message.startsWith("Time's up")) {
+                onRoundEnded();
+            } else if (message.startsWith("Game over")) {
+                onGameOver();
+            }
+        }
+
+        private void handleFrame(ByteBuffer frame) {
+            int opcode = frame.get() & 0xFF;
+            switch (opcode) {
+                case BinaryProtocol.REGISTERED:
+                case BinaryProtocol.REGISTER_FAILED:
+                    onRegistered();
+                    break;
+                case BinaryProtocol.LOGIN_OK:
+                    onLoggedIn();
+                    break;
+                case BinaryProtocol.LOGIN_FAILED:
+                    onLoginFailed();
+                    break;
+                case BinaryProtocol.WORD:
+                    onWord(BinaryProtocol.getString(frame));
+                    break;
+                case BinaryProtocol.CORRECT:
+                    frame.getInt();
+                    frame.getDouble();
+                    onAnswered(true);
+                    onPlaced(frame.getInt(), frame.getInt());
+                    break;
+                case BinaryProtocol.INCORRECT:
+                    onAnswered(false);
+                    break;
+                case BinaryProtocol.TIME_UP:
+                    onRoundEnded();
+                    break;
+                case BinaryProtocol.GAME_OVER:
+                    onGameOver();
+                    break;
+                case BinaryProtocol.TEXT:
+                    handleMessage(BinaryProtocol.getString(frame));
+                    break;
+                case BinaryProtocol.SERVER_PING:
+                    send("PONG", BinaryProtocol.event(BinaryProtocol.PONG));
+                    break;
+                default:
+                    break;
+            }
+        }
+
+        private void register() {
+            send(TypefastClient.REGISTER_CMD + " " + username + " " + PASSWORD,
+                    new BinaryProtocol.Writer(BinaryProtocol.REGISTER).putString(username).putString(PASSWORD).toFrame());
+        }
+
+        private void login() {
+            authSentAt = System.nanoTime();
+            send(TypefastClient.LOGIN_CMD + " " + username + " " + PASSWORD,
+                    new BinaryProtocol.Writer(BinaryProtocol.LOGIN).putString(username).putString(PASSWORD).toFrame());
+        }
+
+        private void join() {
+            joinedAt = System.nanoTime();
+            firstWordPending = true;
+            roundEndedAt = 0;
+            send(TypefastClient.JOIN_CMD, BinaryProtocol.event(BinaryProtocol.JOIN));
+        }
+
+        private void onRegistered() {
+            registered = true;
+            login();
+        }
+
+        // Registration and login are refused while the server is hashing too many passwords; try again shortly
+        private void onBusy() {
+            long backoffMs = 50 + ThreadLocalRandom.current().nextLong(200);
+            typist.schedule(() -> {
+                if (registered) {
+                    login();
+                } else {
+                    register();
+                }
+            }, backoffMs, TimeUnit.MILLISECONDS);
+        }
+
+        private void onLoggedIn() {
+            loginLatency.record(micros(authSentAt, System.nanoTime()));
+            join();
+        }
+
+        private void onLoginFailed() {
+            // Most likely an account left by an earlier run with another password; typefast.load.userPrefix avoids it
+            failures.increment();
+            System.err.println(username + ": login failed");
+            close();
+        }
+
+        private void onWord(String word) {
+            long now = System.nanoTime();
+            if (firstWordPending) {
+                matchStartLatency.record(micros(joinedAt, now));
+                firstWordPending = false;
+            } else if (roundEndedAt != 0) {
+                wordDeliveryLatency.record(Math.max(0, micros(roundEndedAt, now) - WORD_DELAY_MS * 1000));
+            }
+            currentWord = word;
+            scheduleAnswer(word);
+        }
+
+        private void onAnswered(boolean correct) {
+            answerLatency.record(micros(answerSentAt, System.nanoTime()));
+            if (correct) {
+                onRoundEnded();
+            } else if (currentWord != null) {
+                scheduleAnswer(currentWord);
+            }
+        }
+
+        // In a lobby the round only ends with the last player to type the word, so nobody else can time the next one
+        private void onPlaced(int placement, int players) {
+            if (placement < players) {
+                roundEndedAt = 0;
+            }
+        }
+
+        private void onRoundEnded() {
+            currentWord = null;
+            roundEndedAt = System.nanoTime();
+        }
+
+        private void onGameOver() {
+            gamesPlayed.increment();
+            currentWord = null;
+            if (!stopping) {
+                join();
+            }
+        }
+
+        private void scheduleAnswer(String word) {
+            long delayMs = (long) (typingDelayMs * (0.5 + ThreadLocalRandom.current().nextDouble()));
+            typist.schedule(() -> type(word), delayMs, TimeUnit.MILLISECONDS);
+        }
+
+        // Runs on the typist thread
+        private void type(String word) {
+            if (stopping || currentWord != word) {
+                return; // The round ended while this player was still typing
+            }
+            String answer = ThreadLocalRandom.current().nextDouble() < errorRate ? word + "x" : word;
+            answerSentAt = System.nanoTime();
+            send(answer, BinaryProtocol.text(BinaryProtocol.ANSWER, answer));
+        }
+
+        private void send(String textCommand, byte[] frame) {
+            if (binary) {
+                write(frame);
+            } else {
+                sendLine(textCommand);
+            }
+        }
+
+        private void sendLine(String line) {
+            write((line + "\n").getBytes(StandardCharsets.UTF_8));
+        }
+
+        private synchronized void write(byte[] bytes) {
+            try {
+                out.write(bytes);
+                out.flush();
+                messagesSent.increment();
+            } catch (IOException e) {
+                close();
+            }
+        }
+
+        // Same byte-by-byte framing as TypefastClient.readLine, so nothing past the protocol switch is consumed
+        private String readLine() throws IOException {
+            lineBytes.reset();
+            int b;
+            while ((b = in.read()) != '\n') {
+                if (b < 0) {
+                    return lineBytes.size() == 0 ? null : lineBytes.toString("UTF-8");
+                }
+                lineBytes.write(b);
+            }
+            String line = lineBytes.toString("UTF-8");
+            return line.endsWith("\r") ? line.substring(0, line.length() - 1) : line;
+        }
+    }
+}
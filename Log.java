@@ -0,0 +1,120 @@
+import java.io.*;
+import java.time.*;
+import java.time.format.DateTimeFormatter;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Leveled, asynchronous server log. Callers only enqueue an entry; a single daemon thread formats
+ * and writes whatever has queued up and flushes once, so logging never blocks a client, event loop
+ * or game thread on console I/O. When the queue is full further entries are dropped and counted
+ * instead of slowing the caller down.
+ *
+ * typefast.log.level picks the lowest level written (DEBUG, INFO, WARN or ERROR, default INFO).
+ * Guard messages that are costly to build with isEnabled.
+ */
+final class Log {
+    enum Level { DEBUG, INFO, WARN, ERROR }
+
+    private static final Level THRESHOLD = Level.valueOf(
+            System.getProperty("typefast.log.level", "INFO").trim().toUpperCase(Locale.ROOT));
+    private static final DateTimeFormatter TIME_FORMAT = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss.SSS");
+    private static final BlockingQueue<Entry> queue = new ArrayBlockingQueue<>(
+            Integer.getInteger("typefast.log.queueSize", 8192));
+    static final LongAdder dropped = new LongAdder();
+
+    static {
+        Thread writer = new Thread(Log::writeLoop, "typefast-log");
+        writer.setDaemon(true);
+        writer.start();
+        // Whatever is still queued when the server stops would otherwise be lost with the daemon thread
+        Runtime.getRuntime().addShutdownHook(new Thread(Log::drain, "typefast-log-flush"));
+    }
+
+    private Log() {
+    }
+
+    static boolean isEnabled(Level level) {
+        return level.compareTo(THRESHOLD) >= 0;
+    }
+
+    static void debug(String message) {
+        log(Level.DEBUG, message, null);
+    }
+
+    static void info(String message) {
+        log(Level.INFO, message, null);
+    }
+
+    static void warn(String message) {
+        log(Level.WARN, message, null);
+    }
+
+    static void error(String message, Throwable error) {
+        log(Level.ERROR, message, error);
+    }
+
+    private static void log(Level level, String message, Throwable error) {
+        if (!isEnabled(level)) {
+            return;
+        }
+        Entry entry = new Entry(System.currentTimeMillis(), level, Thread.currentThread().getName(), message, error);
+        if (!queue.offer(entry)) {
+            dropped.increment();
+        }
+    }
+
+    private static void writeLoop() {
+        List<Entry> batch = new ArrayList<>();
+        while (true) {
+            try {
+                batch.add(queue.take());
+                queue.drainTo(batch);
+                write(batch);
+                batch.clear();
+            } catch (InterruptedException e) {
+                return;
+            }
+        }
+    }
+
+    private static synchronized void write(List<Entry> batch) {
+        boolean errors = false;
+        for (Entry entry : batch) {
+            PrintStream out = entry.level.compareTo(Level.WARN) >= 0 ? System.err : System.out;
+            errors |= out == System.err;
+            out.println(TIME_FORMAT.format(LocalDateTime.ofInstant(Instant.ofEpochMilli(entry.time), ZoneId.systemDefault()))
+                    + " " + entry.level + " [" + entry.thread + "] " + entry.message);
+            if (entry.error != null) {
+                entry.error.printStackTrace(out);
+            }
+        }
+        System.out.flush();
+        if (errors) {
+            System.err.flush();
+        }
+    }
+
+    private static void drain() {
+        List<Entry> rest = new ArrayList<>();
+        queue.drainTo(rest);
+        write(rest);
+    }
+
+    private static final class Entry {
+        final long time;
+        final Level level;
+        final String thread;
+        final String message;
+        final Throwable error;
+
+        Entry(long time, Level level, String thread, String message, Throwable error) {
+            this.time = time;
+            this.level = level;
+            this.thread = thread;
+            this.message = message;
+            this.error = error;
+        }
+    }
+}
@@ -0,0 +1,375 @@
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.*;
+
+/**
+ * One running game. Instead of owning a thread that sleeps between ticks, a match is a small state
+ * machine driven by tasks on the shared game scheduler. Word dispatch, countdown ticks and timeouts
+ * are scheduled events, and client threads report correct answers and exits directly, so a round
+ * ends as soon as every remaining player has typed the word. Every transition runs under the
+ * match's monitor.
+ *
+ * Round state is O(1) however large the lobby: the shared Round counts correct answers atomically,
+ * which gives each player their placement and the first one the win, and exits remove the player
+ * when they happen instead of being polled for on every dispatch. A tick only fans out one buffer.
+ *
+ * Each state change is encoded once per protocol into a buffer shared by the whole group. A round
+ * opens with a single write carrying the word and the full time; after that only sync points are
+ * sent, every tickSync seconds and then each of the last tickSync seconds, and clients count down
+ * locally in between.
+ *
+ * When a journal is given, every dispatch, correct answer, exit and the outcome are recorded in it.
+ *
+ * A server that drains for a restart suspends its matches, and the process taking over resumes
+ * them under the same id with the words already played; see Handoff.
+ */
+class Match {
+    private static final long WORD_DELAY_MS = 3000;
+    private static final long TICK_MS = 1000;
+    private static final byte[] TIME_UP_LINE = TypefastServer.encodeLine("Time's up! You did not type the word correctly.");
+    private static final byte[] GAME_OVER_LINE = TypefastServer.encodeLine("Game over. Thanks for playing!");
+    private static final byte[] LEFT_LINE = TypefastServer.encodeLine("A player left the match.");
+    private static final byte[] LEFT_FRAME = BinaryProtocol.text(BinaryProtocol.TEXT, "A player left the match.");
+    private static final byte[][] TICK_LINES = new byte[256][];
+
+    static {
+        for (int seconds = 0; seconds < TICK_LINES.length; seconds++) {
+            TICK_LINES[seconds] = TypefastServer.encodeLine("Time remaining: " + seconds + " seconds");
+        }
+    }
+
+    // Players still in the match; copy-on-write since only joins by resume and exits change it
+    private final List<TypefastServer.ClientHandler> group;
+    // Every player's name as of joining, since a player who logs out loses theirs while events about them are in flight
+    private final Map<TypefastServer.ClientHandler, String> names = new ConcurrentHashMap<>();
+    // The match ends when fewer players than this are left: 1 alone, 2 for any real contest
+    private final int minPlayers;
+    private final MatchJournal journal;
+    private final long id;
+    private final ScheduledExecutorService scheduler;
+    private final Supplier<String> wordSupplier;
+    private final int timeLimit;
+    private final int wordsPerGame;
+    private final int tickSync;
+    private int wordsSent;
+    // Seconds left in the round as of the next tick
+    private int remaining;
+    private Round round;
+    // Players who typed the open round's word and then left; their solves no longer count towards its end
+    private int solvedAndLeft;
+    private boolean roundOpen;
+    private boolean finished;
+    private ScheduledFuture<?> pending;
+
+    Match(List<TypefastServer.ClientHandler> group, ScheduledExecutorService scheduler,
+          Supplier<String> wordSupplier, int timeLimit, int wordsPerGame, int tickSync, MatchJournal journal) {
+        this(group, scheduler, wordSupplier, timeLimit, wordsPerGame, tickSync, journal,
+                journal != null ? journal.nextMatchId() : 0);
+    }
+
+    Match(List<TypefastServer.ClientHandler> group, ScheduledExecutorService scheduler,
+          Supplier<String> wordSupplier, int timeLimit, int wordsPerGame, int tickSync, MatchJournal journal, long id) {
+        this.group = new CopyOnWriteArrayList<>(group);
+        this.minPlayers = Math.min(2, group.size());
+        this.journal = journal;
+        this.id = id;
+        this.scheduler = scheduler;
+        this.wordSupplier = wordSupplier;
+        this.timeLimit = timeLimit;
+        this.wordsPerGame = wordsPerGame;
+        this.tickSync = Math.max(1, tickSync);
+    }
+
+    synchronized void start() {
+        ServerMetrics.matchesStarted.increment();
+        ServerMetrics.activeMatches.incrementAndGet();
+        for (TypefastServer.ClientHandler client : group) {
+            String name = client.getUsername();
+            if (name == null) {
+                // Logged out while the match was being formed
+                group.remove(client);
+                continue;
+            }
+            names.put(client, name);
+            client.setMatch(this);
+        }
+        if (journal != null) {
+            List<String> players = new ArrayList<>(group.size());
+            for (TypefastServer.ClientHandler client : group) {
+                players.add(names.get(client));
+            }
+            journal.matchStarted(id, players);
+        }
+        // A player may have exited while the match was being formed
+        for (TypefastServer.ClientHandler client : group) {
+            if (client.getExitFlag()) {
+                remove(client);
+            }
+        }
+        if (group.size() < minPlayers) {
+            finish(false);
+            return;
+        }
+        // Introduce a 3-second delay before sending the first word
+        pending = schedule(this::dispatchWord, WORD_DELAY_MS);
+    }
+
+    /**
+     * Continues a match suspended by another process, which already journaled its start, with its
+     * next word after delayMs.
+     */
+    synchronized void resume(int wordsPlayed, long delayMs) {
+        ServerMetrics.activeMatches.incrementAndGet();
+        wordsSent = wordsPlayed;
+        for (TypefastServer.ClientHandler client : group) {
+            names.put(client, client.getUsername());
+            client.setMatch(this);
+        }
+        pending = schedule(this::dispatchWord, delayMs);
+    }
+
+    /**
+     * Stops the match for a handoff without ending it: players are told nothing, and the round in
+     * progress, if any, is played again with a new word after the restart. Returns null if the match
+     * is over already.
+     */
+    synchronized Handoff.MatchState suspend() {
+        if (finished) {
+            return null;
+        }
+        finished = true;
+        roundOpen = false;
+        if (pending != null) {
+            pending.cancel(false);
+        }
+        ServerMetrics.activeMatches.decrementAndGet();
+        List<String> players = new ArrayList<>(group.size());
+        for (TypefastServer.ClientHandler client : group) {
+            // Players of other nodes in a cluster cannot log in to the process taking over
+            if (!client.isRemote()) {
+                players.add(names.get(client));
+            }
+            client.clearMatch(this);
+        }
+        return new Handoff.MatchState(id, wordsSent, players);
+    }
+
+    int playerCount() {
+        return group.size();
+    }
+
+    /**
+     * Called from a client thread after it accepted a correct answer and took a placement from the
+     * round. The first one is announced to everyone; the last one ends the round right away.
+     */
+    void onWordTyped(Round typed, int placement, TypefastServer.ClientHandler client, long timeTaken, double score) {
+        if (journal != null) {
+            journal.wordSolved(id, typed.number, names.get(client), timeTaken, placement, score);
+        }
+        if (placement == 1 && group.size() > 1) {
+            String winner = names.get(client);
+            byte[] line = TypefastServer.encodeLine(winner + " typed it first!");
+            byte[] frame = BinaryProtocol.text(BinaryProtocol.ROUND_WINNER, winner);
+            for (TypefastServer.ClientHandler player : group) {
+                player.send(line, frame);
+            }
+        }
+        if (placement >= group.size()) {
+            endRoundIfAllTyped(typed);
+        }
+    }
+
+    private synchronized void endRoundIfAllTyped(Round typed) {
+        if (finished || !roundOpen || typed != round || typed.solved.get() - solvedAndLeft < group.size()) {
+            return;
+        }
+        pending.cancel(false);
+        endRound();
+    }
+
+    /**
+     * Called from a client thread when a player leaves. The others play on, unless too few are left.
+     */
+    synchronized void onExit(TypefastServer.ClientHandler client) {
+        if (finished || !remove(client)) {
+            return;
+        }
+        if (group.size() < minPlayers) {
+            if (pending != null) {
+                pending.cancel(false);
+            }
+            finish(false);
+            return;
+        }
+        for (TypefastServer.ClientHandler player : group) {
+            player.send(LEFT_LINE, LEFT_FRAME);
+        }
+        if (roundOpen && round.solved.get() - solvedAndLeft >= group.size()) {
+            // Everyone still playing has typed the word already
+            pending.cancel(false);
+            endRound();
+        }
+    }
+
+    private boolean remove(TypefastServer.ClientHandler client) {
+        if (!group.remove(client)) {
+            return false;
+        }
+        if (roundOpen && client.hasSolved(round)) {
+            solvedAndLeft++;
+        }
+        client.clearMatch(this);
+        client.resetExitFlag();
+        if (journal != null) {
+            journal.playerExited(id, names.get(client));
+        }
+        return true;
+    }
+
+    /**
+     * Called from a client thread when a player whose connection dropped logs in again; the new
+     * session takes the old one's place, round included. Returns false if the match is already over.
+     */
+    synchronized boolean replace(TypefastServer.ClientHandler dropped, TypefastServer.ClientHandler resumed) {
+        int index = group.indexOf(dropped);
+        if (finished || index < 0) {
+            return false;
+        }
+        group.set(index, resumed);
+        names.put(resumed, names.get(dropped));
+        resumed.takeOverRound(dropped);
+        resumed.setMatch(this);
+        resumed.sendMessage("Rejoined your match.");
+        if (roundOpen && !resumed.hasSolved(round)) {
+            // With the time left, so the rejoined client's countdown runs before the next tick
+            int left = (int) Math.max(1, timeLimit - (System.currentTimeMillis() - round.startTime) / 1000);
+            resumed.send(concat(round.line, tickLine(left)), concat(round.frame, BinaryProtocol.tick(left)));
+        }
+        return true;
+    }
+
+    private synchronized void dispatchWord() {
+        if (finished) {
+            return;
+        }
+        round = new Round(wordsSent + 1, wordSupplier.get(), System.currentTimeMillis());
+        if (journal != null) {
+            journal.wordDispatched(id, round.number, round.word);
+        }
+        roundOpen = true;
+        solvedAndLeft = 0;
+        remaining = timeLimit;
+        // The word and the full time go out together, as one write per client
+        byte[] line = concat(round.line, tickLine(timeLimit));
+        byte[] frame = concat(round.frame, BinaryProtocol.tick(timeLimit));
+        for (TypefastServer.ClientHandler client : group) {
+            // Arm the client before sending, so an instant answer is not checked against the previous word
+            client.arm(round);
+            client.send(line, frame);
+        }
+        scheduleNextTick();
+    }
+
+    private synchronized void tick() {
+        if (finished || !roundOpen) {
+            return;
+        }
+        if (remaining == 0) {
+            endRound();
+            return;
+        }
+        byte[] line = tickLine(remaining);
+        byte[] frame = BinaryProtocol.tick(remaining);
+        for (TypefastServer.ClientHandler client : group) {
+            client.send(line, frame);
+        }
+        scheduleNextTick();
+    }
+
+    // Skips ahead to the next sync point: a multiple of tickSync, or any second of the final countdown
+    private void scheduleNextTick() {
+        int next = remaining - 1;
+        if (next > tickSync) {
+            next = next / tickSync * tickSync;
+        }
+        pending = schedule(this::tick, (remaining - next) * TICK_MS);
+        remaining = next;
+    }
+
+    private void endRound() {
+        roundOpen = false;
+        for (TypefastServer.ClientHandler client : group) {
+            if (!client.hasSolved(round)) {
+                client.sendEvent(BinaryProtocol.TIME_UP, TIME_UP_LINE);
+            }
+        }
+        wordsSent++;
+        if (wordsSent < wordsPerGame) {
+            pending = schedule(this::dispatchWord, WORD_DELAY_MS);
+        } else {
+            finish(true);
+        }
+    }
+
+    private void finish(boolean completed) {
+        finished = true;
+        ServerMetrics.activeMatches.decrementAndGet();
+        roundOpen = false;
+        if (journal != null) {
+            journal.matchEnded(id, completed);
+        }
+        // Players who exited were taken out already; when too many left, the rest are told it is over
+        for (TypefastServer.ClientHandler client : group) {
+            client.sendEvent(BinaryProtocol.GAME_OVER, GAME_OVER_LINE);
+            client.clearMatch(this);
+        }
+    }
+
+    private static byte[] tickLine(int seconds) {
+        return seconds < TICK_LINES.length ? TICK_LINES[seconds]
+                : TypefastServer.encodeLine("Time remaining: " + seconds + " seconds");
+    }
+
+    private static byte[] concat(byte[] first, byte[] second) {
+        byte[] both = Arrays.copyOf(first, first.length + second.length);
+        System.arraycopy(second, 0, both, first.length, second.length);
+        return both;
+    }
+
+    private ScheduledFuture<?> schedule(Runnable task, long delayMs) {
+        return scheduler.schedule(() -> {
+            try {
+                task.run();
+            } catch (RuntimeException e) {
+                // Keep the scheduler thread alive for the other matches
+                Log.error("Match task failed", e);
+            }
+        }, delayMs, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * One word of a match, shared by every player in it: clients keep a reference to the round
+     * instead of copies of its word and start time. Only the count of correct answers changes.
+     */
+    static final class Round {
+        final int number; // 1 for the first word of the match
+        final String word;
+        final byte[] wordBytes;
+        final long startTime;
+        final byte[] line;
+        final byte[] frame;
+        // Players who typed the word so far; incrementing it hands out placements, 1 for the winner
+        final AtomicInteger solved = new AtomicInteger();
+
+        Round(int number, String word, long startTime) {
+            this.number = number;
+            this.word = word;
+            this.wordBytes = word.getBytes(StandardCharsets.UTF_8);
+            this.startTime = startTime;
+            this.line = TypefastServer.encodeLine("New word: " + word);
+            this.frame = BinaryProtocol.text(BinaryProtocol.WORD, word);
+        }
+    }
+}
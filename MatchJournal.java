@@ -0,0 +1,528 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.time.*;
+import java.time.format.DateTimeFormatter;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+import java.util.function.UnaryOperator;
+import java.util.stream.*;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only history of the matches hosted here: who played, every word dispatched, every correct
+ * answer with its time, placement and score, exits, and how each match ended. Matches only encode a
+ * record and offer it to a bounded queue; a single writer thread appends whatever has queued up
+ * with one write, so game and client threads never wait on the disk. As with the log, records that
+ * do not fit in the queue are dropped and counted rather than slowing a match down. The journal is
+ * history, not state: it is flushed to the OS but not forced, so a power cut may lose its tail.
+ *
+ * Records use the user store's framing, [i32 body length][i32 CRC32 of body][body], in segment
+ * files of about segmentBytes each; a new segment is started on every open, so a torn record can
+ * only be the last one of a segment. A batch whose write fails is cut off again, or if even that
+ * fails its segment is left for a new one, so later batches never follow a tear that reading stops at. Old history can be archived or deleted a segment at a time.
+ *
+ * read streams the segments in order through a small buffer, so replaying or aggregating any amount
+ * of history only keeps in memory what the visitor does. From the command line:
+ * java MatchJournal stats [directory] prints per-word solve times, and
+ * java MatchJournal replay matchId [directory] prints one match.
+ */
+class MatchJournal {
+    private static final String SEGMENT_PREFIX = "matches-";
+    private static final String SEGMENT_SUFFIX = ".journal";
+    private static final int SEGMENT_MAGIC = 0x54464A31; // "TFJ1"
+    // Every body starts with [u8 type][i64 match id][i64 epoch ms]
+    private static final byte STARTED = 1; // u16 players, players x string username
+    private static final byte WORD = 2;    // u16 round, string word
+    private static final byte SOLVED = 3;  // u16 round, string username, i32 time taken in ms, u16 placement, f64 score
+    private static final byte EXITED = 4;  // string username
+    private static final byte ENDED = 5;   // u8 1 if all words were played
+    private static final int HEADER_BYTES = 1 + 8 + 8;
+    // Far above any real record; a longer length can only come from a torn or corrupt header
+    static final int MAX_RECORD_BYTES = 1 << 20;
+
+    private final Path directory;
+    private final UnaryOperator<FileChannel> segmentChannel;
+    private final long segmentBytes;
+    private final BlockingQueue<byte[]> pending;
+    // Unique across restarts as long as fewer than 1000 matches start per millisecond on average
+    private final AtomicLong nextMatchId = new AtomicLong(System.currentTimeMillis() * 1000);
+    final LongAdder written = new LongAdder();
+    final LongAdder dropped = new LongAdder();
+    private FileChannel segment;
+    private int segmentIndex;
+
+    private MatchJournal(Path directory, UnaryOperator<FileChannel> segmentChannel, long segmentBytes, int queueSize) {
+        this.directory = directory;
+        this.segmentChannel = segmentChannel;
+        this.segmentBytes = segmentBytes;
+        this.pending = new ArrayBlockingQueue<>(queueSize);
+    }
+
+    /**
+     * Starts a new segment after any already in the directory, creating it if needed, and starts the writer.
+     */
+    static MatchJournal open(Path directory, long segmentBytes, int queueSize) throws IOException {
+        return open(directory, segmentBytes, queueSize, UnaryOperator.identity());
+    }
+
+    /**
+     * Same as open(directory, segmentBytes, queueSize), with each segment's channel passed through
+     * segmentChannel first, e.g. so a test can make its writes fail.
+     */
+    static MatchJournal open(Path directory, long segmentBytes, int queueSize, UnaryOperator<FileChannel> segmentChannel)
+            throws IOException {
+        Files.createDirectories(directory);
+        MatchJournal journal = new MatchJournal(directory, segmentChannel, segmentBytes, queueSize);
+        List<Path> segments = segments(directory);
+        if (!segments.isEmpty()) {
+            journal.segmentIndex = segmentIndex(segments.get(segments.size() - 1));
+        }
+        journal.roll();
+        Thread writer = new Thread(journal::writeLoop, "typefast-journal");
+        writer.setDaemon(true);
+        writer.start();
+        // Records still queued when the server stops would otherwise be lost with the daemon thread
+        Runtime.getRuntime().addShutdownHook(new Thread(journal::drain, "typefast-journal-flush"));
+        return journal;
+    }
+
+    long nextMatchId() {
+        return nextMatchId.incrementAndGet();
+    }
+
+    void matchStarted(long matchId, List<String> players) {
+        Body body = new Body(STARTED, matchId).putShort(players.size());
+        for (String player : players) {
+            body.putString(player);
+        }
+        append(body);
+    }
+
+    void wordDispatched(long matchId, int round, String word) {
+        append(new Body(WORD, matchId).putShort(round).putString(word));
+    }
+
+    void wordSolved(long matchId, int round, String username, long timeTaken, int placement, double score) {
+        append(new Body(SOLVED, matchId).putShort(round).putString(username).putInt((int) timeTaken)
+                .putShort(placement).putDouble(score));
+    }
+
+    void playerExited(long matchId, String username) {
+        append(new Body(EXITED, matchId).putString(username));
+    }
+
+    void matchEnded(long matchId, boolean completed) {
+        append(new Body(ENDED, matchId).put(completed ? 1 : 0));
+    }
+
+    private void append(Body body) {
+        if (body.position > MAX_RECORD_BYTES || !pending.offer(body.toBytes())) {
+            dropped.increment();
+        }
+    }
+
+    private void writeLoop() {
+        List<byte[]> batch = new ArrayList<>();
+        while (true) {
+            try {
+                batch.add(pending.take());
+                pending.drainTo(batch);
+                write(batch);
+                batch.clear();
+            } catch (InterruptedException e) {
+                return;
+            }
+        }
+    }
+
+    private synchronized void write(List<byte[]> batch) {
+        if (batch.isEmpty()) {
+            return;
+        }
+        int size = 0;
+        for (byte[] body : batch) {
+            size += 8 + body.length;
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(size);
+        CRC32 crc = new CRC32();
+        for (byte[] body : batch) {
+            crc.reset();
+            crc.update(body);
+            buffer.putInt(body.length).putInt((int) crc.getValue()).put(body);
+        }
+        buffer.flip();
+        long start = -1;
+        try {
+            start = segment.position();
+            while (buffer.hasRemaining()) {
+                segment.write(buffer);
+            }
+            written.add(batch.size());
+            if (segment.position() >= segmentBytes) {
+                roll();
+            }
+        } catch (IOException e) {
+            dropped.add(batch.size());
+            Log.error("Match journal write failed", e);
+            if (start >= 0) {
+                discardFrom(start);
+            }
+        }
+    }
+
+    // Takes a failed batch's torn bytes back off the segment, or moves on to a new one if that fails too
+    private void discardFrom(long start) {
+        try {
+            segment.truncate(start);
+            segment.position(start);
+        } catch (IOException e) {
+            try {
+                roll();
+            } catch (IOException rollFailure) {
+                Log.error("Could not start a new match journal segment", rollFailure);
+            }
+        }
+    }
+
+    private void drain() {
+        List<byte[]> rest = new ArrayList<>();
+        pending.drainTo(rest);
+        write(rest);
+    }
+
+    private void roll() throws IOException {
+        if (segment != null) {
+            segment.close();
+        }
+        segmentIndex++;
+        Path path = directory.resolve(String.format("%s%08d%s", SEGMENT_PREFIX, segmentIndex, SEGMENT_SUFFIX));
+        segment = segmentChannel.apply(FileChannel.open(path, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE));
+        ByteBuffer header = ByteBuffer.allocate(4).putInt(SEGMENT_MAGIC);
+        header.flip();
+        segment.write(header);
+    }
+
+    private static List<Path> segments(Path directory) throws IOException {
+        if (!Files.isDirectory(directory)) {
+            return Collections.emptyList();
+        }
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.filter(path -> {
+                String name = path.getFileName().toString();
+                return name.startsWith(SEGMENT_PREFIX) && name.endsWith(SEGMENT_SUFFIX);
+            }).sorted(Comparator.comparingInt(MatchJournal::segmentIndex)).collect(Collectors.toList());
+        }
+    }
+
+    private static int segmentIndex(Path segment) {
+        String name = segment.getFileName().toString();
+        return Integer.parseInt(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length()));
+    }
+
+    /**
+     * Receives the records of a journal in the order they were written. Records of concurrent
+     * matches are interleaved; the match id tells them apart.
+     */
+    interface Visitor {
+        default void matchStarted(long matchId, long time, List<String> players) {
+        }
+
+        default void wordDispatched(long matchId, long time, int round, String word) {
+        }
+
+        default void wordSolved(long matchId, long time, int round, String username, int timeTaken,
+                                int placement, double score) {
+        }
+
+        default void playerExited(long matchId, long time, String username) {
+        }
+
+        default void matchEnded(long matchId, long time, boolean completed) {
+        }
+    }
+
+    /**
+     * Streams every segment in the directory through the visitor, skipping the torn or corrupt tail
+     * of a segment, and returns the number of records read.
+     */
+    static long read(Path directory, Visitor visitor) throws IOException {
+        long records = 0;
+        byte[] body = new byte[256];
+        CRC32 crc = new CRC32();
+        for (Path path : segments(directory)) {
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(path), 1 << 16))) {
+                if (in.readInt() != SEGMENT_MAGIC) {
+                    throw new IOException("Not a Typefast match journal: " + path);
+                }
+                while (true) {
+                    int length = in.readInt();
+                    int checksum = in.readInt();
+                    if (length < HEADER_BYTES || length > MAX_RECORD_BYTES) {
+                        break;
+                    }
+                    if (length > body.length) {
+                        body = new byte[Math.max(length, body.length * 2)];
+                    }
+                    in.readFully(body, 0, length);
+                    crc.reset();
+                    crc.update(body, 0, length);
+                    if ((int) crc.getValue() != checksum) {
+                        break;
+                    }
+                    dispatch(ByteBuffer.wrap(body, 0, length), visitor);
+                    records++;
+                }
+            } catch (EOFException e) {
+                // End of the segment, or a record cut short by a crash; either way the next segment follows
+            }
+        }
+        return records;
+    }
+
+    private static void dispatch(ByteBuffer body, Visitor visitor) {
+        byte type = body.get();
+        long matchId = body.getLong();
+        long time = body.getLong();
+        switch (type) {
+            case STARTED:
+                int count = body.getShort() & 0xFFFF;
+                List<String> players = new ArrayList<>(count);
+                for (int i = 0; i < count; i++) {
+                    players.add(readString(body));
+                }
+                visitor.matchStarted(matchId, time, players);
+                break;
+            case WORD:
+                visitor.wordDispatched(matchId, time, body.getShort() & 0xFFFF, readString(body));
+                break;
+            case SOLVED:
+                int round = body.getShort() & 0xFFFF;
+                String username = readString(body);
+                int timeTaken = body.getInt();
+                int placement = body.getShort() & 0xFFFF;
+                visitor.wordSolved(matchId, time, round, username, timeTaken, placement, body.getDouble());
+                break;
+            case EXITED:
+                visitor.playerExited(matchId, time, readString(body));
+                break;
+            case ENDED:
+                visitor.matchEnded(matchId, time, body.get() != 0);
+                break;
+            default:
+                // Written by a newer server; skip it
+                break;
+        }
+    }
+
+    private static String readString(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.getShort() & 0xFFFF];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length == 0 || !(args[0].equals("stats") || args[0].equals("replay") && args.length > 1)) {
+            System.err.println("Usage: java MatchJournal stats [directory] | replay matchId [directory]");
+            System.exit(2);
+        }
+        boolean replay = args[0].equals("replay");
+        int directoryArg = replay ? 2 : 1;
+        Path directory = args.length > directoryArg ? Paths.get(args[directoryArg])
+                : Paths.get(System.getProperty("typefast.data.dir", "typefast-data"), "journal");
+        if (replay) {
+            read(directory, new Replay(Long.parseLong(args[1]), System.out));
+        } else {
+            WordStats stats = new WordStats();
+            long records = read(directory, stats);
+            stats.print(records, System.out);
+        }
+    }
+
+    /**
+     * Per-word solve statistics. Only the words of matches that have not ended yet are held on to,
+     * so memory grows with the number of distinct words, not with the length of the history.
+     */
+    static final class WordStats implements Visitor {
+        private final Map<Long, List<String>> openMatches = new HashMap<>();
+        private final Map<String, Word> words = new TreeMap<>();
+        private final LatencyHistogram solveTimes = new LatencyHistogram();
+        private long matches;
+
+        @Override
+        public void matchStarted(long matchId, long time, List<String> players) {
+            openMatches.put(matchId, new ArrayList<>());
+            matches++;
+        }
+
+        @Override
+        public void wordDispatched(long matchId, long time, int round, String word) {
+            List<String> rounds = openMatches.get(matchId);
+            if (rounds == null) {
+                return;
+            }
+            while (rounds.size() < round) {
+                rounds.add(null);
+            }
+            rounds.set(round - 1, word);
+            words.computeIfAbsent(word, w -> new Word()).rounds++;
+        }
+
+        @Override
+        public void wordSolved(long matchId, long time, int round, String username, int timeTaken,
+                               int placement, double score) {
+            List<String> rounds = openMatches.get(matchId);
+            if (rounds == null || round < 1 || round > rounds.size() || rounds.get(round - 1) == null) {
+                return;
+            }
+            Word word = words.get(rounds.get(round - 1));
+            word.solves++;
+            word.totalMs += timeTaken;
+            word.fastestMs = Math.min(word.fastestMs, timeTaken);
+            word.slowestMs = Math.max(word.slowestMs, timeTaken);
+            solveTimes.record(timeTaken);
+        }
+
+        @Override
+        public void matchEnded(long matchId, long time, boolean completed) {
+            openMatches.remove(matchId);
+        }
+
+        void print(long records, PrintStream out) {
+            out.println(records + " records, " + matches + " matches, " + solveTimes.count() + " words solved");
+            out.printf("solve time (ms): p50 %d, p99 %d, max %d%n",
+                    solveTimes.percentile(0.50), solveTimes.percentile(0.99), solveTimes.max());
+            out.printf("%-24s %8s %8s %8s %8s %8s%n", "word", "rounds", "solves", "mean ms", "fastest", "slowest");
+            for (Map.Entry<String, Word> entry : words.entrySet()) {
+                Word word = entry.getValue();
+                if (word.solves == 0) {
+                    out.printf("%-24s %8d %8d %8s %8s %8s%n", entry.getKey(), word.rounds, 0, "-", "-", "-");
+                } else {
+                    out.printf("%-24s %8d %8d %8d %8d %8d%n", entry.getKey(), word.rounds, word.solves,
+                            word.totalMs / word.solves, word.fastestMs, word.slowestMs);
+                }
+            }
+        }
+
+        private static final class Word {
+            long rounds;
+            long solves;
+            long totalMs;
+            int fastestMs = Integer.MAX_VALUE;
+            int slowestMs;
+        }
+    }
+
+    /**
+     * Prints every record of one match as it happened.
+     */
+    static final class Replay implements Visitor {
+        private static final DateTimeFormatter TIME_FORMAT = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss.SSS");
+        private final long matchId;
+        private final PrintStream out;
+
+        Replay(long matchId, PrintStream out) {
+            this.matchId = matchId;
+            this.out = out;
+        }
+
+        @Override
+        public void matchStarted(long matchId, long time, List<String> players) {
+            print(matchId, time, "started with " + String.join(", ", players));
+        }
+
+        @Override
+        public void wordDispatched(long matchId, long time, int round, String word) {
+            print(matchId, time, "word " + round + ": " + word);
+        }
+
+        @Override
+        public void wordSolved(long matchId, long time, int round, String username, int timeTaken,
+                               int placement, double score) {
+            print(matchId, time, username + " typed word " + round + " in " + timeTaken + " ms, placed "
+                    + placement + ", scored " + score);
+        }
+
+        @Override
+        public void playerExited(long matchId, long time, String username) {
+            print(matchId, time, username + " left");
+        }
+
+        @Override
+        public void matchEnded(long matchId, long time, boolean completed) {
+            print(matchId, time, completed ? "ended" : "ended early");
+        }
+
+        private void print(long matchId, long time, String event) {
+            if (matchId == this.matchId) {
+                out.println(TIME_FORMAT.format(LocalDateTime.ofInstant(Instant.ofEpochMilli(time), ZoneId.systemDefault()))
+                        + " " + event);
+            }
+        }
+    }
+
+    // Encodes one record body, starting with its header; strings are u16-length-prefixed UTF-8
+    private static final class Body {
+        private byte[] bytes = new byte[64];
+        private int position;
+
+        Body(byte type, long matchId) {
+            put(type).putLong(matchId).putLong(System.currentTimeMillis());
+        }
+
+        Body put(int value) {
+            ensure(1);
+            bytes[position++] = (byte) value;
+            return this;
+        }
+
+        Body putShort(int value) {
+            return putBits(value, 2);
+        }
+
+        Body putInt(int value) {
+            return putBits(value, 4);
+        }
+
+        Body putLong(long value) {
+            return putBits(value, 8);
+        }
+
+        Body putDouble(double value) {
+            return putBits(Double.doubleToLongBits(value), 8);
+        }
+
+        Body putString(String value) {
+            if (value == null) {
+                throw new IllegalArgumentException("Journal records cannot hold a null string");
+            }
+            byte[] encoded = value.getBytes(StandardCharsets.UTF_8);
+            putShort(encoded.length);
+            ensure(encoded.length);
+            System.arraycopy(encoded, 0, bytes, position, encoded.length);
+            position += encoded.length;
+            return this;
+        }
+
+        byte[] toBytes() {
+            return Arrays.copyOf(bytes, position);
+        }
+
+        private Body putBits(long value, int length) {
+            ensure(length);
+            for (int shift = (length - 1) * 8; shift >= 0; shift -= 8) {
+                bytes[position++] = (byte) (value >>> shift);
+            }
+            return this;
+        }
+
+        private void ensure(int extra) {
+            if (position + extra > bytes.length) {
+                bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, position + extra));
+            }
+        }
+    }
+}
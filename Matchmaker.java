@@ -0,0 +1,170 @@
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+import java.util.function.*;
+
+/**
+ * Lock-free waiting room. Membership is a concurrent set, so a repeated JOIN is rejected in O(1),
+ * and each bucket queues players on several lock-free shards so concurrent JOINs do not contend on
+ * one head. Groups are claimed by a CAS on the bucket's size before any player is dequeued, which
+ * lets several threads form groups at once without ever handing out a partial group.
+ *
+ * In the shared mode every player lands in one bucket. The skill mode buckets players by
+ * totalScore so groups are formed from players of a similar level. Callers that pick the bucket
+ * themselves, like the ClusterHub for the buckets nodes send it, pass it to enqueue.
+ */
+class Matchmaker<T> {
+    private final int groupSize;
+    private final int shardCount;
+    private final ToIntFunction<T> bucketOf;
+    // Waiting clients and the bucket each was queued in, which their score may no longer point to
+    private final ConcurrentMap<T, Integer> members = new ConcurrentHashMap<>();
+    private final ConcurrentMap<Integer, Bucket> buckets = new ConcurrentHashMap<>();
+    private final AtomicInteger waiting = new AtomicInteger();
+
+    private Matchmaker(int groupSize, int shardCount, ToIntFunction<T> bucketOf) {
+        this.groupSize = groupSize;
+        this.shardCount = shardCount;
+        this.bucketOf = bucketOf;
+    }
+
+    static <T> Matchmaker<T> shared(int groupSize, int shardCount) {
+        return new Matchmaker<>(groupSize, shardCount, client -> 0);
+    }
+
+    /**
+     * Groups players whose totalScore falls in the same band of the given width.
+     */
+    static Matchmaker<TypefastServer.ClientHandler> skillBucketed(int groupSize, int shardCount, double bucketWidth) {
+        return new Matchmaker<>(groupSize, shardCount, client -> (int) (client.getTotalScore() / bucketWidth));
+    }
+
+    /**
+     * Adds the client to the waiting room; returns false if it is already waiting.
+     */
+    boolean enqueue(T client) {
+        return enqueue(client, bucketOf.applyAsInt(client));
+    }
+
+    /**
+     * Adds the client to the given bucket instead of the one the matchmaker would pick.
+     */
+    boolean enqueue(T client, int bucket) {
+        if (members.putIfAbsent(client, bucket) != null) {
+            return false;
+        }
+        buckets.computeIfAbsent(bucket, key -> new Bucket()).add(client);
+        waiting.incrementAndGet();
+        return true;
+    }
+
+    /**
+     * Claims as many complete groups as are currently available across all buckets.
+     */
+    List<List<T>> formGroups() {
+        List<List<T>> groups = null;
+        for (Bucket bucket : buckets.values()) {
+            List<T> group;
+            while ((group = bucket.claimGroup()) != null) {
+                if (groups == null) {
+                    groups = new ArrayList<>();
+                }
+                groups.add(group);
+            }
+        }
+        return groups == null ? Collections.emptyList() : groups;
+    }
+
+    /**
+     * Takes a client that no group has claimed yet back out of the waiting room; returns false if it
+     * was not waiting or is already part of a group being formed.
+     */
+    boolean remove(T client) {
+        Integer queuedIn = members.get(client);
+        if (queuedIn == null) {
+            return false;
+        }
+        Bucket bucket = buckets.get(queuedIn);
+        return bucket != null && bucket.remove(client);
+    }
+
+    int waitingCount() {
+        return waiting.get();
+    }
+
+    /**
+     * Weakly consistent view of the clients currently waiting.
+     */
+    Iterable<T> waitingClients() {
+        return members.keySet();
+    }
+
+    private final class Bucket {
+        private final Queue<T>[] shards;
+        // Number of queued players not yet claimed by a group; always <= the total shard length
+        private final AtomicInteger unclaimed = new AtomicInteger();
+
+        Bucket() {
+            shards = newShards(shardCount);
+            for (int i = 0; i < shardCount; i++) {
+                shards[i] = new ConcurrentLinkedQueue<>();
+            }
+        }
+
+        void add(T client) {
+            shards[ThreadLocalRandom.current().nextInt(shardCount)].add(client);
+            // Only count the player once it is visible in a shard, so a claim never outruns the queues
+            unclaimed.incrementAndGet();
+        }
+
+        boolean remove(T client) {
+            // Reserve one player first, so a concurrent claim never counts on the one leaving
+            int available;
+            do {
+                available = unclaimed.get();
+                if (available == 0) {
+                    return false;
+                }
+            } while (!unclaimed.compareAndSet(available, available - 1));
+            for (Queue<T> shard : shards) {
+                if (shard.remove(client)) {
+                    members.remove(client);
+                    waiting.decrementAndGet();
+                    return true;
+                }
+            }
+            // A group polled the client in the meantime; hand the reservation back to the players still queued
+            unclaimed.incrementAndGet();
+            return false;
+        }
+
+        List<T> claimGroup() {
+            int available;
+            do {
+                available = unclaimed.get();
+                if (available < groupSize) {
+                    return null;
+                }
+            } while (!unclaimed.compareAndSet(available, available - groupSize));
+
+            List<T> group = new ArrayList<>(groupSize);
+            int shard = ThreadLocalRandom.current().nextInt(shardCount);
+            while (group.size() < groupSize) {
+                T client = shards[shard].poll();
+                if (client != null) {
+                    members.remove(client);
+                    waiting.decrementAndGet();
+                    group.add(client);
+                } else {
+                    shard = (shard + 1) % shardCount;
+                }
+            }
+            return group;
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> Queue<T>[] newShards(int count) {
+        return (Queue<T>[]) new Queue<?>[count];
+    }
+}
@@ -0,0 +1,381 @@
+import java.io.*;
+import java.net.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Non-blocking transport for the Typefast server. The accept loop hands every new channel to one of
+ * a fixed number of event loops, so the thread count stays the same no matter how many clients are
+ * connected. Each loop frames inbound bytes into lines and feeds them to the same
+ * ClientHandler.handleClientLine used by the blocking transport.
+ */
+public class NioServer {
+    private static final int READ_BUFFER_SIZE = 16 * 1024;
+    private static final int MAX_LINE_LENGTH = 8 * 1024;
+    // Any frame the u16 length allows, as the blocking transport accepts, with its length prefix
+    private static final int MAX_FRAME_BYTES = BinaryProtocol.MAX_FRAME_LENGTH + 2;
+    private static final int ACCEPT_BACKLOG = 1024;
+    private static final int WRITE_BATCH = 64;
+
+    private final int port;
+    private final int maxQueued;
+    private final boolean dropOnOverflow;
+    private final boolean reusePort;
+    private final EventLoop[] loops;
+    private int nextLoop;
+    // Closed from another thread by stopAccepting
+    private volatile ServerSocketChannel serverChannel;
+    private volatile Selector acceptSelector;
+
+    public NioServer(int port, int eventLoops, int maxQueued, boolean dropOnOverflow, boolean reusePort)
+            throws IOException {
+        this.port = port;
+        this.maxQueued = maxQueued;
+        this.dropOnOverflow = dropOnOverflow;
+        this.reusePort = reusePort;
+        this.loops = new EventLoop[eventLoops];
+        for (int i = 0; i < eventLoops; i++) {
+            loops[i] = new EventLoop("typefast-nio-" + i);
+        }
+    }
+
+    /**
+     * Binds the port without accepting yet; connections queue in the backlog until start. With
+     * reusePort another process may hold the port too, see Handoff.
+     */
+    public void bind() throws IOException {
+        serverChannel = ServerSocketChannel.open();
+        serverChannel.setOption(StandardSocketOptions.SO_REUSEADDR, true);
+        if (reusePort && serverChannel.supportedOptions().contains(StandardSocketOptions.SO_REUSEPORT)) {
+            serverChannel.setOption(StandardSocketOptions.SO_REUSEPORT, true);
+        }
+        serverChannel.bind(new InetSocketAddress(port), ACCEPT_BACKLOG);
+        serverChannel.configureBlocking(false);
+        acceptSelector = Selector.open();
+        serverChannel.register(acceptSelector, SelectionKey.OP_ACCEPT);
+    }
+
+    /**
+     * Starts the event loops and runs the accept loop on the calling thread, binding first if
+     * needed. Returns once stopAccepting is called.
+     */
+    public void start() throws IOException {
+        if (serverChannel == null) {
+            bind();
+        }
+        for (EventLoop loop : loops) {
+            loop.thread.start();
+        }
+        try (ServerSocketChannel serverChannel = this.serverChannel;
+             Selector acceptSelector = this.acceptSelector) {
+            while (serverChannel.isOpen()) {
+                acceptSelector.select();
+                acceptSelector.selectedKeys().clear();
+                SocketChannel channel;
+                while ((channel = serverChannel.accept()) != null) {
+                    channel.configureBlocking(false);
+                    channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+                    loops[nextLoop].register(channel);
+                    nextLoop = (nextLoop + 1) % loops.length;
+                }
+            }
+        } catch (ClosedChannelException e) {
+            // Closed by stopAccepting between select and accept
+        }
+    }
+
+    /**
+     * Closes the listener; connections already accepted are served on.
+     */
+    public void stopAccepting() {
+        closeQuietly(serverChannel);
+        acceptSelector.wakeup();
+    }
+
+    private final class EventLoop implements Runnable {
+        private final Thread thread;
+        private final Selector selector;
+        private final Queue<SocketChannel> pendingChannels = new ConcurrentLinkedQueue<>();
+        private final Queue<NioConnection> pendingWrites = new ConcurrentLinkedQueue<>();
+        // Shared by every connection on this loop; only partial lines are copied out per connection
+        private final ByteBuffer readBuffer = ByteBuffer.allocateDirect(READ_BUFFER_SIZE);
+        // Reused for gathering writes, so a connection's whole backlog goes out in one syscall
+        private final ByteBuffer[] writeBatch = new ByteBuffer[WRITE_BATCH];
+
+        EventLoop(String name) throws IOException {
+            this.selector = Selector.open();
+            this.thread = new Thread(this, name);
+        }
+
+        void register(SocketChannel channel) {
+            pendingChannels.add(channel);
+            selector.wakeup();
+        }
+
+        void requestWrite(NioConnection connection) {
+            pendingWrites.add(connection);
+            // Also needed on the loop thread itself, so the next select() returns and flushes the write
+            selector.wakeup();
+        }
+
+        public void run() {
+            while (true) {
+                try {
+                    selector.select();
+                    registerPendingChannels();
+                    flushPendingWrites();
+                    Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                    while (keys.hasNext()) {
+                        SelectionKey key = keys.next();
+                        keys.remove();
+                        NioConnection connection = (NioConnection) key.attachment();
+                        try {
+                            if (!key.isValid()) {
+                                connection.close();
+                                continue;
+                            }
+                            if (key.isReadable()) {
+                                connection.onReadable(readBuffer);
+                            }
+                            if (key.isValid() && key.isWritable()) {
+                                connection.onWritable();
+                            }
+                        } catch (RuntimeException e) {
+                            failed(connection, e);
+                        }
+                    }
+                } catch (IOException e) {
+                    Log.error("Event loop " + thread.getName() + " failed to select", e);
+                }
+            }
+        }
+
+        private void registerPendingChannels() {
+            SocketChannel channel;
+            while ((channel = pendingChannels.poll()) != null) {
+                try {
+                    NioConnection connection = new NioConnection(this, channel,
+                            new OutboundQueue(maxQueued, dropOnOverflow));
+                    connection.key = channel.register(selector, SelectionKey.OP_READ, connection);
+                    connection.handler = new TypefastServer.ClientHandler(connection);
+                    connection.handler.startHeartbeat();
+                } catch (IOException | RuntimeException e) {
+                    Log.error("Could not register client channel", e);
+                    closeQuietly(channel);
+                }
+            }
+        }
+
+        private void flushPendingWrites() {
+            NioConnection connection;
+            while ((connection = pendingWrites.poll()) != null) {
+                try {
+                    connection.onWritable();
+                } catch (RuntimeException e) {
+                    failed(connection, e);
+                }
+            }
+        }
+
+        // A bug in handling one client must not take down the loop and every other client on it
+        private void failed(NioConnection connection, RuntimeException error) {
+            Log.error("Closing a connection on " + thread.getName() + " after its handler failed", error);
+            try {
+                connection.close();
+            } catch (RuntimeException e) {
+                Log.error("Could not close the failed connection", e);
+                closeQuietly(connection.channel);
+            }
+        }
+    }
+
+    private static final class NioConnection implements TypefastServer.Connection {
+        private final EventLoop loop;
+        private final SocketChannel channel;
+        private final OutboundQueue outbound;
+        private volatile boolean closed;
+        private boolean released; // Only touched by close(), which runs on the event loop
+        private SelectionKey key;
+        private TypefastServer.ClientHandler handler;
+        // Bytes of a line or frame that is not complete yet; grown on demand up to MAX_LINE_LENGTH
+        // for a line and MAX_FRAME_BYTES for a frame
+        private byte[] lineBuffer = new byte[128];
+        private int lineLength;
+        // View of lineBuffer handed to handleClientFrame; rewrapped only when lineBuffer grows
+        private ByteBuffer frameView;
+
+        NioConnection(EventLoop loop, SocketChannel channel, OutboundQueue outbound) {
+            this.loop = loop;
+            this.channel = channel;
+            this.outbound = outbound;
+            ServerMetrics.connectionsOpened.increment();
+        }
+
+        public void send(String message) {
+            enqueue(ByteBuffer.wrap((message + "\n").getBytes(StandardCharsets.UTF_8)));
+        }
+
+        public void sendFrame(byte[] frame) {
+            // Frames may be shared between connections; wrap gives this connection its own position
+            enqueue(ByteBuffer.wrap(frame));
+        }
+
+        private void enqueue(ByteBuffer frame) {
+            if (closed) {
+                return;
+            }
+            ServerMetrics.messagesOut.increment();
+            switch (outbound.offer(frame)) {
+                case OutboundQueue.SCHEDULE_DRAIN:
+                    loop.requestWrite(this);
+                    break;
+                case OutboundQueue.OVERFLOW:
+                    // close() touches the selection key, so leave it to the event loop
+                    closed = true;
+                    loop.requestWrite(this);
+                    break;
+                default:
+                    break;
+            }
+        }
+
+        public void close() {
+            closed = true;
+            if (Thread.currentThread() != loop.thread) {
+                // Session timers and cluster events close from other threads; the key belongs to the loop
+                loop.requestWrite(this);
+                return;
+            }
+            if (!released) {
+                released = true;
+                ServerMetrics.connectionsClosed.increment();
+                if (handler != null) {
+                    handler.disconnected();
+                }
+            }
+            outbound.clear();
+            if (key != null) {
+                key.cancel();
+            }
+            closeQuietly(channel);
+        }
+
+        void onReadable(ByteBuffer readBuffer) {
+            readBuffer.clear();
+            int read;
+            try {
+                read = channel.read(readBuffer);
+            } catch (IOException e) {
+                close();
+                return;
+            }
+            if (read < 0) {
+                close();
+                return;
+            }
+            readBuffer.flip();
+            while (readBuffer.hasRemaining() && !closed) {
+                // Re-checked per message: a BINARY line switches the rest of this buffer to frames
+                if (handler.isBinary()) {
+                    readFrame(readBuffer);
+                } else {
+                    readLine(readBuffer);
+                }
+            }
+        }
+
+        private void readLine(ByteBuffer readBuffer) {
+            while (readBuffer.hasRemaining()) {
+                byte b = readBuffer.get();
+                if (b == '\n') {
+                    int length = lineLength;
+                    if (length > 0 && lineBuffer[length - 1] == '\r') {
+                        length--;
+                    }
+                    lineLength = 0;
+                    handler.handleClientLine(lineBuffer, 0, length);
+                    return;
+                }
+                if (!appendToLine(b, MAX_LINE_LENGTH)) {
+                    return;
+                }
+            }
+        }
+
+        // Reuses lineBuffer for the [u16 length][opcode][payload] frame being assembled
+        private void readFrame(ByteBuffer readBuffer) {
+            while (readBuffer.hasRemaining()) {
+                if (!appendToLine(readBuffer.get(), MAX_FRAME_BYTES)) {
+                    return;
+                }
+                if (lineLength >= 2) {
+                    int frameLength = ((lineBuffer[0] & 0xFF) << 8) | (lineBuffer[1] & 0xFF);
+                    if (lineLength == frameLength + 2) {
+                        lineLength = 0;
+                        if (frameView == null || frameView.array() != lineBuffer) {
+                            frameView = ByteBuffer.wrap(lineBuffer);
+                        }
+                        frameView.limit(frameLength + 2).position(2);
+                        handler.handleClientFrame(frameView);
+                        return;
+                    }
+                }
+            }
+        }
+
+        private boolean appendToLine(byte b, int maxLength) {
+            if (lineLength == lineBuffer.length) {
+                if (lineLength >= maxLength) {
+                    // A client that never finishes a line or frame must not be able to grow this buffer forever
+                    close();
+                    return false;
+                }
+                lineBuffer = Arrays.copyOf(lineBuffer, Math.min(lineBuffer.length * 2, maxLength));
+            }
+            lineBuffer[lineLength++] = b;
+            return true;
+        }
+
+        void onWritable() {
+            if (closed) {
+                close();
+                return;
+            }
+            try {
+                ByteBuffer[] batch = loop.writeBatch;
+                int count;
+                while ((count = outbound.peekBatch(batch)) > 0) {
+                    channel.write(batch, 0, count);
+                    int written = 0;
+                    while (written < count && !batch[written].hasRemaining()) {
+                        outbound.poll();
+                        written++;
+                    }
+                    Arrays.fill(batch, 0, count, null);
+                    if (written < count) {
+                        // Socket buffer is full; wait for OP_WRITE before writing the rest
+                        key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+                        return;
+                    }
+                }
+                key.interestOps(SelectionKey.OP_READ);
+                // A sender may have queued a frame after the last peek; go around again if so
+                if (outbound.finishDrain()) {
+                    loop.requestWrite(this);
+                }
+            } catch (IOException | CancelledKeyException e) {
+                close();
+            }
+        }
+    }
+
+    private static void closeQuietly(Channel channel) {
+        try {
+            channel.close();
+        } catch (IOException ignored) {
+        }
+    }
+}
@@ -0,0 +1,93 @@
+import java.nio.ByteBuffer;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+/**
+ * Bounded queue of encoded frames waiting to be written to one client. Senders never touch the
+ * socket: they enqueue and, if no drain is pending, ask the transport to schedule one. The drainer
+ * then writes everything queued so far and flushes once. A client whose backlog reaches maxQueued
+ * is either disconnected or has further frames dropped, so one slow reader cannot hold up a match
+ * or a broadcast.
+ */
+class OutboundQueue {
+    static final int QUEUED = 0;
+    static final int SCHEDULE_DRAIN = 1;
+    static final int OVERFLOW = 2;
+
+    static final LongAdder droppedFrames = new LongAdder();
+    static final LongAdder overflowDisconnects = new LongAdder();
+
+    private final Queue<ByteBuffer> frames = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger size = new AtomicInteger();
+    private final AtomicBoolean drainScheduled = new AtomicBoolean();
+    private final int maxQueued;
+    private final boolean dropOnOverflow;
+
+    OutboundQueue(int maxQueued, boolean dropOnOverflow) {
+        this.maxQueued = maxQueued;
+        this.dropOnOverflow = dropOnOverflow;
+    }
+
+    /**
+     * Returns SCHEDULE_DRAIN if the caller must start a drain, OVERFLOW if the client should be
+     * disconnected, and QUEUED otherwise (including when the frame was dropped).
+     */
+    int offer(ByteBuffer frame) {
+        if (size.incrementAndGet() > maxQueued) {
+            size.decrementAndGet();
+            if (dropOnOverflow) {
+                droppedFrames.increment();
+                return QUEUED;
+            }
+            overflowDisconnects.increment();
+            return OVERFLOW;
+        }
+        frames.add(frame);
+        return drainScheduled.compareAndSet(false, true) ? SCHEDULE_DRAIN : QUEUED;
+    }
+
+    ByteBuffer peek() {
+        return frames.peek();
+    }
+
+    ByteBuffer poll() {
+        ByteBuffer frame = frames.poll();
+        if (frame != null) {
+            size.decrementAndGet();
+        }
+        return frame;
+    }
+
+    /**
+     * Copies up to batch.length queued frames into batch for one gathering write; returns the count.
+     */
+    int peekBatch(ByteBuffer[] batch) {
+        int count = 0;
+        for (ByteBuffer frame : frames) {
+            if (count == batch.length) {
+                break;
+            }
+            batch[count++] = frame;
+        }
+        return count;
+    }
+
+    /**
+     * Called by the drainer once the queue looked empty. Returns true if a frame arrived in the
+     * meantime and the drainer has to go around again.
+     */
+    boolean finishDrain() {
+        drainScheduled.set(false);
+        return !frames.isEmpty() && drainScheduled.compareAndSet(false, true);
+    }
+
+    int size() {
+        return size.get();
+    }
+
+    void clear() {
+        frames.clear();
+        size.set(0);
+    }
+}
@@ -0,0 +1,172 @@
+import com.sun.net.httpserver.HttpServer;
+import java.io.*;
+import java.lang.management.ManagementFactory;
+import java.net.*;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.*;
+import java.util.concurrent.atomic.*;
+import java.util.function.LongSupplier;
+import javax.management.*;
+
+/**
+ * Server instrumentation. Hot paths only bump the static lock-free counters and histograms below;
+ * everything else is read on demand through gauges. Every metric is published both as an attribute
+ * of the JMX MBean typefast:type=Server and on a plain-text endpoint bound to the loopback
+ * interface, one "name value" line each (curl http://localhost:12346/metrics). Commands on the same
+ * endpoint run on a POST to their path, e.g. curl -X POST http://localhost:12346/drain. Given a
+ * command token, they also need it in an X-Typefast-Token header, so that other users of the host
+ * cannot run them.
+ */
+final class ServerMetrics implements DynamicMBean {
+    static final LongAdder connectionsOpened = new LongAdder();
+    static final LongAdder connectionsClosed = new LongAdder();
+    static final LongAdder matchesStarted = new LongAdder();
+    static final AtomicInteger activeMatches = new AtomicInteger();
+    static final LongAdder messagesIn = new LongAdder();
+    static final LongAdder messagesOut = new LongAdder();
+    static final LongAdder authBusyRejections = new LongAdder();
+    static final LongAdder sessionsReaped = new LongAdder();
+    static final LongAdder sessionsResumed = new LongAdder();
+    static final LongAdder messagesThrottled = new LongAdder();
+    static final LongAdder answersTooFast = new LongAdder();
+    static final LongAdder abuseDisconnects = new LongAdder();
+    // From receiving an answer to queueing its CORRECT or INCORRECT reply
+    static final LatencyHistogram answerAckMicros = new LatencyHistogram();
+    // Only contended acquisitions of the leaderboard's write lock are recorded
+    static final LatencyHistogram leaderboardLockWaitMicros = new LatencyHistogram();
+
+    static final String TOKEN_HEADER = "X-Typefast-Token";
+
+    private final Map<String, LongSupplier> metrics = new LinkedHashMap<>();
+    private final Map<String, Runnable> commands = new LinkedHashMap<>();
+    private byte[] commandToken;
+    private HttpServer server;
+
+    ServerMetrics gauge(String name, LongSupplier value) {
+        metrics.put(name, value);
+        return this;
+    }
+
+    ServerMetrics histogram(String name, LatencyHistogram histogram) {
+        metrics.put(name + "_count", histogram::count);
+        metrics.put(name + "_p50", () -> histogram.percentile(0.50));
+        metrics.put(name + "_p99", () -> histogram.percentile(0.99));
+        metrics.put(name + "_p999", () -> histogram.percentile(0.999));
+        metrics.put(name + "_max", histogram::max);
+        return this;
+    }
+
+    // Runs on the endpoint's thread, so a command that takes long should hand its work off
+    ServerMetrics command(String name, Runnable action) {
+        commands.put(name, action);
+        return this;
+    }
+
+    // Null leaves commands open to anyone on the loopback interface
+    ServerMetrics commandToken(String token) {
+        commandToken = token != null ? token.getBytes(StandardCharsets.UTF_8) : null;
+        return this;
+    }
+
+    /**
+     * Registers the MBean and, unless port is 0, serves the plain-text endpoint on localhost.
+     */
+    void start(int port) throws IOException {
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(this, new ObjectName("typefast:type=Server"));
+        } catch (JMException e) {
+            Log.error("Could not register the metrics MBean", e);
+        }
+        if (port == 0) {
+            return;
+        }
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        server.createContext("/metrics", exchange -> {
+            byte[] body = render().getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        });
+        for (Map.Entry<String, Runnable> command : commands.entrySet()) {
+            server.createContext("/" + command.getKey(), exchange -> {
+                if (!"POST".equals(exchange.getRequestMethod())) {
+                    exchange.sendResponseHeaders(405, -1);
+                    exchange.close();
+                    return;
+                }
+                if (commandToken != null && !authorized(exchange.getRequestHeaders().getFirst(TOKEN_HEADER))) {
+                    exchange.sendResponseHeaders(403, -1);
+                    exchange.close();
+                    return;
+                }
+                command.getValue().run();
+                exchange.sendResponseHeaders(202, -1);
+                exchange.close();
+            });
+        }
+        server.start();
+        Log.info("Metrics on http://localhost:" + port + "/metrics");
+    }
+
+    private boolean authorized(String token) {
+        return token != null && MessageDigest.isEqual(commandToken, token.getBytes(StandardCharsets.UTF_8));
+    }
+
+    // Frees the port, e.g. for the process taking over from this one
+    void stop() {
+        if (server != null) {
+            server.stop(0);
+        }
+    }
+
+    String render() {
+        StringBuilder text = new StringBuilder();
+        for (Map.Entry<String, LongSupplier> metric : metrics.entrySet()) {
+            text.append(metric.getKey()).append(' ').append(metric.getValue().getAsLong()).append('\n');
+        }
+        return text.toString();
+    }
+
+    public Object getAttribute(String attribute) throws AttributeNotFoundException {
+        LongSupplier metric = metrics.get(attribute);
+        if (metric == null) {
+            throw new AttributeNotFoundException(attribute);
+        }
+        return metric.getAsLong();
+    }
+
+    public void setAttribute(Attribute attribute) throws AttributeNotFoundException {
+        throw new AttributeNotFoundException("Metrics are read-only: " + attribute.getName());
+    }
+
+    public AttributeList getAttributes(String[] attributes) {
+        AttributeList list = new AttributeList();
+        for (String attribute : attributes) {
+            LongSupplier metric = metrics.get(attribute);
+            if (metric != null) {
+                list.add(new Attribute(attribute, metric.getAsLong()));
+            }
+        }
+        return list;
+    }
+
+    public AttributeList setAttributes(AttributeList attributes) {
+        return new AttributeList();
+    }
+
+    public Object invoke(String actionName, Object[] params, String[] signature) throws ReflectionException {
+        throw new ReflectionException(new NoSuchMethodException(actionName));
+    }
+
+    public MBeanInfo getMBeanInfo() {
+        List<MBeanAttributeInfo> attributes = new ArrayList<>();
+        for (String name : metrics.keySet()) {
+            attributes.add(new MBeanAttributeInfo(name, "long", name, true, false, false));
+        }
+        return new MBeanInfo(getClass().getName(), "Typefast server metrics",
+                attributes.toArray(new MBeanAttributeInfo[0]), null, null, null);
+    }
+}
@@ -0,0 +1,189 @@
+import java.lang.invoke.*;
+import java.util.*;
+
+/**
+ * Hot per-session state kept in primitive arrays rather than in fields and small objects of every
+ * ClientHandler: activity stamp, score, flags, rate-limit buckets and abuse counters. A session is
+ * an int id into pages of PAGE_SIZE slots; pages are added as sessions grow and never removed, and
+ * released ids are reused, so the table stays as large as the peak number of sessions.
+ *
+ * Every field states how it is shared, and is only accessed that way:
+ * - flags: read and written from any thread; volatile reads, CAS updates of single bits.
+ * - score: written by whichever thread scores the player, read by matchmaking and cluster threads;
+ *   volatile.
+ * - lastActivity: written for every message by the connection's thread, read by the session timer;
+ *   opaque, since the timer only needs to see a recent stamp eventually, never an ordering.
+ * - buckets and counters: only used by the thread reading the connection; plain.
+ * A slot's id only reaches other threads through a safe publication of its ClientHandler, which
+ * comes after the slot was reset under the table's lock.
+ */
+final class SessionTable {
+    static final int BINARY = 1;
+    static final int EXIT_REQUESTED = 1 << 2;
+    static final int DISCONNECTED = 1 << 3;
+    static final int SUPERSEDED = 1 << 4;
+
+    static final int MESSAGE_BUCKET = 0;
+    static final int ANSWER_BUCKET = 1;
+    private static final int BUCKETS = 2;
+    // One run per bucket, at THROTTLED_IN_A_ROW + bucket, so admits from one bucket do not end another's
+    static final int THROTTLED_IN_A_ROW = 0;
+    static final int TOO_FAST_FLAGS = BUCKETS;
+    private static final int COUNTERS = BUCKETS + 1;
+
+    private static final int PAGE_BITS = 10;
+    private static final int PAGE_SIZE = 1 << PAGE_BITS;
+    private static final VarHandle INTS = MethodHandles.arrayElementVarHandle(int[].class);
+    private static final VarHandle LONGS = MethodHandles.arrayElementVarHandle(long[].class);
+    private static final VarHandle DOUBLES = MethodHandles.arrayElementVarHandle(double[].class);
+
+    // Replaced by a longer copy when a page is added, so readers never lock
+    private volatile Page[] pages = new Page[0];
+    private int[] freeIds = new int[PAGE_SIZE];
+    private int freeCount;
+    private int nextId;
+    private int live;
+
+    /**
+     * Returns a cleared slot: no flags set, zero score, the activity stamp and full buckets as of now.
+     */
+    synchronized int allocate() {
+        int id;
+        if (freeCount > 0) {
+            id = freeIds[--freeCount];
+        } else {
+            id = nextId++;
+            if (id >> PAGE_BITS == pages.length) {
+                Page[] grown = Arrays.copyOf(pages, pages.length + 1);
+                grown[pages.length] = new Page();
+                pages = grown;
+            }
+        }
+        Page page = pages[id >> PAGE_BITS];
+        int slot = id & (PAGE_SIZE - 1);
+        long now = System.nanoTime();
+        page.flags[slot] = 0;
+        page.score[slot] = 0;
+        page.lastActivity[slot] = now;
+        for (int i = 0; i < BUCKETS; i++) {
+            // Infinity is clamped to the bucket's burst on first use, whatever that is
+            page.tokens[BUCKETS * slot + i] = Double.POSITIVE_INFINITY;
+            page.refilledAt[BUCKETS * slot + i] = now;
+        }
+        Arrays.fill(page.counters, COUNTERS * slot, COUNTERS * slot + COUNTERS, 0);
+        live++;
+        return id;
+    }
+
+    /**
+     * Makes the id available again. The caller must be sure no thread still uses it.
+     */
+    synchronized void release(int id) {
+        if (freeCount == freeIds.length) {
+            freeIds = Arrays.copyOf(freeIds, freeIds.length * 2);
+        }
+        freeIds[freeCount++] = id;
+        live--;
+    }
+
+    synchronized int size() {
+        return live;
+    }
+
+    // Bytes held by the arrays of the pages allocated so far
+    long footprint() {
+        return (long) pages.length * PAGE_SIZE * Page.BYTES_PER_SLOT;
+    }
+
+    boolean flag(int id, int flag) {
+        Page page = page(id);
+        return ((int) INTS.getVolatile(page.flags, slot(id)) & flag) != 0;
+    }
+
+    void setFlag(int id, int flag, boolean on) {
+        Page page = page(id);
+        int slot = slot(id);
+        int current;
+        do {
+            current = (int) INTS.getVolatile(page.flags, slot);
+        } while (!INTS.compareAndSet(page.flags, slot, current, on ? current | flag : current & ~flag));
+    }
+
+    /**
+     * Sets the flag and returns true, or returns false if it was set already, e.g. by another thread.
+     */
+    boolean setFlagOnce(int id, int flag) {
+        Page page = page(id);
+        int slot = slot(id);
+        int current;
+        do {
+            current = (int) INTS.getVolatile(page.flags, slot);
+            if ((current & flag) != 0) {
+                return false;
+            }
+        } while (!INTS.compareAndSet(page.flags, slot, current, current | flag));
+        return true;
+    }
+
+    double score(int id) {
+        return (double) DOUBLES.getVolatile(page(id).score, slot(id));
+    }
+
+    void setScore(int id, double score) {
+        DOUBLES.setVolatile(page(id).score, slot(id), score);
+    }
+
+    long lastActivity(int id) {
+        return (long) LONGS.getOpaque(page(id).lastActivity, slot(id));
+    }
+
+    void touch(int id, long now) {
+        LONGS.setOpaque(page(id).lastActivity, slot(id), now);
+    }
+
+    /**
+     * Takes a token from one of the session's buckets, refilled at perSecond up to burst. Only for
+     * the thread reading the session's connection.
+     */
+    boolean tryAcquire(int id, int bucket, double perSecond, int burst, long now) {
+        Page page = page(id);
+        int index = BUCKETS * slot(id) + bucket;
+        double tokens = Math.min(Math.max(1, burst),
+                page.tokens[index] + (now - page.refilledAt[index]) * (perSecond / 1e9));
+        page.refilledAt[index] = now;
+        if (tokens < 1) {
+            page.tokens[index] = tokens;
+            return false;
+        }
+        page.tokens[index] = tokens - 1;
+        return true;
+    }
+
+    // Counters are only for the thread reading the session's connection
+    int increment(int id, int counter) {
+        return ++page(id).counters[COUNTERS * slot(id) + counter];
+    }
+
+    void reset(int id, int counter) {
+        page(id).counters[COUNTERS * slot(id) + counter] = 0;
+    }
+
+    private Page page(int id) {
+        return pages[id >> PAGE_BITS];
+    }
+
+    private static int slot(int id) {
+        return id & (PAGE_SIZE - 1);
+    }
+
+    private static final class Page {
+        static final int BYTES_PER_SLOT = 4 + 8 + 8 + BUCKETS * (8 + 8) + COUNTERS * 4;
+
+        final int[] flags = new int[PAGE_SIZE];
+        final double[] score = new double[PAGE_SIZE];
+        final long[] lastActivity = new long[PAGE_SIZE];
+        final double[] tokens = new double[BUCKETS * PAGE_SIZE];
+        final long[] refilledAt = new long[BUCKETS * PAGE_SIZE];
+        final int[] counters = new int[COUNTERS * PAGE_SIZE];
+    }
+}
@@ -0,0 +1,499 @@
+import java.io.*;
+import java.net.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Cluster backend for a node that reaches the ClusterHub of another node over a socket. Each
+ * message is one opcode followed by its fields, strings in writeUTF form and payloads as an int
+ * length and the bytes. Both ends queue outgoing messages for a writer thread, so a match sending
+ * to a remote player never blocks on the network while holding its monitor. That queue is bounded:
+ * a peer that falls maxQueued messages behind has its link closed, like a slow client.
+ *
+ * A node that loses its link to the hub keeps connecting again, backing off up to
+ * MAX_RECONNECT_DELAY_MS; what it sends meanwhile is dropped, and once back it claims its sessions
+ * and queues its waiting players again through Listener.reconnected.
+ */
+class SocketCluster implements Cluster {
+    // Node to hub
+    private static final int HELLO = 1;
+    private static final int CLAIM = 2;
+    private static final int RELEASE = 3;
+    private static final int ENQUEUE = 4;
+    private static final int DEQUEUE = 5;
+    private static final int SCORE = 6;
+    private static final int UNSCORE = 7;
+    private static final int DELIVER = 8;
+    private static final int FORWARD_ANSWER = 9;
+    private static final int MATCH_ENDED = 10;
+    private static final int FORWARD_EXIT = 11;
+    // Hub to node
+    private static final int REVOKED = 101;
+    private static final int SCORE_CHANGED = 102;
+    private static final int SCORE_REMOVED = 103;
+    private static final int MATCH_FORMED = 104;
+    private static final int DELIVERED = 105;
+    private static final int ANSWER_FORWARDED = 106;
+    private static final int ENDED = 107;
+    private static final int EXIT_FORWARDED = 108;
+    private static final int WAITING_COUNT = 109;
+
+    private static final long MIN_RECONNECT_DELAY_MS = 100;
+    private static final long MAX_RECONNECT_DELAY_MS = 10000;
+
+    static final LongAdder reconnects = new LongAdder();
+    static final LongAdder overflowDisconnects = new LongAdder();
+
+    private final String hubAddress;
+    private final String nodeId;
+    private final Listener listener;
+    private final int maxQueued;
+    private volatile Link link;
+
+    private SocketCluster(String hubAddress, String nodeId, Listener listener, int maxQueued) {
+        this.hubAddress = hubAddress;
+        this.nodeId = nodeId;
+        this.listener = listener;
+        this.maxQueued = maxQueued;
+    }
+
+    /**
+     * Connects to the hub at host:port and starts delivering its events to the listener.
+     */
+    static SocketCluster connect(String hubAddress, String nodeId, Listener listener, int maxQueued) throws IOException {
+        SocketCluster cluster = new SocketCluster(hubAddress, nodeId, listener, maxQueued);
+        cluster.open();
+        return cluster;
+    }
+
+    private void open() throws IOException {
+        int colon = hubAddress.lastIndexOf(':');
+        Socket socket = new Socket(hubAddress.substring(0, colon), Integer.parseInt(hubAddress.substring(colon + 1)));
+        socket.setTcpNoDelay(true);
+        Link opened = new Link(socket, maxQueued);
+        opened.send(message(HELLO).utf(nodeId));
+        link = opened;
+        opened.start(in -> receive(in, listener), this::lost);
+    }
+
+    private void lost() {
+        Log.error("Lost the connection to the cluster hub " + hubAddress + "; reconnecting", null);
+        Thread reconnector = new Thread(() -> {
+            long delay = MIN_RECONNECT_DELAY_MS;
+            while (true) {
+                try {
+                    Thread.sleep(delay);
+                    open();
+                    reconnects.increment();
+                    Log.info("Reconnected to the cluster hub " + hubAddress);
+                    listener.reconnected();
+                    return;
+                } catch (IOException e) {
+                    delay = Math.min(delay * 2, MAX_RECONNECT_DELAY_MS);
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+        }, "typefast-cluster-reconnect");
+        reconnector.setDaemon(true);
+        reconnector.start();
+    }
+
+    /**
+     * Accepts nodes for the hub on the given local address. The protocol has no authentication, so
+     * anything but the loopback interface should only be reachable from the cluster's own network.
+     */
+    static void serveHub(ClusterHub hub, InetAddress address, int port, int maxQueued) throws IOException {
+        ServerSocket serverSocket = new ServerSocket(port, 50, address);
+        Thread acceptor = new Thread(() -> {
+            while (true) {
+                try {
+                    Socket socket = serverSocket.accept();
+                    socket.setTcpNoDelay(true);
+                    acceptNode(hub, socket, maxQueued);
+                } catch (IOException e) {
+                    Log.error("Cluster hub stopped accepting nodes", e);
+                    return;
+                }
+            }
+        }, "typefast-cluster-hub");
+        acceptor.setDaemon(true);
+        acceptor.start();
+        Log.info("Cluster hub listening on " + address.getHostAddress() + ":" + port);
+    }
+
+    private static void acceptNode(ClusterHub hub, Socket socket, int maxQueued) throws IOException {
+        Link link = new Link(socket, maxQueued);
+        String[] nodeId = new String[1];
+        link.start(in -> {
+            if (nodeId[0] == null) {
+                if (in.readUnsignedByte() != HELLO) {
+                    throw new IOException("Expected HELLO from a cluster node");
+                }
+                String id = in.readUTF();
+                try {
+                    hub.register(id, new RemoteNode(link));
+                } catch (IllegalStateException e) {
+                    throw new IOException(e.getMessage());
+                }
+                nodeId[0] = id;
+            } else {
+                serve(hub, nodeId[0], in);
+            }
+        }, () -> {
+            if (nodeId[0] != null) {
+                hub.unregister(nodeId[0]);
+            }
+        });
+    }
+
+    // Hub side: one message from a node
+    private static void serve(ClusterHub hub, String nodeId, DataInputStream in) throws IOException {
+        int opcode = in.readUnsignedByte();
+        switch (opcode) {
+            case CLAIM:
+                hub.claimSession(nodeId, in.readUTF());
+                break;
+            case RELEASE:
+                hub.releaseSession(nodeId, in.readUTF());
+                break;
+            case ENQUEUE:
+                Member member = readMember(in);
+                hub.enqueue(member, in.readInt(), in.readInt());
+                break;
+            case DEQUEUE:
+                hub.dequeue(nodeId, in.readUTF());
+                break;
+            case SCORE:
+                hub.publishScore(nodeId, in.readUTF(), in.readDouble());
+                break;
+            case UNSCORE:
+                hub.removeScore(nodeId, in.readUTF());
+                break;
+            case DELIVER:
+                hub.deliver(in.readUTF(), in.readUTF(), readBytes(in));
+                break;
+            case FORWARD_ANSWER:
+                hub.forwardAnswer(in.readUTF(), in.readUTF(), readBytes(in));
+                break;
+            case FORWARD_EXIT:
+                hub.forwardExit(in.readUTF(), in.readUTF());
+                break;
+            case MATCH_ENDED:
+                hub.matchEnded(in.readUTF(), in.readUTF());
+                break;
+            default:
+                throw new IOException("Unknown cluster opcode " + opcode);
+        }
+    }
+
+    // Node side: one event from the hub
+    private static void receive(DataInputStream in, Listener listener) throws IOException {
+        int opcode = in.readUnsignedByte();
+        switch (opcode) {
+            case REVOKED:
+                listener.sessionRevoked(in.readUTF());
+                break;
+            case SCORE_CHANGED:
+                listener.scoreChanged(in.readUTF(), in.readDouble());
+                break;
+            case SCORE_REMOVED:
+                listener.scoreRemoved(in.readUTF());
+                break;
+            case MATCH_FORMED:
+                String host = in.readUTF();
+                int size = in.readInt();
+                List<Member> members = new ArrayList<>(size);
+                for (int i = 0; i < size; i++) {
+                    members.add(readMember(in));
+                }
+                listener.matchFormed(host, members);
+                break;
+            case DELIVERED:
+                listener.delivered(in.readUTF(), readBytes(in));
+                break;
+            case ANSWER_FORWARDED:
+                listener.answerForwarded(in.readUTF(), readBytes(in));
+                break;
+            case EXIT_FORWARDED:
+                listener.exitForwarded(in.readUTF());
+                break;
+            case ENDED:
+                listener.matchEnded(in.readUTF());
+                break;
+            case WAITING_COUNT:
+                listener.waitingCountChanged(in.readInt());
+                break;
+            default:
+                throw new IOException("Unknown cluster opcode " + opcode);
+        }
+    }
+
+    public String nodeId() {
+        return nodeId;
+    }
+
+    public boolean isConnected() {
+        return !link.closed;
+    }
+
+    public void claimSession(String username) {
+        link.send(message(CLAIM).utf(username));
+    }
+
+    public void releaseSession(String username) {
+        link.send(message(RELEASE).utf(username));
+    }
+
+    public void enqueue(Member member, int bucket, int groupSize) {
+        link.send(writeMember(message(ENQUEUE), member).putInt(bucket).putInt(groupSize));
+    }
+
+    public void dequeue(String username) {
+        link.send(message(DEQUEUE).utf(username));
+    }
+
+    public void publishScore(String username, double score) {
+        link.send(message(SCORE).utf(username).putDouble(score));
+    }
+
+    public void removeScore(String username) {
+        link.send(message(UNSCORE).utf(username));
+    }
+
+    public void deliver(String targetNodeId, String username, byte[] bytes) {
+        link.send(message(DELIVER).utf(targetNodeId).utf(username).bytes(bytes));
+    }
+
+    public void forwardAnswer(String hostNodeId, String username, byte[] answer) {
+        link.send(message(FORWARD_ANSWER).utf(hostNodeId).utf(username).bytes(answer));
+    }
+
+    public void forwardExit(String hostNodeId, String username) {
+        link.send(message(FORWARD_EXIT).utf(hostNodeId).utf(username));
+    }
+
+    public void matchEnded(String targetNodeId, String username) {
+        link.send(message(MATCH_ENDED).utf(targetNodeId).utf(username));
+    }
+
+    private static Member readMember(DataInputStream in) throws IOException {
+        return new Member(in.readUTF(), in.readUTF(), in.readBoolean(), in.readDouble());
+    }
+
+    private static Message writeMember(Message message, Member member) {
+        return message.utf(member.nodeId).utf(member.username).putBoolean(member.binary).putDouble(member.score);
+    }
+
+    private static byte[] readBytes(DataInputStream in) throws IOException {
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        return bytes;
+    }
+
+    private static Message message(int opcode) {
+        return new Message(opcode);
+    }
+
+    /**
+     * The hub's view of a node connected over a socket: every event is queued to that node.
+     */
+    private static final class RemoteNode implements Listener {
+        private final Link link;
+
+        RemoteNode(Link link) {
+            this.link = link;
+        }
+
+        public void sessionRevoked(String username) {
+            link.send(message(REVOKED).utf(username));
+        }
+
+        public void scoreChanged(String username, double score) {
+            link.send(message(SCORE_CHANGED).utf(username).putDouble(score));
+        }
+
+        public void scoreRemoved(String username) {
+            link.send(message(SCORE_REMOVED).utf(username));
+        }
+
+        public void matchFormed(String hostNodeId, List<Member> members) {
+            Message message = message(MATCH_FORMED).utf(hostNodeId).putInt(members.size());
+            for (Member member : members) {
+                writeMember(message, member);
+            }
+            link.send(message);
+        }
+
+        public void delivered(String username, byte[] bytes) {
+            link.send(message(DELIVERED).utf(username).bytes(bytes));
+        }
+
+        public void answerForwarded(String username, byte[] answer) {
+            link.send(message(ANSWER_FORWARDED).utf(username).bytes(answer));
+        }
+
+        public void exitForwarded(String username) {
+            link.send(message(EXIT_FORWARDED).utf(username));
+        }
+
+        public void matchEnded(String username) {
+            link.send(message(ENDED).utf(username));
+        }
+
+        public void waitingCountChanged(int count) {
+            link.send(message(WAITING_COUNT).putInt(count));
+        }
+
+        public void reconnected() {
+            // Only nodes reconnect
+        }
+    }
+
+    private static final class Message {
+        private final ByteArrayOutputStream bytes = new ByteArrayOutputStream(64);
+        private final DataOutputStream out = new DataOutputStream(bytes);
+
+        Message(int opcode) {
+            putByte(opcode);
+        }
+
+        Message putByte(int value) {
+            try {
+                out.writeByte(value);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            return this;
+        }
+
+        Message putBoolean(boolean value) {
+            return putByte(value ? 1 : 0);
+        }
+
+        Message putInt(int value) {
+            try {
+                out.writeInt(value);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            return this;
+        }
+
+        Message putDouble(double value) {
+            try {
+                out.writeDouble(value);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            return this;
+        }
+
+        Message utf(String value) {
+            try {
+                out.writeUTF(value);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            return this;
+        }
+
+        Message bytes(byte[] value) {
+            putInt(value.length);
+            bytes.write(value, 0, value.length);
+            return this;
+        }
+
+        byte[] toByteArray() {
+            return bytes.toByteArray();
+        }
+    }
+
+    private interface Reader {
+        void readOne(DataInputStream in) throws IOException;
+    }
+
+    /**
+     * One socket between a node and the hub: a reader thread handing each message to a Reader, and
+     * a writer thread sending whatever has been queued with a single flush.
+     */
+    private static final class Link {
+        private final Socket socket;
+        private final DataInputStream in;
+        private final OutputStream out;
+        private final BlockingQueue<byte[]> outbound;
+        private final int maxQueued;
+        volatile boolean closed;
+
+        Link(Socket socket, int maxQueued) throws IOException {
+            this.socket = socket;
+            this.in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            this.out = new BufferedOutputStream(socket.getOutputStream());
+            this.outbound = new LinkedBlockingQueue<>(maxQueued);
+            this.maxQueued = maxQueued;
+        }
+
+        void send(Message message) {
+            if (closed) {
+                return;
+            }
+            if (!outbound.offer(message.toByteArray())) {
+                overflowDisconnects.increment();
+                Log.warn("Cluster peer fell " + maxQueued + " messages behind; closing its link");
+                close();
+            }
+        }
+
+        void start(Reader reader, Runnable onClose) {
+            Thread writer = new Thread(this::writeLoop, "typefast-cluster-writer");
+            writer.setDaemon(true);
+            writer.start();
+            Thread readerThread = new Thread(() -> {
+                try {
+                    while (true) {
+                        reader.readOne(in);
+                    }
+                } catch (EOFException e) {
+                    // Peer closed the connection
+                } catch (IOException e) {
+                    Log.warn("Cluster connection failed: " + e);
+                } finally {
+                    close();
+                    writer.interrupt();
+                    onClose.run();
+                }
+            }, "typefast-cluster");
+            readerThread.setDaemon(true);
+            readerThread.start();
+        }
+
+        private void writeLoop() {
+            List<byte[]> batch = new ArrayList<>();
+            try {
+                while (true) {
+                    batch.add(outbound.take());
+                    outbound.drainTo(batch);
+                    for (byte[] message : batch) {
+                        out.write(message);
+                    }
+                    out.flush();
+                    batch.clear();
+                }
+            } catch (InterruptedException e) {
+                // Link closed
+            } catch (IOException e) {
+                close();
+            }
+        }
+
+        private void close() {
+            closed = true;
+            try {
+                socket.close();
+            } catch (IOException e) {
+                Log.error("Error closing cluster socket", e);
+            }
+        }
+    }
+}
@@ -0,0 +1,110 @@
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Hashed timer wheel for the many coarse, mostly cancelled or re-armed timeouts of client sessions.
+ * Scheduling is an O(1) queue append from any thread; a single thread moves new timeouts into
+ * their slot and, once per tick, runs whatever in the current slot is due. Deadlines are only
+ * accurate to one tick, and tasks run on the wheel's thread, so they must be short.
+ */
+class TimerWheel {
+    private final long tickNanos;
+    private final List<Timeout>[] slots;
+    private final Queue<Timeout> added = new ConcurrentLinkedQueue<>();
+    private final Thread thread;
+    private final long startNanos = System.nanoTime();
+    private long tick;
+
+    TimerWheel(long tickMs, int slotCount, String threadName) {
+        this.tickNanos = TimeUnit.MILLISECONDS.toNanos(tickMs);
+        this.slots = newSlots(slotCount);
+        for (int i = 0; i < slotCount; i++) {
+            slots[i] = new ArrayList<>();
+        }
+        this.thread = new Thread(this::run, threadName);
+        thread.setDaemon(true);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static List<Timeout>[] newSlots(int count) {
+        return (List<Timeout>[]) new List<?>[count];
+    }
+
+    void start() {
+        thread.start();
+    }
+
+    Timeout schedule(Runnable task, long delayMs) {
+        Timeout timeout = new Timeout(task, System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(delayMs));
+        added.add(timeout);
+        return timeout;
+    }
+
+    private void run() {
+        while (true) {
+            long next = startNanos + (tick + 1) * tickNanos;
+            long sleep = next - System.nanoTime();
+            if (sleep > 0) {
+                try {
+                    TimeUnit.NANOSECONDS.sleep(sleep);
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+            tick++;
+            Timeout timeout;
+            while ((timeout = added.poll()) != null) {
+                place(timeout);
+            }
+            expire(slots[(int) (tick % slots.length)]);
+        }
+    }
+
+    private void place(Timeout timeout) {
+        if (timeout.cancelled) {
+            return;
+        }
+        // Never in the past, so a short delay still fires on the next tick
+        long dueTick = Math.max(tick, (timeout.deadline - startNanos + tickNanos - 1) / tickNanos);
+        timeout.rounds = (dueTick - tick) / slots.length;
+        slots[(int) (dueTick % slots.length)].add(timeout);
+    }
+
+    private void expire(List<Timeout> slot) {
+        int kept = 0;
+        for (int i = 0; i < slot.size(); i++) {
+            Timeout timeout = slot.get(i);
+            if (timeout.cancelled) {
+                continue;
+            }
+            if (timeout.rounds > 0) {
+                timeout.rounds--;
+                slot.set(kept++, timeout);
+                continue;
+            }
+            try {
+                timeout.task.run();
+            } catch (RuntimeException e) {
+                // Keep the wheel turning for every other timeout
+                Log.error("Timer task failed", e);
+            }
+        }
+        slot.subList(kept, slot.size()).clear();
+    }
+
+    static final class Timeout {
+        private final Runnable task;
+        private final long deadline;
+        private volatile boolean cancelled;
+        private long rounds; // Only touched by the wheel thread
+
+        private Timeout(Runnable task, long deadline) {
+            this.task = task;
+            this.deadline = deadline;
+        }
+
+        void cancel() {
+            cancelled = true;
+        }
+    }
+}
@@ -1,266 +1,630 @@
-import javax.swing.*;
-import java.awt.*;
-import java.awt.event.*;
-import java.io.*;
-import java.net.*;
-
-public class TypefastClient {
-    private static final String SERVER_ADDRESS = "localhost";  // Change this to the server's public IP if needed
-    private static final int SERVER_PORT = 12345;
-    private static final String LOGIN_CMD = "LOGIN";
-    private static final String REGISTER_CMD = "REGISTER";
-    private static final String JOIN_CMD = "JOIN";
-    private static final String LOGOUT_CMD = "LOGOUT";
-    private static final String SCOREBOARD_CMD = "SCOREBOARD";
-    private static final String EXIT_CMD = "EXIT";
-    private Socket socket;
-    private BufferedReader in;
-    private PrintWriter out;
-
-    private JFrame frame;
-    private JTextArea messageArea;
-    private JButton loginButton;
-    private JButton registerButton;
-    private JButton joinButton;
-    private JButton logoutButton;
-    private JButton scoreboardButton;
-    private JTextField userInputField;
-    private JButton exitButton; // New button for exiting
-
-
-    public static void main(String[] args) {
-        SwingUtilities.invokeLater(() -> {
-            try {
-                new TypefastClient().createAndShowGUI();
-            } catch (IOException e) {
-                e.printStackTrace();
-            }
-        });
-    }
-
-    public TypefastClient() throws IOException {
-        try {
-            socket = new Socket(SERVER_ADDRESS, SERVER_PORT);
-            in = new BufferedReader(new InputStreamReader(socket.getInputStream()));
-            out = new PrintWriter(socket.getOutputStream(), true);
-        } catch (IOException e) {
-            JOptionPane.showMessageDialog(null, "Unable to connect to the server.", "Connection Error", JOptionPane.ERROR_MESSAGE);
-            throw e;
-        }
-    }
-
-    private void createAndShowGUI() {
-        frame = new JFrame("Typefast Client");
-        frame.setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
-        frame.setSize(400, 300);
-
-        messageArea = new JTextArea();
-        messageArea.setEditable(false);
-        frame.add(new JScrollPane(messageArea), BorderLayout.CENTER);
-
-        JPanel inputPanel = new JPanel();
-        inputPanel.setLayout(new BorderLayout());
-
-        userInputField = new JTextField();
-        userInputField.setEnabled(false);
-        userInputField.addActionListener(e -> {
-            String userInput = userInputField.getText().trim();
-            if (!userInput.isEmpty()) {
-                out.println(userInput);
-                userInputField.setText(""); // Clear the input field after sending the message
-            }
-        });
-
-        inputPanel.add(userInputField, BorderLayout.CENTER);
-
-        JPanel buttonPanel = new JPanel();
-        buttonPanel.setLayout(new FlowLayout());
-
-        loginButton = new JButton("Login");
-        registerButton = new JButton("Register");
-        joinButton = new JButton("Join");
-        logoutButton = new JButton("Logout");
-        scoreboardButton = new JButton("Scoreboard");
-        exitButton = new JButton("Exit");
-
-        // Initially disable Join, Logout, and Scoreboard buttons
-        joinButton.setVisible(false);
-        logoutButton.setVisible(false);
-        scoreboardButton.setVisible(false);
-        exitButton.setVisible(false);
-        loginButton.addActionListener(e -> showLoginForm());
-        registerButton.addActionListener(e -> showRegisterForm());
-        joinButton.addActionListener(e -> out.println(JOIN_CMD));
-        logoutButton.addActionListener(e -> out.println(LOGOUT_CMD));
-        scoreboardButton.addActionListener(e -> out.println(SCOREBOARD_CMD));
-        exitButton.addActionListener(e -> out.println(EXIT_CMD));
-
-        buttonPanel.add(loginButton);
-        buttonPanel.add(registerButton);
-        buttonPanel.add(joinButton);
-        buttonPanel.add(logoutButton);
-        buttonPanel.add(scoreboardButton);
-        buttonPanel.add(exitButton);
-
-        inputPanel.add(buttonPanel, BorderLayout.SOUTH);
-
-        frame.add(inputPanel, BorderLayout.SOUTH);
-        frame.setVisible(true);
-
-        Thread readerThread = new Thread(() -> {
-            try {
-                String message;
-                while ((message = in.readLine()) != null) {
-                    String finalMessage = message;
-                    SwingUtilities.invokeLater(() -> {
-                        messageArea.append(finalMessage + "\n");
-                        handleServerMessage(finalMessage);
-                    });
-                }
-            } catch (IOException e) {
-                e.printStackTrace();
-            }
-        });
-        readerThread.start();
-    }
-
-    private void handleServerMessage(String message) {
-        if (message.startsWith("Login successful")) {
-            loginButton.setVisible(false);
-            registerButton.setVisible(false);
-            joinButton.setVisible(true);
-            logoutButton.setVisible(true);
-            scoreboardButton.setVisible(true);
-            userInputField.setEnabled(true);
-        } else if (message.startsWith("Game over")) {
-            joinButton.setVisible(false);
-            scoreboardButton.setVisible(true);
-            logoutButton.setVisible(false);
-        } else if (message.startsWith("Logout successful")) {
-            loginButton.setVisible(true);
-            registerButton.setVisible(true);
-            joinButton.setVisible(false);
-            logoutButton.setVisible(false);
-            scoreboardButton.setVisible(false);
-
-        }else if (message.startsWith("Added to waiting list. Waiting for other players...")) {
-            loginButton.setVisible(false);
-            registerButton.setVisible(false);
-            joinButton.setVisible(false);
-            logoutButton.setVisible(false);
-            scoreboardButton.setVisible(true);
-            exitButton.setVisible(true);
-        }else if (message.startsWith("Exiting game. Welcome to dashboard.")) {
-            loginButton.setVisible(false);
-            registerButton.setVisible(false);
-            joinButton.setVisible(true);
-            logoutButton.setVisible(true);
-            scoreboardButton.setVisible(true);
-            exitButton.setVisible(false);
-        }
-        else if (message.startsWith("Score for this word:")) {
-            // Extract the score from the message
-            String scoreStr = message.substring("Score for this word:".length()).trim();
-            double score = Double.parseDouble(scoreStr);
-            // Display the score
-            JOptionPane.showMessageDialog(frame, "Score for this word: " + score, "Score", JOptionPane.INFORMATION_MESSAGE);
-        } else if (message.startsWith("Scoreboard:")) {
-            showScoreboardPopup(message.substring("Scoreboard:".length()).trim());
-        }
-    }
-
-    private void showScoreboardPopup(String formattedScoreboard) {
-        System.out.println("Received scoreboard data: " + formattedScoreboard); // Debug
-
-        // Split the scoreboard response into lines (each line represents a user's score)
-        String[] lines = formattedScoreboard.split("\n");
-
-        // Prepare a StringBuilder to build the popup message
-        StringBuilder popupMessage = new StringBuilder();
-        popupMessage.append("Scoreboard: ");
-
-        // Iterate over each line to append user's name and score to the popup message
-        for (String line : lines) {
-            if (line != null && !line.trim().isEmpty()) { // Ignore empty lines
-                String[] parts = line.split(":");
-                if (parts.length == 2) { // Assuming the format is "Username: Score"
-                    String username = parts[0].trim();
-                    String score = parts[1].trim();
-                    if (username != null && score != null) { // Ignore null values
-                        popupMessage.append(username).append(": ").append(score).append("\n");
-                    }
-                }
-            }
-        }
-
-        System.out.println("Popup message: " + popupMessage.toString()); // Debug
-
-        // Show the popup message
-        JOptionPane.showMessageDialog(frame, popupMessage.toString(), "Scoreboard", JOptionPane.INFORMATION_MESSAGE);
-    }
-
-
-
-
-
-
-    private void showLoginForm() {
-        JDialog dialog = new JDialog(frame, "Login", true);
-        dialog.setLayout(new GridLayout(3, 2));
-
-        dialog.add(new JLabel("Username:"));
-        JTextField usernameField = new JTextField();
-        dialog.add(usernameField);
-
-        dialog.add(new JLabel("Password:"));
-        JPasswordField passwordField = new JPasswordField();
-        dialog.add(passwordField);
-
-        JButton submitButton = new JButton("Submit");
-        submitButton.addActionListener(e -> {
-            String username = usernameField.getText();
-            String password = new String(passwordField.getPassword());
-            if (!username.isEmpty() && !password.isEmpty()) {
-                out.println(LOGIN_CMD + " " + username + " " + password);
-                dialog.dispose();
-            } else {
-                JOptionPane.showMessageDialog(frame, "Username and Password cannot be empty", "Error", JOptionPane.ERROR_MESSAGE);
-            }
-        });
-        dialog.add(submitButton);
-
-        dialog.setSize(300, 150);
-        dialog.setLocationRelativeTo(frame);
-        dialog.setVisible(true);
-    }
-
-    private void showRegisterForm() {
-        JDialog dialog = new JDialog(frame, "Register", true);
-        dialog.setLayout(new GridLayout(3, 2));
-
-        dialog.add(new JLabel("Username:"));
-        JTextField usernameField = new JTextField();
-        dialog.add(usernameField);
-
-        dialog.add(new JLabel("Password:"));
-        JPasswordField passwordField = new JPasswordField();
-        dialog.add(passwordField);
-
-        JButton submitButton = new JButton("Submit");
-        submitButton.addActionListener(e -> {
-            String username = usernameField.getText();
-            String password = new String(passwordField.getPassword());
-            if (!username.isEmpty() && !password.isEmpty()) {
-                out.println(REGISTER_CMD + " " + username + " " + password);
-                dialog.dispose();
-            } else {
-                JOptionPane.showMessageDialog(frame, "Username and Password cannot be empty", "Error", JOptionPane.ERROR_MESSAGE);
-            }
-        });
-        dialog.add(submitButton);
-
-        dialog.setSize(300, 150);
-        dialog.setLocationRelativeTo(frame);
-        dialog.setVisible(true);
-    }
-}
+import javax.swing.*;
+import javax.swing.text.BadLocationException;
+import java.awt.*;
+import java.awt.event.*;
+import java.io.*;
+import java.net.*;
+import java.nio.ByteBuffer;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.regex.Pattern;
+
+public class TypefastClient {
+    static final String SERVER_ADDRESS = "localhost";  // Change this to the server's public IP if needed
+    static final int SERVER_PORT = 12345;
+    static final String LOGIN_CMD = "LOGIN";
+    static final String REGISTER_CMD = "REGISTER";
+    static final String JOIN_CMD = "JOIN";
+    private static final String LOGOUT_CMD = "LOGOUT";
+    private static final String SCOREBOARD_CMD = "SCOREBOARD";
+    private static final String EXIT_CMD = "EXIT";
+    // Start with -Dtypefast.binary=true to negotiate the compact BinaryProtocol instead of text lines
+    private static final boolean USE_BINARY_PROTOCOL = Boolean.getBoolean("typefast.binary");
+    // Incoming messages are applied to the window in one batch per frame, about 30 times a second
+    private static final int FRAME_MS = 33;
+    // The message area keeps only this many of the latest lines
+    private static final int MAX_LOG_LINES = Integer.getInteger("typefast.client.logLines", 500);
+    // A "username: score" line following "Scoreboard:" in the text protocol
+    private static final Pattern SCOREBOARD_ENTRY = Pattern.compile("\\S+: -?\\d+(\\.\\d+)?(E-?\\d+)?");
+    // Text form of BinaryProtocol.TICK, followed by the seconds left
+    private static final String TICK_PREFIX = "Time remaining: ";
+    // Text form of BinaryProtocol.RESTARTING, followed by the delay in ms
+    private static final String RESTARTING_PREFIX = "Server is restarting. Reconnect in ";
+    // Further tries, this far apart, if the server is not back after its restart delay
+    private static final int RECONNECT_ATTEMPTS = 10;
+    private static final long RECONNECT_RETRY_MS = 1000;
+    // Replaced by the reader thread when it reconnects after a server restart
+    private volatile Socket socket;
+    private DataInputStream in;
+    private volatile OutputStream rawOut;
+    private volatile PrintWriter out;
+    // Kept to log in again after a server restart
+    private volatile String username;
+    private volatile String password;
+    // Set by a restart notice; -1 when the connection is not expected to close
+    private volatile long reconnectDelayMs = -1;
+    private final ByteArrayOutputStream lineBytes = new ByteArrayOutputStream();
+    // Text lines and binary frames from the reader thread, drained on the EDT by render
+    private final Queue<Object> inbox = new ConcurrentLinkedQueue<>();
+    private final StringBuilder pendingLog = new StringBuilder();
+    // Entries of a text scoreboard still arriving line by line; null when none is
+    private StringBuilder scoreboardText;
+    // End of the current round by System.nanoTime, set from the server's ticks; 0 when no round runs.
+    // The server only ticks every few seconds, so the countdown in between is kept here.
+    private long roundDeadline;
+
+    private JFrame frame;
+    private JTextArea messageArea;
+    private JButton loginButton;
+    private JButton registerButton;
+    private JButton joinButton;
+    private JButton logoutButton;
+    private JButton scoreboardButton;
+    private JTextField userInputField;
+    private JButton exitButton; // New button for exiting
+    private JPanel scoreboardPanel;
+    private JTextArea scoreboardArea;
+    private JLabel rankLabel;
+    private JLabel countdownLabel;
+
+
+    public static void main(String[] args) {
+        if (args.length > 0 && args[0].equals("--load")) {
+            // Headless load test with many simulated players instead of one window, see LoadGenerator
+            try {
+                new LoadGenerator().run();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return;
+        }
+        SwingUtilities.invokeLater(() -> {
+            try {
+                new TypefastClient().createAndShowGUI();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        });
+    }
+
+    public TypefastClient() throws IOException {
+        try {
+            connect();
+        } catch (IOException e) {
+            JOptionPane.showMessageDialog(null, "Unable to connect to the server.", "Connection Error", JOptionPane.ERROR_MESSAGE);
+            throw e;
+        }
+    }
+
+    private void connect() throws IOException {
+        socket = new Socket(SERVER_ADDRESS, SERVER_PORT);
+        in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+        rawOut = socket.getOutputStream();
+        out = new PrintWriter(rawOut, true);
+        if (USE_BINARY_PROTOCOL) {
+            // The server switches right after this line, so every later command can already be a frame
+            out.println(BinaryProtocol.NEGOTIATE_CMD);
+        }
+    }
+
+    private void createAndShowGUI() {
+        frame = new JFrame("Typefast Client");
+        frame.setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
+        frame.setSize(400, 300);
+
+        messageArea = new JTextArea();
+        messageArea.setEditable(false);
+        frame.add(new JScrollPane(messageArea), BorderLayout.CENTER);
+
+        JPanel inputPanel = new JPanel();
+        inputPanel.setLayout(new BorderLayout());
+
+        userInputField = new JTextField();
+        userInputField.setEnabled(false);
+        userInputField.addActionListener(e -> {
+            String userInput = userInputField.getText().trim();
+            if (!userInput.isEmpty()) {
+                sendAnswer(userInput);
+                userInputField.setText(""); // Clear the input field after sending the message
+            }
+        });
+
+        inputPanel.add(userInputField, BorderLayout.CENTER);
+        countdownLabel = new JLabel(" ");
+        inputPanel.add(countdownLabel, BorderLayout.NORTH);
+
+        JPanel buttonPanel = new JPanel();
+        buttonPanel.setLayout(new FlowLayout());
+
+        loginButton = new JButton("Login");
+        registerButton = new JButton("Register");
+        joinButton = new JButton("Join");
+        logoutButton = new JButton("Logout");
+        scoreboardButton = new JButton("Scoreboard");
+        exitButton = new JButton("Exit");
+
+        // Initially disable Join, Logout, and Scoreboard buttons
+        joinButton.setVisible(false);
+        logoutButton.setVisible(false);
+        scoreboardButton.setVisible(false);
+        exitButton.setVisible(false);
+        loginButton.addActionListener(e -> showLoginForm());
+        registerButton.addActionListener(e -> showRegisterForm());
+        joinButton.addActionListener(e -> sendCommand(JOIN_CMD, BinaryProtocol.event(BinaryProtocol.JOIN)));
+        logoutButton.addActionListener(e -> {
+            username = null;
+            sendCommand(LOGOUT_CMD, BinaryProtocol.event(BinaryProtocol.LOGOUT));
+        });
+        scoreboardButton.addActionListener(e -> sendCommand(SCOREBOARD_CMD,
+                new BinaryProtocol.Writer(BinaryProtocol.SCOREBOARD).putShort(0).toFrame()));
+        exitButton.addActionListener(e -> sendCommand(EXIT_CMD, BinaryProtocol.event(BinaryProtocol.EXIT)));
+
+        buttonPanel.add(loginButton);
+        buttonPanel.add(registerButton);
+        buttonPanel.add(joinButton);
+        buttonPanel.add(logoutButton);
+        buttonPanel.add(scoreboardButton);
+        buttonPanel.add(exitButton);
+
+        inputPanel.add(buttonPanel, BorderLayout.SOUTH);
+
+        frame.add(inputPanel, BorderLayout.SOUTH);
+        frame.add(createScoreboardPanel(), BorderLayout.EAST);
+        frame.setVisible(true);
+        new Timer(FRAME_MS, e -> render()).start();
+
+        Thread readerThread = new Thread(() -> {
+            do {
+                readUntilClosed();
+            } while (reconnect());
+        });
+        readerThread.start();
+    }
+
+    private void readUntilClosed() {
+        try {
+            String message;
+            while ((message = readLine()) != null) {
+                if (message.equals("PING")) {
+                    // Server heartbeat; answered here so it never reaches the message area
+                    out.println("PONG");
+                    continue;
+                }
+                if (message.startsWith(RESTARTING_PREFIX)) {
+                    reconnectDelayMs = Long.parseLong(message.replaceAll("\\D", ""));
+                }
+                inbox.add(message);
+                if (USE_BINARY_PROTOCOL && message.equals(BinaryProtocol.NEGOTIATE_ACK)) {
+                    ByteBuffer frame;
+                    while ((frame = BinaryProtocol.readFrame(in)) != null) {
+                        int opcode = frame.get(frame.position()) & 0xFF;
+                        if (opcode == BinaryProtocol.SERVER_PING) {
+                            writeFrame(BinaryProtocol.event(BinaryProtocol.PONG));
+                            continue;
+                        }
+                        if (opcode == BinaryProtocol.RESTARTING) {
+                            reconnectDelayMs = frame.getInt(frame.position() + 1);
+                        }
+                        inbox.add(frame);
+                    }
+                    break;
+                }
+            }
+        } catch (IOException e) {
+            if (reconnectDelayMs < 0) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    // After a restart notice, connects again once its delay has passed and logs back in
+    private boolean reconnect() {
+        long delay = reconnectDelayMs;
+        if (delay < 0) {
+            return false;
+        }
+        reconnectDelayMs = -1;
+        for (int attempt = 0; attempt < RECONNECT_ATTEMPTS; attempt++) {
+            try {
+                Thread.sleep(attempt == 0 ? delay : RECONNECT_RETRY_MS);
+                connect();
+            } catch (IOException e) {
+                continue;
+            } catch (InterruptedException e) {
+                return false;
+            }
+            String user = username;
+            if (user != null) {
+                sendCredentials(LOGIN_CMD, BinaryProtocol.LOGIN, user, password);
+            }
+            return true;
+        }
+        inbox.add("Could not reconnect to the server.");
+        return false;
+    }
+
+    private JPanel createScoreboardPanel() {
+        scoreboardArea = new JTextArea();
+        scoreboardArea.setEditable(false);
+        rankLabel = new JLabel(" ");
+        JButton hideButton = new JButton("Hide");
+        hideButton.addActionListener(e -> {
+            scoreboardPanel.setVisible(false);
+            frame.revalidate();
+        });
+
+        JPanel footer = new JPanel(new BorderLayout());
+        footer.add(rankLabel, BorderLayout.CENTER);
+        footer.add(hideButton, BorderLayout.EAST);
+
+        scoreboardPanel = new JPanel(new BorderLayout());
+        scoreboardPanel.add(new JLabel("Scoreboard"), BorderLayout.NORTH);
+        scoreboardPanel.add(new JScrollPane(scoreboardArea), BorderLayout.CENTER);
+        scoreboardPanel.add(footer, BorderLayout.SOUTH);
+        scoreboardPanel.setPreferredSize(new Dimension(180, 0));
+        scoreboardPanel.setVisible(false);
+        return scoreboardPanel;
+    }
+
+    /**
+     * Applies everything the reader thread queued since the last frame, then updates the message
+     * area once. Runs on the EDT, so typing stays responsive however fast messages arrive.
+     */
+    private void render() {
+        Object message;
+        while ((message = inbox.poll()) != null) {
+            if (message instanceof String) {
+                String text = (String) message;
+                if (!text.startsWith(TICK_PREFIX)) {
+                    log(text);
+                }
+                handleServerMessage(text);
+            } else {
+                handleServerFrame((ByteBuffer) message);
+            }
+        }
+        updateCountdown();
+        if (pendingLog.length() == 0) {
+            return;
+        }
+        messageArea.append(pendingLog.toString());
+        pendingLog.setLength(0);
+        // The text always ends with a newline, so the last line counted is empty
+        int excess = messageArea.getLineCount() - 1 - MAX_LOG_LINES;
+        if (excess > 0) {
+            try {
+                messageArea.replaceRange("", 0, messageArea.getLineEndOffset(excess - 1));
+            } catch (BadLocationException e) {
+                messageArea.setText("");
+            }
+        }
+    }
+
+    private void syncCountdown(int seconds) {
+        roundDeadline = System.nanoTime() + seconds * 1000000000L;
+    }
+
+    private void stopCountdown() {
+        roundDeadline = 0;
+    }
+
+    private void updateCountdown() {
+        if (roundDeadline == 0) {
+            countdownLabel.setText(" ");
+            return;
+        }
+        long left = Math.max(0, roundDeadline - System.nanoTime());
+        // Rounded up, so it shows the same number the server's tick did right when it arrives
+        countdownLabel.setText(TICK_PREFIX + (left + 999999999L) / 1000000000L + " seconds");
+    }
+
+    private void log(String message) {
+        pendingLog.append(message).append('\n');
+    }
+
+    // Reads a text line byte by byte so nothing after the protocol switch is buffered as text
+    private String readLine() throws IOException {
+        lineBytes.reset();
+        int b;
+        while ((b = in.read()) != '\n') {
+            if (b < 0) {
+                return lineBytes.size() == 0 ? null : lineBytes.toString("UTF-8");
+            }
+            lineBytes.write(b);
+        }
+        String line = lineBytes.toString("UTF-8");
+        return line.endsWith("\r") ? line.substring(0, line.length() - 1) : line;
+    }
+
+    private void sendCommand(String textCommand, byte[] frame) {
+        if (USE_BINARY_PROTOCOL) {
+            writeFrame(frame);
+        } else {
+            out.println(textCommand);
+        }
+    }
+
+    private void sendCredentials(String textCommand, int opcode, String username, String password) {
+        if (USE_BINARY_PROTOCOL) {
+            writeFrame(new BinaryProtocol.Writer(opcode).putString(username).putString(password).toFrame());
+        } else {
+            out.println(textCommand + " " + username + " " + password);
+        }
+    }
+
+    private void sendAnswer(String answer) {
+        if (USE_BINARY_PROTOCOL) {
+            writeFrame(BinaryProtocol.text(BinaryProtocol.ANSWER, answer));
+        } else {
+            out.println(answer);
+        }
+    }
+
+    private synchronized void writeFrame(byte[] frame) {
+        try {
+            rawOut.write(frame);
+            rawOut.flush();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private void handleServerFrame(ByteBuffer frame) {
+        int opcode = frame.get() & 0xFF;
+        switch (opcode) {
+            case BinaryProtocol.LOGIN_OK:
+                log("Login successful. Welcome " + BinaryProtocol.getString(frame) + "!");
+                showLoggedIn();
+                break;
+            case BinaryProtocol.GAME_OVER:
+                log("Game over. Thanks for playing!");
+                stopCountdown();
+                showGameOver();
+                break;
+            case BinaryProtocol.LOGOUT_OK:
+                log("Logout successful. Please login or register.");
+                stopCountdown();
+                showLoggedOut();
+                break;
+            case BinaryProtocol.QUEUED:
+                log("Added to waiting list. Waiting for other players...");
+                showWaiting();
+                break;
+            case BinaryProtocol.EXITED:
+                log("Exiting game. Welcome to dashboard.");
+                stopCountdown();
+                showDashboard();
+                break;
+            case BinaryProtocol.WORD:
+                log("New word: " + BinaryProtocol.getString(frame));
+                break;
+            case BinaryProtocol.TICK:
+                syncCountdown(BinaryProtocol.getUnsignedShort(frame));
+                break;
+            case BinaryProtocol.CORRECT:
+                int timeTakenInSeconds = frame.getInt() / 1000;
+                double wordScore = frame.getDouble();
+                int placement = frame.getInt();
+                int players = frame.getInt();
+                stopCountdown();
+                log("Correct! Time taken: " + timeTakenInSeconds + " s.");
+                if (players > 1) {
+                    log("You placed " + placement + " of " + players + ".");
+                }
+                log("Correct! Your score for this word: " + wordScore);
+                break;
+            case BinaryProtocol.ROUND_WINNER:
+                log(BinaryProtocol.getString(frame) + " typed it first!");
+                break;
+            case BinaryProtocol.THROTTLED:
+                log("Slow down! Messages are being ignored.");
+                break;
+            case BinaryProtocol.TOO_FAST:
+                log("Answer rejected: typed too fast to be real.");
+                break;
+            case BinaryProtocol.RESTARTING:
+                log(RESTARTING_PREFIX + frame.getInt() + " ms.");
+                break;
+            case BinaryProtocol.INCORRECT:
+                log("Incorrect word. Try again.");
+                break;
+            case BinaryProtocol.TIME_UP:
+                stopCountdown();
+                log("Time's up! You did not type the word correctly.");
+                break;
+            case BinaryProtocol.LOGIN_FAILED:
+                log("Invalid username or password. Please try again.");
+                break;
+            case BinaryProtocol.REGISTERED:
+                log("Registration successful. Please login.");
+                break;
+            case BinaryProtocol.REGISTER_FAILED:
+                log("Username already exists. Please try again.");
+                break;
+            case BinaryProtocol.ALREADY_QUEUED:
+                log("You are already in the waiting list.");
+                break;
+            case BinaryProtocol.WAITING:
+                log("Players in waiting list: " + frame.getInt());
+                break;
+            case BinaryProtocol.SCOREBOARD_PAGE:
+                int count = BinaryProtocol.getUnsignedShort(frame);
+                StringBuilder scoreboard = new StringBuilder();
+                for (int i = 0; i < count; i++) {
+                    scoreboard.append(BinaryProtocol.getString(frame)).append(": ").append(frame.getDouble()).append("\n");
+                }
+                log("Scoreboard: " + scoreboard.toString().trim());
+                showScoreboard(scoreboard.toString());
+                break;
+            case BinaryProtocol.RANK:
+                String rank = "Your rank: " + frame.getInt() + " of " + frame.getInt();
+                log(rank);
+                rankLabel.setText(rank);
+                break;
+            case BinaryProtocol.TEXT:
+                // Lines without an opcode of their own, "Rejoined your match." among them, change the
+                // window the same way they do on the text protocol
+                String text = BinaryProtocol.getString(frame);
+                log(text);
+                handleServerMessage(text);
+                break;
+            default:
+                break;
+        }
+    }
+
+    private void showLoggedIn() {
+        loginButton.setVisible(false);
+        registerButton.setVisible(false);
+        joinButton.setVisible(true);
+        logoutButton.setVisible(true);
+        scoreboardButton.setVisible(true);
+        userInputField.setEnabled(true);
+    }
+
+    private void showGameOver() {
+        joinButton.setVisible(false);
+        scoreboardButton.setVisible(true);
+        logoutButton.setVisible(false);
+    }
+
+    private void showLoggedOut() {
+        loginButton.setVisible(true);
+        registerButton.setVisible(true);
+        joinButton.setVisible(false);
+        logoutButton.setVisible(false);
+        scoreboardButton.setVisible(false);
+    }
+
+    private void showWaiting() {
+        loginButton.setVisible(false);
+        registerButton.setVisible(false);
+        joinButton.setVisible(false);
+        logoutButton.setVisible(false);
+        scoreboardButton.setVisible(true);
+        exitButton.setVisible(true);
+    }
+
+    private void showDashboard() {
+        loginButton.setVisible(false);
+        registerButton.setVisible(false);
+        joinButton.setVisible(true);
+        logoutButton.setVisible(true);
+        scoreboardButton.setVisible(true);
+        exitButton.setVisible(false);
+    }
+
+    private void handleServerMessage(String message) {
+        if (scoreboardText != null) {
+            if (SCOREBOARD_ENTRY.matcher(message).matches()) {
+                scoreboardText.append(message).append("\n");
+                showScoreboard(scoreboardText.toString());
+                return;
+            }
+            scoreboardText = null;
+        }
+        if (message.startsWith(TICK_PREFIX)) {
+            syncCountdown(Integer.parseInt(message.replaceAll("\\D", "")));
+        } else if (message.startsWith("Correct! Time taken") || message.startsWith("Time's up!")) {
+            stopCountdown();
+        } else if (message.startsWith("Login successful")) {
+            showLoggedIn();
+        } else if (message.startsWith("Game over")) {
+            stopCountdown();
+            showGameOver();
+        } else if (message.startsWith("Logout successful")) {
+            stopCountdown();
+            showLoggedOut();
+        }else if (message.startsWith("Added to waiting list. Waiting for other players...")) {
+            showWaiting();
+        }else if (message.startsWith("Rejoined your match")) {
+            showWaiting();
+        }else if (message.startsWith("Exiting game. Welcome to dashboard.")) {
+            stopCountdown();
+            showDashboard();
+        } else if (message.startsWith("Scoreboard:")) {
+            // The first entry shares the line; the rest follow one per line
+            String first = message.substring("Scoreboard:".length()).trim();
+            scoreboardText = new StringBuilder(first.isEmpty() ? "" : first + "\n");
+            showScoreboard(scoreboardText.toString());
+        } else if (message.startsWith("Your rank:")) {
+            rankLabel.setText(message);
+        }
+    }
+
+    // Shows the scoreboard beside the messages, without blocking input the way a dialog would
+    private void showScoreboard(String formattedScoreboard) {
+        scoreboardArea.setText(formattedScoreboard);
+        scoreboardArea.setCaretPosition(0);
+        if (!scoreboardPanel.isVisible()) {
+            rankLabel.setText(" ");
+            scoreboardPanel.setVisible(true);
+            if (frame.getWidth() < 580) {
+                frame.setSize(580, frame.getHeight());
+            }
+            frame.revalidate();
+        }
+    }
+
+    private void showLoginForm() {
+        JDialog dialog = new JDialog(frame, "Login", true);
+        dialog.setLayout(new GridLayout(3, 2));
+
+        dialog.add(new JLabel("Username:"));
+        JTextField usernameField = new JTextField();
+        dialog.add(usernameField);
+
+        dialog.add(new JLabel("Password:"));
+        JPasswordField passwordField = new JPasswordField();
+        dialog.add(passwordField);
+
+        JButton submitButton = new JButton("Submit");
+        submitButton.addActionListener(e -> {
+            String username = usernameField.getText();
+            String password = new String(passwordField.getPassword());
+            if (!username.isEmpty() && !password.isEmpty()) {
+                this.username = username;
+                this.password = password;
+                sendCredentials(LOGIN_CMD, BinaryProtocol.LOGIN, username, password);
+                dialog.dispose();
+            } else {
+                JOptionPane.showMessageDialog(frame, "Username and Password cannot be empty", "Error", JOptionPane.ERROR_MESSAGE);
+            }
+        });
+        dialog.add(submitButton);
+
+        dialog.setSize(300, 150);
+        dialog.setLocationRelativeTo(frame);
+        dialog.setVisible(true);
+    }
+
+    private void showRegisterForm() {
+        JDialog dialog = new JDialog(frame, "Register", true);
+        dialog.setLayout(new GridLayout(3, 2));
+
+        dialog.add(new JLabel("Username:"));
+        JTextField usernameField = new JTextField();
+        dialog.add(usernameField);
+
+        dialog.add(new JLabel("Password:"));
+        JPasswordField passwordField = new JPasswordField();
+        dialog.add(passwordField);
+
+        JButton submitButton = new JButton("Submit");
+        submitButton.addActionListener(e -> {
+            String username = usernameField.getText();
+            String password = new String(passwordField.getPassword());
+            if (!username.isEmpty() && !password.isEmpty()) {
+                sendCredentials(REGISTER_CMD, BinaryProtocol.REGISTER, username, password);
+                dialog.dispose();
+            } else {
+                JOptionPane.showMessageDialog(frame, "Username and Password cannot be empty", "Error", JOptionPane.ERROR_MESSAGE);
+            }
+        });
+        dialog.add(submitButton);
+
+        dialog.setSize(300, 150);
+        dialog.setLocationRelativeTo(frame);
+        dialog.setVisible(true);
+    }
+}
@@ -1,356 +1,1632 @@
 import java.io.*;
+import java.lang.invoke.*;
 import java.net.*;
+import java.nio.*;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.*;
 import java.util.*;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+import java.util.function.*;
 
 public class TypefastServer {
-    private static final int PORT = 12345;
+    private static final int PORT = Integer.getInteger("typefast.port", 12345);
     private static final int INITIAL_TIME_LIMIT = 30;
-    private static final int GROUP_SIZE = 1;
+    // Players per match; large lobbies are fine since round state does not grow with the group
+    private static final int MAX_GROUP_SIZE = 1000;
+    private static final int GROUP_SIZE = Math.max(1, Math.min(MAX_GROUP_SIZE,
+            Integer.getInteger("typefast.groupSize", 1)));
+    // Extra points for typing a word before the rest of the lobby: the full bonus for first, none for last
+    private static final double PLACEMENT_BONUS = Double.parseDouble(
+            System.getProperty("typefast.score.placementBonus", "2"));
     private static final int WORDS_PER_GAME = 5; // Limit for the number of words per game
-    private static final Map<String, String> userDatabase = new ConcurrentHashMap<>();
+    // Seconds between countdown ticks sent to clients, which count down locally in between; 1 sends every second
+    private static final int TICK_SYNC_SECONDS = Integer.getInteger("typefast.match.tickSyncSeconds", 5);
+    private static final Path DATA_DIR = Paths.get(System.getProperty("typefast.data.dir", "typefast-data"));
+    private static UserStore userStore;
+    // History of every match hosted here, under DATA_DIR/journal; off with -Dtypefast.journal.enabled=false
+    private static MatchJournal journal;
+    // Password hashing and the store's fsync run here rather than on the connection's thread, which is
+    // an event loop with the nio transport; the threads bound how many run at once, so a login burst
+    // cannot starve matches and JOINs, and the queue how many wait before the server answers it is busy
+    private static final ExecutorService authExecutor = createAuthExecutor(
+            Integer.getInteger("typefast.auth.maxConcurrent", Math.max(2, Runtime.getRuntime().availableProcessors())),
+            Integer.getInteger("typefast.auth.queueSize", 1024));
     private static final Map<String, ClientHandler> authenticatedUsers = new ConcurrentHashMap<>();
-    private static final List<ClientHandler> waitingClients = Collections.synchronizedList(new ArrayList<>());
-    private static List<String> words = new ArrayList<>();
-    private static final ExecutorService pool = Executors.newFixedThreadPool(10);
-    private static final String WORDS_FILE_PATH = "C:\\Users\\DANIYAL-PC\\IdeaProjects\\untitled\\src\\words.txt"; // You can change this to an absolute path
+    private static final Leaderboard leaderboard = new Leaderboard(Integer.getInteger("typefast.scoreboard.pageSize", 20));
+    // "default" groups any waiting players, "skill" only groups players whose totalScore falls in the same bucket
+    private static final String MATCHMAKING_MODE = System.getProperty("typefast.matchmaking", "default");
+    private static final int MATCHMAKING_SHARDS = Integer.getInteger("typefast.matchmaking.shards",
+            Math.max(2, Runtime.getRuntime().availableProcessors()));
+    private static final double MATCHMAKING_BUCKET_WIDTH = Double.parseDouble(
+            System.getProperty("typefast.matchmaking.bucketWidth", "15"));
+    private static final Matchmaker<ClientHandler> matchmaker = "skill".equals(MATCHMAKING_MODE)
+            ? Matchmaker.skillBucketed(GROUP_SIZE, MATCHMAKING_SHARDS, MATCHMAKING_BUCKET_WIDTH)
+            : Matchmaker.shared(GROUP_SIZE, MATCHMAKING_SHARDS);
+    // "platform" keeps the fixed session pool, "virtual" runs each session on a virtual thread (Java 21+)
+    private static final String EXECUTION_MODE = System.getProperty("typefast.threads", "platform");
+    private static final int PLATFORM_POOL_SIZE = Integer.getInteger("typefast.pool.size", 10);
+    private static final ExecutorService pool = "virtual".equals(EXECUTION_MODE)
+            ? Executors.newVirtualThreadPerTaskExecutor()
+            : Executors.newFixedThreadPool(PLATFORM_POOL_SIZE);
+    // All matches share these few threads; a match only occupies one while handling a dispatch or tick
+    private static final ScheduledExecutorService gameScheduler = createGameScheduler(
+            Integer.getInteger("typefast.scheduler.threads", 2));
+    // Comma-separated word lists, optionally prefixed with a language code, e.g. "en:words.txt,de:woerter.txt"
+    private static final String WORDS_FILE_PATH = System.getProperty("typefast.words", "words.txt");
+    private static final String WORDS_LANGUAGE = System.getProperty("typefast.words.language", "en");
+    private static final WordLibrary wordLibrary = new WordLibrary(
+            WordLibrary.parseSources(WORDS_FILE_PATH, WORDS_LANGUAGE), parseDifficultyWeights(
+                    System.getProperty("typefast.words.difficultyWeights", "1,1,1,1,1")));
+    // "blocking" keeps one pooled thread per client, "nio" multiplexes all clients on a few event loops
+    private static final String TRANSPORT = System.getProperty("typefast.transport", "blocking");
+    private static final int NIO_EVENT_LOOPS = Integer.getInteger("typefast.nio.threads",
+            Math.max(2, Runtime.getRuntime().availableProcessors()));
+    // Frames a client may have waiting before it is disconnected, or before further frames are dropped
+    private static final int OUTBOUND_MAX_QUEUED = Integer.getInteger("typefast.outbound.maxQueued", 1024);
+    private static final boolean OUTBOUND_DROP_ON_OVERFLOW = "drop".equals(
+            System.getProperty("typefast.outbound.overflow", "disconnect"));
+    // Drains blocking-transport outbound queues; a slow client only ever parks its own virtual thread
+    private static final ExecutorService outboundWriters = Executors.newVirtualThreadPerTaskExecutor();
+    // Plain-text metrics endpoint on localhost; 0 leaves only the JMX MBean
+    private static final int METRICS_PORT = Integer.getInteger("typefast.metrics.port", 12346);
+    // Idle clients get a PING every heartbeat interval; one that has sent nothing for the idle timeout is closed
+    private static final long HEARTBEAT_INTERVAL_MS = Long.getLong("typefast.session.heartbeatMs", 10000);
+    private static final long IDLE_TIMEOUT_MS = Long.getLong("typefast.session.idleTimeoutMs", 30000);
+    // How long a player who drops out of a running match can log in again and take their place back
+    private static final long RESUME_WINDOW_MS = Long.getLong("typefast.session.resumeWindowMs", 30000);
+    // Per-connection rate limits. Messages over them are dropped unanswered, and a connection that
+    // keeps sending after maxThrottled dropped messages in a row is closed
+    private static final double MESSAGES_PER_SECOND = Double.parseDouble(
+            System.getProperty("typefast.limit.messagesPerSecond", "20"));
+    private static final int MESSAGE_BURST = Integer.getInteger("typefast.limit.messageBurst", 40);
+    private static final double ANSWERS_PER_SECOND = Double.parseDouble(
+            System.getProperty("typefast.limit.answersPerSecond", "5"));
+    private static final int ANSWER_BURST = Integer.getInteger("typefast.limit.answerBurst", 10);
+    private static final int MAX_THROTTLED = Integer.getInteger("typefast.limit.maxThrottled", 100);
+    // A correct answer sooner than this reaction time plus this many ms per character was not typed by
+    // hand; it is not scored, and a session is closed after maxFlags of them
+    private static final long MIN_REACTION_MS = Long.getLong("typefast.anticheat.minReactionMs", 100);
+    private static final long MIN_MS_PER_CHAR = Long.getLong("typefast.anticheat.minMsPerChar", 20);
+    private static final int MAX_TOO_FAST_FLAGS = Integer.getInteger("typefast.anticheat.maxFlags", 3);
+    // Hot state of every session, by ClientHandler.sessionId
+    static final SessionTable sessions = new SessionTable();
+    // A released session id is only reused after this long, so a late timer or reader of the old
+    // session cannot touch the state of a new one
+    private static final long SESSION_REUSE_DELAY_MS = Long.getLong("typefast.sessions.reuseDelayMs", 60000);
+    // Lines and frames from clients are small; the stream's default 8 KB would be most of a session's heap
+    private static final int INPUT_BUFFER_BYTES = Integer.getInteger("typefast.socket.inputBufferBytes", 1024);
+    // One thread and one wheel for every session's heartbeat, idle and resume deadlines
+    private static final TimerWheel sessionTimers = new TimerWheel(100, 512, "typefast-sessions");
+    // Players who dropped out of a match, by username, until they log in again or the resume window ends
+    private static final Map<String, ClientHandler> suspendedSessions = new ConcurrentHashMap<>();
+    // typefast.cluster.listen=[<host>:]<port> runs the cluster hub on this node, on the loopback interface
+    // unless a host or address to bind is given; typefast.cluster.join=<host:port> joins the hub of
+    // another node. With neither the node runs on its own and cluster stays null. Accounts stay per
+    // node: each node logs in only the accounts in its own data directory
+    private static final String CLUSTER_NODE_ID = System.getProperty("typefast.cluster.node", "node-" + PORT);
+    // Messages queued for a cluster peer before its link is closed as too slow
+    private static final int CLUSTER_MAX_QUEUED = Integer.getInteger("typefast.cluster.maxQueued", 65536);
+    private static Cluster cluster;
+    // Local players waiting on the cluster's waiting list, which replaces the matchmaker in a cluster
+    private static final Set<ClientHandler> clusterWaiting = ConcurrentHashMap.newKeySet();
+    // Players waiting on every node of the cluster, as last published by the hub
+    private static volatile int clusterWaitingCount;
+    // Waiting players hear how many others wait with them: this node's, or the whole cluster's. The
+    // fan-out has a thread of its own, so a large waiting room never holds up a round's timers.
+    private static final WaitingRoomBroadcaster waitingRoomBroadcaster = new WaitingRoomBroadcaster(
+            () -> cluster != null ? clusterWaitingCount : matchmaker.waitingCount(),
+            () -> cluster != null ? clusterWaiting : matchmaker.waitingClients(),
+            Executors.newSingleThreadScheduledExecutor(Thread.ofPlatform().name("typefast-waiting").daemon().factory()),
+            Long.getLong("typefast.waitingBroadcast.intervalMs", 250));
+    // Stand-ins for the players of other nodes in matches hosted here, by username
+    private static final Map<String, ClientHandler> remotePlayers = new ConcurrentHashMap<>();
+    // A drain (POST /drain on the metrics endpoint) gives running matches this long to finish; the
+    // rest are handed to the process taking over, see Handoff
+    private static final long DRAIN_TIMEOUT_MS = Long.getLong("typefast.drain.timeoutMs", 30000);
+    // Clients are told to reconnect after a random delay up to this, so they do not all return at once
+    private static final long RECONNECT_SPREAD_MS = Long.getLong("typefast.drain.reconnectSpreadMs", 5000);
+    // -Dtypefast.handoff=true takes over from the server running on this host instead of starting afresh,
+    // and opens the port so the next process started that way can take over in turn
+    private static final boolean HANDOFF = Boolean.getBoolean("typefast.handoff");
+    private static final long HANDOFF_WAIT_MS = Long.getLong("typefast.handoff.waitMs", DRAIN_TIMEOUT_MS + 30000);
+    // When set, commands on the metrics endpoint such as /drain need it in their X-Typefast-Token header
+    private static final String COMMAND_TOKEN = System.getProperty("typefast.drain.token");
+    // Held while this process uses DATA_DIR, so two servers never write the same store
+    private static FileLock dataDirLock;
+    private static final AtomicBoolean draining = new AtomicBoolean();
+    // Players who were waiting for a match when the previous process drained; queued again on login
+    private static final Set<String> restoredWaiting = ConcurrentHashMap.newKeySet();
+    // One of the two is the listener, depending on the transport
+    private static ServerSocket serverSocket;
+    private static NioServer nioServer;
+    private static ServerMetrics metrics;
+
+    // Replies sent on every attempt or round, encoded once so sending them allocates nothing
+    private static final byte[] REGISTER_FAILED_LINE = encodeLine("Username already exists. Please try again.");
+    private static final byte[] REGISTERED_LINE = encodeLine("Registration successful. Please login.");
+    private static final byte[] LOGIN_FAILED_LINE = encodeLine("Invalid username or password. Please try again.");
+    private static final byte[] QUEUED_LINE = encodeLine("Added to waiting list. Waiting for other players...");
+    private static final byte[] ALREADY_QUEUED_LINE = encodeLine("You are already in the waiting list.");
 
     public static void main(String[] args) {
-        loadWordsFromFile(WORDS_FILE_PATH);
-        System.out.println("Typefast Server started...");
-        try (ServerSocket serverSocket = new ServerSocket(PORT)) {
+        // Bound first, so while a handoff is under way clients queue here instead of being refused
+        try {
+            listen();
+        } catch (IOException e) {
+            Log.error("Could not listen on port " + PORT, e);
+            return;
+        }
+        Handoff.Snapshot handoff = null;
+        try {
+            if (HANDOFF && METRICS_PORT != 0) {
+                handoff = Handoff.takeOver(DATA_DIR, METRICS_PORT, COMMAND_TOKEN, HANDOFF_WAIT_MS);
+            }
+        } catch (IOException e) {
+            Log.error("Could not read the handoff snapshot; starting without it", e);
+        } catch (InterruptedException e) {
+            return;
+        }
+        try {
+            // The server handing over lets go of the directory once its snapshot is written
+            dataDirLock = Handoff.lock(DATA_DIR, HANDOFF ? HANDOFF_WAIT_MS : 0);
+        } catch (IOException e) {
+            Log.error("Could not lock " + DATA_DIR, e);
+            return;
+        } catch (InterruptedException e) {
+            return;
+        }
+        if (dataDirLock == null) {
+            Log.error("Another server is using " + DATA_DIR, null);
+            return;
+        }
+        try {
+            if (handoff == null) {
+                handoff = Handoff.take(DATA_DIR);
+            }
+        } catch (IOException e) {
+            Log.error("Could not read the handoff snapshot; starting without it", e);
+        }
+        try {
+            long recoveryStart = System.nanoTime();
+            userStore = UserStore.open(DATA_DIR, Integer.getInteger("typefast.store.pbkdf2Iterations", 10000),
+                    Long.getLong("typefast.store.snapshotEvery", 100000));
+            Log.info("Recovered " + userStore.size() + " accounts in "
+                    + (System.nanoTime() - recoveryStart) / 1000000 + " ms");
+        } catch (IOException e) {
+            Log.error("Error opening user store: " + DATA_DIR, e);
+            return;
+        }
+        if (Boolean.parseBoolean(System.getProperty("typefast.journal.enabled", "true"))) {
+            try {
+                journal = MatchJournal.open(DATA_DIR.resolve("journal"),
+                        Long.getLong("typefast.journal.segmentMB", 64) << 20,
+                        Integer.getInteger("typefast.journal.queueSize", 65536));
+            } catch (IOException e) {
+                // Matches run fine without their history
+                Log.error("Could not open the match journal; matches will not be recorded", e);
+            }
+        }
+        wordLibrary.loadAll();
+        wordLibrary.startReloading(gameScheduler, Long.getLong("typefast.words.reloadSeconds", 10));
+        waitingRoomBroadcaster.start();
+        sessionTimers.start();
+        try {
+            metrics = createMetrics();
+            metrics.start(METRICS_PORT);
+        } catch (IOException e) {
+            Log.error("Could not start the metrics endpoint on port " + METRICS_PORT, e);
+        }
+        try {
+            cluster = joinCluster();
+        } catch (IOException e) {
+            Log.error("Could not join the cluster", e);
+            return;
+        }
+        if (handoff != null) {
+            restore(handoff);
+        }
+        Log.info("Typefast Server started (" + TRANSPORT + " transport, " + EXECUTION_MODE + " threads)...");
+        if (nioServer != null) {
+            try {
+                nioServer.start();
+            } catch (IOException e) {
+                Log.error("NIO server stopped", e);
+            }
+            return;
+        }
+        try (ServerSocket listener = serverSocket) {
             while (true) {
-                Socket clientSocket = serverSocket.accept();
+                Socket clientSocket = listener.accept();
+                // Backstop for a peer that vanished without a FIN; heartbeats keep live clients under it
+                clientSocket.setSoTimeout((int) IDLE_TIMEOUT_MS);
                 ClientHandler clientHandler = new ClientHandler(clientSocket);
                 pool.execute(clientHandler);
             }
         } catch (IOException e) {
-            e.printStackTrace();
+            if (!draining.get()) {
+                Log.error("Server socket failed", e);
+            }
         }
     }
 
-    private static void loadWordsFromFile(String filePath) {
+    // In handoff mode SO_REUSEPORT lets the process taking over bind the port while this one still listens
+    private static void listen() throws IOException {
+        if ("nio".equals(TRANSPORT)) {
+            nioServer = new NioServer(PORT, NIO_EVENT_LOOPS, OUTBOUND_MAX_QUEUED, OUTBOUND_DROP_ON_OVERFLOW, HANDOFF);
+            nioServer.bind();
+            return;
+        }
+        serverSocket = new ServerSocket();
+        serverSocket.setReuseAddress(true);
+        if (HANDOFF && serverSocket.supportedOptions().contains(StandardSocketOptions.SO_REUSEPORT)) {
+            serverSocket.setOption(StandardSocketOptions.SO_REUSEPORT, true);
+        }
+        serverSocket.bind(new InetSocketAddress(PORT));
+    }
+
+    private static void stopAccepting() {
+        if (nioServer != null) {
+            nioServer.stopAccepting();
+            return;
+        }
         try {
-            Path path = Paths.get(filePath);
-            if (!Files.exists(path)) {
-                System.err.println("File not found: " + filePath);
-                return;
+            serverSocket.close();
+        } catch (IOException e) {
+            Log.error("Could not close the server socket", e);
+        }
+    }
+
+    private static void startDrain() {
+        if (draining.compareAndSet(false, true)) {
+            new Thread(TypefastServer::drain, "typefast-drain").start();
+        }
+    }
+
+    /**
+     * Stops taking new players and matches, hands whatever is left to the process taking over
+     * through a Handoff snapshot, and exits.
+     */
+    private static void drain() {
+        Log.info("Draining: no new matches; running matches have " + DRAIN_TIMEOUT_MS + " ms to finish");
+        stopAccepting();
+        long deadline = System.nanoTime() + DRAIN_TIMEOUT_MS * 1000000;
+        try {
+            while (ServerMetrics.activeMatches.get() > 0 && System.nanoTime() < deadline) {
+                Thread.sleep(100);
             }
-            words = Files.readAllLines(path);
-            System.out.println("Words loaded from file: " + words);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        Set<Match> running = Collections.newSetFromMap(new IdentityHashMap<>());
+        for (Map<String, ClientHandler> players : List.of(authenticatedUsers, suspendedSessions, remotePlayers)) {
+            for (ClientHandler player : players.values()) {
+                Match match = player.match;
+                if (match != null) {
+                    running.add(match);
+                }
+            }
+        }
+        Handoff.Snapshot snapshot = new Handoff.Snapshot();
+        for (Match match : running) {
+            Handoff.MatchState state = match.suspend();
+            if (state != null && !state.players.isEmpty()) {
+                snapshot.matches.add(state);
+            }
+        }
+        for (ClientHandler waiting : matchmaker.waitingClients()) {
+            // Null if the player logged out since joining
+            String username = waiting.username;
+            if (username != null) {
+                snapshot.waiting.add(username);
+            }
+        }
+        if (metrics != null) {
+            metrics.stop();
+        }
+        try {
+            userStore.close();
+            Handoff.write(DATA_DIR, snapshot);
+            dataDirLock.channel().close();
+            Log.info("Handed over " + snapshot.matches.size() + " matches and " + snapshot.waiting.size()
+                    + " waiting players");
         } catch (IOException e) {
-            System.err.println("Error loading words from file: " + filePath);
-            e.printStackTrace(); // Print stack trace for more details
+            Log.error("Could not write the handoff snapshot; unfinished matches are lost", e);
+        }
+        for (ClientHandler player : authenticatedUsers.values()) {
+            int delay = RECONNECT_SPREAD_MS > 0 ? (int) ThreadLocalRandom.current().nextLong(RECONNECT_SPREAD_MS) : 0;
+            player.send("Server is restarting. Reconnect in " + delay + " ms.",
+                    new BinaryProtocol.Writer(BinaryProtocol.RESTARTING).putInt(delay).toFrame());
+        }
+        try {
+            // Lets the notices go out before exiting closes every connection
+            Thread.sleep(1000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
         }
+        System.exit(0);
     }
 
-    public static synchronized void registerUser(String username, String password, ClientHandler clientHandler) {
-        if (userDatabase.containsKey(username)) {
-            clientHandler.sendMessage("Username already exists. Please try again.");
-        } else {
-            userDatabase.put(username, password);
-            clientHandler.sendMessage("Registration successful. Please login.");
+    // Holds the players of handed-over matches, as if they had dropped out, until they log in here
+    private static void restore(Handoff.Snapshot snapshot) {
+        for (Handoff.MatchState state : snapshot.matches) {
+            List<ClientHandler> group = new ArrayList<>(state.players.size());
+            for (String player : state.players) {
+                String username = userStore.canonicalName(player);
+                if (username == null) {
+                    continue;
+                }
+                ClientHandler held = ClientHandler.held(username);
+                authenticatedUsers.put(username, held);
+                if (cluster != null) {
+                    cluster.claimSession(username);
+                }
+                held.setTotalScore(userStore.score(username));
+                suspendedSessions.put(username, held);
+                sessionTimers.schedule(() -> held.abandon(username), RESUME_WINDOW_MS);
+                group.add(held);
+            }
+            if (!group.isEmpty()) {
+                new Match(group, gameScheduler, TypefastServer::nextWord, INITIAL_TIME_LIMIT, WORDS_PER_GAME,
+                        TICK_SYNC_SECONDS, journal, state.id).resume(state.wordsPlayed, RECONNECT_SPREAD_MS);
+            }
+        }
+        for (String player : snapshot.waiting) {
+            String username = userStore.canonicalName(player);
+            if (username != null) {
+                restoredWaiting.add(username);
+            }
         }
+        sessionTimers.schedule(restoredWaiting::clear, RESUME_WINDOW_MS);
+        Log.info("Took over " + snapshot.matches.size() + " matches and " + snapshot.waiting.size()
+                + " waiting players");
     }
 
-    public static synchronized void authenticateUser(String username, String password, ClientHandler clientHandler) {
-        if (userDatabase.containsKey(username) && userDatabase.get(username).equals(password)) {
-            authenticatedUsers.put(username, clientHandler);
-            clientHandler.setUsername(username);
-            clientHandler.sendMessage("Login successful. Welcome " + username + "!");
-        } else {
-            clientHandler.sendMessage("Invalid username or password. Please try again.");
+    private static ServerMetrics createMetrics() {
+        return new ServerMetrics()
+                .gauge("connections_opened", ServerMetrics.connectionsOpened::sum)
+                .gauge("connections_active", () -> ServerMetrics.connectionsOpened.sum() - ServerMetrics.connectionsClosed.sum())
+                .gauge("players_logged_in", authenticatedUsers::size)
+                .gauge("sessions_live", sessions::size)
+                .gauge("session_table_bytes", sessions::footprint)
+                .gauge("players_waiting", () -> cluster != null ? clusterWaiting.size() : matchmaker.waitingCount())
+                .gauge("cluster_remote_players", remotePlayers::size)
+                .gauge("cluster_connected", () -> cluster == null || cluster.isConnected() ? 1 : 0)
+                .gauge("cluster_reconnects", SocketCluster.reconnects::sum)
+                .gauge("cluster_overflow_disconnects", SocketCluster.overflowDisconnects::sum)
+                .gauge("matches_started", ServerMetrics.matchesStarted::sum)
+                .gauge("matches_active", ServerMetrics.activeMatches::get)
+                .gauge("messages_in", ServerMetrics.messagesIn::sum)
+                .gauge("messages_out", ServerMetrics.messagesOut::sum)
+                .gauge("outbound_frames_dropped", OutboundQueue.droppedFrames::sum)
+                .gauge("outbound_overflow_disconnects", OutboundQueue.overflowDisconnects::sum)
+                .gauge("waiting_updates_coalesced", waitingRoomBroadcaster::getUpdatesCoalesced)
+                .gauge("auth_busy_rejections", ServerMetrics.authBusyRejections::sum)
+                .gauge("sessions_reaped", ServerMetrics.sessionsReaped::sum)
+                .gauge("sessions_suspended", suspendedSessions::size)
+                .gauge("sessions_resumed", ServerMetrics.sessionsResumed::sum)
+                .gauge("messages_throttled", ServerMetrics.messagesThrottled::sum)
+                .gauge("answers_too_fast", ServerMetrics.answersTooFast::sum)
+                .gauge("abuse_disconnects", ServerMetrics.abuseDisconnects::sum)
+                .gauge("accounts", userStore::size)
+                .gauge("log_entries_dropped", Log.dropped::sum)
+                .gauge("journal_records_written", () -> journal != null ? journal.written.sum() : 0)
+                .gauge("journal_records_dropped", () -> journal != null ? journal.dropped.sum() : 0)
+                .gauge("draining", () -> draining.get() ? 1 : 0)
+                .command("drain", TypefastServer::startDrain)
+                .commandToken(COMMAND_TOKEN)
+                .histogram("answer_ack_micros", ServerMetrics.answerAckMicros)
+                .histogram("leaderboard_lock_wait_micros", ServerMetrics.leaderboardLockWaitMicros);
+    }
+
+    private static Cluster joinCluster() throws IOException {
+        String listen = System.getProperty("typefast.cluster.listen");
+        if (listen != null) {
+            ClusterHub hub = new ClusterHub(MATCHMAKING_SHARDS);
+            Cluster local = new InProcessCluster(hub, CLUSTER_NODE_ID, new ClusterEvents());
+            int colon = listen.lastIndexOf(':');
+            InetAddress address = colon < 0 ? InetAddress.getLoopbackAddress()
+                    : InetAddress.getByName(listen.substring(0, colon));
+            SocketCluster.serveHub(hub, address, Integer.parseInt(listen.substring(colon + 1)), CLUSTER_MAX_QUEUED);
+            return local;
+        }
+        String join = System.getProperty("typefast.cluster.join");
+        if (join != null) {
+            Log.info("Joining the cluster hub at " + join + " as " + CLUSTER_NODE_ID);
+            return SocketCluster.connect(join, CLUSTER_NODE_ID, new ClusterEvents(), CLUSTER_MAX_QUEUED);
         }
+        return null;
     }
 
-    public static synchronized void logoutUser(String username) {
-        if (username != null) {
-            authenticatedUsers.remove(username);
+    private static ScheduledExecutorService createGameScheduler(int threads) {
+        ScheduledThreadPoolExecutor scheduler = new ScheduledThreadPoolExecutor(threads,
+                Thread.ofPlatform().name("typefast-game-", 0).daemon().factory());
+        // Rounds that end early cancel their pending tick; drop it from the queue right away
+        scheduler.setRemoveOnCancelPolicy(true);
+        return scheduler;
+    }
+
+    /**
+     * Encodes one text-protocol line, newline included, for sending with Connection.sendFrame.
+     */
+    static byte[] encodeLine(String message) {
+        return (message + "\n").getBytes(StandardCharsets.UTF_8);
+    }
+
+    // One relative weight per difficulty level, easiest first
+    private static double[] parseDifficultyWeights(String spec) {
+        String[] parts = spec.split(",");
+        double[] weights = new double[Dictionary.MAX_DIFFICULTY];
+        for (int i = 0; i < weights.length; i++) {
+            weights[i] = i < parts.length ? Double.parseDouble(parts[i].trim()) : 1;
         }
+        return weights;
     }
 
-    public static synchronized void addClientToWaitingList(ClientHandler clientHandler) {
-        if (!waitingClients.contains(clientHandler)) {
-            waitingClients.add(clientHandler);
-            broadcastWaitingListSize();
-            clientHandler.sendMessage("Added to waiting list. Waiting for other players...");
-            if (waitingClients.size() >= GROUP_SIZE) {
-                List<ClientHandler> group = new ArrayList<>();
-                for (int i = 0; i < GROUP_SIZE; i++) {
-                    group.add(waitingClients.remove(0));
+    private static ExecutorService createAuthExecutor(int threads, int queueSize) {
+        return new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<>(queueSize),
+                Thread.ofPlatform().name("typefast-auth-", 0).daemon().factory());
+    }
+
+    // Runs task on the auth executor; the reply goes straight to the client's connection from there.
+    // The session's later messages wait until it is done, so they are handled in the order sent.
+    private static void submitAuth(ClientHandler clientHandler, Runnable task) {
+        clientHandler.holdMessages();
+        try {
+            authExecutor.execute(() -> {
+                try {
+                    task.run();
+                } catch (RuntimeException e) {
+                    Log.error("Authentication failed unexpectedly", e);
+                    clientHandler.sendMessage("Server error. Please try again.");
                 }
-                startGame(group);
+                clientHandler.releaseMessages();
+            });
+        } catch (RejectedExecutionException e) {
+            ServerMetrics.authBusyRejections.increment();
+            clientHandler.sendMessage("Server is busy. Please try again.");
+            clientHandler.releaseMessages();
+        }
+    }
+
+    public static void registerUser(String username, String password, ClientHandler clientHandler) {
+        submitAuth(clientHandler, () -> {
+            boolean registered;
+            try {
+                registered = userStore.register(username, password);
+            } catch (IllegalStateException e) {
+                // Closed by a drain; the process taking over creates the account instead
+                clientHandler.sendMessage("Server is restarting. Please register again in a moment.");
+                return;
+            }
+            if (!registered) {
+                clientHandler.sendEvent(BinaryProtocol.REGISTER_FAILED, REGISTER_FAILED_LINE);
+            } else {
+                clientHandler.sendEvent(BinaryProtocol.REGISTERED, REGISTERED_LINE);
+            }
+        });
+    }
+
+    public static void authenticateUser(String username, String password, ClientHandler clientHandler) {
+        submitAuth(clientHandler, () -> {
+            if (userStore.authenticate(username, password)) {
+                login(userStore.canonicalName(username), clientHandler);
+            } else {
+                clientHandler.sendEvent(BinaryProtocol.LOGIN_FAILED, LOGIN_FAILED_LINE);
+            }
+        });
+    }
+
+    private static void login(String username, ClientHandler clientHandler) {
+        ClientHandler previous = authenticatedUsers.put(username, clientHandler);
+        if (cluster != null) {
+            cluster.claimSession(username);
+        }
+        clientHandler.setUsername(username);
+        clientHandler.setTotalScore(userStore.score(username));
+        clientHandler.send("Login successful. Welcome " + username + "!",
+                BinaryProtocol.text(BinaryProtocol.LOGIN_OK, username));
+        ClientHandler dropped = suspendedSessions.remove(username);
+        if (dropped == null && previous != null && previous != clientHandler && previous.inMatch()) {
+            // Reconnected before the old connection was noticed to be dead
+            dropped = previous;
+        }
+        if (dropped != null) {
+            clientHandler.resume(dropped);
+        } else if (restoredWaiting.remove(username)) {
+            // Was waiting for a match when the previous process handed over
+            addClientToWaitingList(clientHandler);
+        }
+    }
+
+    public static void logoutUser(String username, ClientHandler clientHandler) {
+        // Only drop the session if it is still ours; the same user may have logged in again elsewhere
+        if (username != null && authenticatedUsers.remove(username, clientHandler)) {
+            leaderboard.remove(username);
+            if (cluster != null) {
+                clusterWaiting.remove(clientHandler);
+                cluster.releaseSession(username);
+                cluster.removeScore(username);
+            }
+        }
+    }
+
+    public static void addClientToWaitingList(ClientHandler clientHandler) {
+        if (cluster != null) {
+            addClientToClusterWaitingList(clientHandler);
+            return;
+        }
+        addClientToWaitingList(clientHandler, matchmaker, TypefastServer::startGame);
+    }
+
+    // Groups are formed by the hub, which tells every node with a player in the group through matchFormed
+    private static void addClientToClusterWaitingList(ClientHandler clientHandler) {
+        if (!clusterWaiting.add(clientHandler)) {
+            clientHandler.sendEvent(BinaryProtocol.ALREADY_QUEUED, ALREADY_QUEUED_LINE);
+            return;
+        }
+        clientHandler.sendEvent(BinaryProtocol.QUEUED, QUEUED_LINE);
+        enqueueInCluster(clientHandler);
+    }
+
+    private static void enqueueInCluster(ClientHandler clientHandler) {
+        double score = clientHandler.getTotalScore();
+        int bucket = "skill".equals(MATCHMAKING_MODE) ? (int) (score / MATCHMAKING_BUCKET_WIDTH) : 0;
+        cluster.enqueue(new Cluster.Member(CLUSTER_NODE_ID, clientHandler.username, clientHandler.isBinary(), score),
+                bucket, GROUP_SIZE);
+    }
+
+    // Also used by the benchmarks, which supply their own matchmaker and do not start real matches
+    static void addClientToWaitingList(ClientHandler clientHandler, Matchmaker<ClientHandler> matchmaker,
+                                       Consumer<List<ClientHandler>> startGame) {
+        if (matchmaker.enqueue(clientHandler)) {
+            broadcastWaitingListSize();
+            clientHandler.sendEvent(BinaryProtocol.QUEUED, QUEUED_LINE);
+            for (List<ClientHandler> group : matchmaker.formGroups()) {
+                startGame.accept(group);
             }
         } else {
-            clientHandler.sendMessage("You are already in the waiting list.");
+            clientHandler.sendEvent(BinaryProtocol.ALREADY_QUEUED, ALREADY_QUEUED_LINE);
         }
     }
 
-    public static synchronized void broadcastWaitingListSize() {
-        String message = "Players in waiting list: " + waitingClients.size();
-        for (ClientHandler client : waitingClients) {
-            client.sendMessage(message);
+    private static void removeClientFromWaitingList(ClientHandler clientHandler) {
+        if (cluster != null) {
+            if (clusterWaiting.remove(clientHandler)) {
+                cluster.dequeue(clientHandler.username);
+            }
+        } else if (matchmaker.remove(clientHandler)) {
+            broadcastWaitingListSize();
         }
     }
 
+    public static void broadcastWaitingListSize() {
+        // Sent by the broadcaster on its next interval, together with any other joins until then
+        waitingRoomBroadcaster.requestUpdate();
+    }
+
     public static void startGame(List<ClientHandler> group) {
-        new Thread(() -> {
-            try {
-                int timeLimit = INITIAL_TIME_LIMIT;
-                Random random = new Random();
-                int wordsSent = 0;
-                outerLoop:
-                while (wordsSent < WORDS_PER_GAME) {
-                    // Select a random word from the list
-                    String word = words.get(random.nextInt(words.size()));
-                    boolean wordTypedCorrectly = false;
-
-                    // Introduce a 3-second delay before sending the new word
-                    Thread.sleep(3000);
-
-                    // Check if any client has set the exit flag
-                    for (ClientHandler client : group) {
-                        if (client.getExitFlag()) {
-                            break outerLoop;
-                        }
-                    }
+        new Match(group, gameScheduler, TypefastServer::nextWord, INITIAL_TIME_LIMIT, WORDS_PER_GAME, TICK_SYNC_SECONDS,
+                journal).start();
+    }
 
-                    // Reset the time limit to INITIAL_TIME_LIMIT before sending a new word
-                    timeLimit = INITIAL_TIME_LIMIT;
+    private static String nextWord() {
+        return wordLibrary.nextWord(WORDS_LANGUAGE);
+    }
 
-                    for (ClientHandler client : group) {
-                        client.sendMessage("New word: " + word);
-                        client.setWord(word);
-                        client.setStartTime(System.currentTimeMillis());
-                    }
-                    for (int i = timeLimit; i > 0 && !wordTypedCorrectly; i--) {
-                        // Check if any client has set the exit flag
-                        for (ClientHandler client : group) {
-                            if (client.getExitFlag()) {
-                                break outerLoop;
-                            }
-                        }
+    /**
+     * Applies the hub's events to this node's players, leaderboard and hosted matches.
+     */
+    private static class ClusterEvents implements Cluster.Listener {
+        public void sessionRevoked(String username) {
+            ClientHandler local = authenticatedUsers.remove(username);
+            if (local != null) {
+                clusterWaiting.remove(local);
+                local.supersede();
+                local.sendMessage("You have logged in on another server. Disconnecting.");
+                local.connection.close();
+            }
+        }
 
-                        for (ClientHandler client : group) {
-                            client.sendMessage("Time remaining: " + i + " seconds");
-                        }
-                        Thread.sleep(1000);
-                        boolean anyClientTypedCorrectly = false;
-                        for (ClientHandler client : group) {
-                            if (client.isWordTypedCorrectly()) {
-                                anyClientTypedCorrectly = true;
-                                break;
-                            }
-                        }
-                        if (anyClientTypedCorrectly) {
-                            break; // Break out of the loop if any client typed the word correctly
-                        }
-                    }
+        public void scoreChanged(String username, double score) {
+            leaderboard.update(username, score);
+            ClientHandler local = authenticatedUsers.get(username);
+            if (local != null) {
+                // Scored in a match hosted by another node
+                local.applyClusterScore(score);
+            }
+        }
 
-                    for (ClientHandler client : group) {
-                        if (!client.isWordTypedCorrectly()) {
-                            client.sendMessage("Time's up! You did not type the word correctly.");
-                        }
-                    }
+        public void scoreRemoved(String username) {
+            leaderboard.remove(username);
+        }
 
-                    wordsSent++; // Increment the count of words sent
-                }
-                for (ClientHandler client : group) {
-                    client.sendMessage("Game over. Thanks for playing!");
-                }
-            } catch (InterruptedException e) {
-                e.printStackTrace();
-            } finally {
-                for (ClientHandler client : group) {
-                    if (client.getExitFlag()) {
-                        client.sendMessage("Exiting game. Welcome to dashboard.");
-                        client.resetExitFlag(); // Reset the exit flag for future games
+        public void matchFormed(String hostNodeId, List<Cluster.Member> members) {
+            boolean hosting = hostNodeId.equals(CLUSTER_NODE_ID);
+            List<ClientHandler> group = new ArrayList<>(members.size());
+            for (Cluster.Member member : members) {
+                if (member.nodeId.equals(CLUSTER_NODE_ID)) {
+                    ClientHandler local = authenticatedUsers.get(member.username);
+                    if (local == null) {
+                        continue; // Logged out in the meantime
+                    }
+                    clusterWaiting.remove(local);
+                    if (!hosting) {
+                        local.setMatchHost(hostNodeId);
+                    }
+                    group.add(local);
+                } else if (hosting) {
+                    ClientHandler proxy = new ClientHandler(new RemoteConnection(member.nodeId, member.username), member);
+                    ClientHandler replaced = remotePlayers.put(member.username, proxy);
+                    if (replaced != null) {
+                        replaced.retire();
                     }
+                    group.add(proxy);
                 }
             }
-        }).start();
+            if (hosting) {
+                startGame(group);
+            }
+        }
+
+        public void delivered(String username, byte[] bytes) {
+            ClientHandler local = authenticatedUsers.get(username);
+            if (local != null) {
+                local.connection.sendFrame(bytes);
+            }
+        }
+
+        public void answerForwarded(String username, byte[] answer) {
+            ClientHandler proxy = remotePlayers.get(username);
+            if (proxy != null) {
+                proxy.answer(answer, 0, answer.length);
+            }
+        }
+
+        public void exitForwarded(String username) {
+            ClientHandler proxy = remotePlayers.get(username);
+            if (proxy != null) {
+                proxy.exit();
+            }
+        }
+
+        public void matchEnded(String username) {
+            ClientHandler local = authenticatedUsers.get(username);
+            if (local != null) {
+                local.setMatchHost(null);
+            }
+        }
+
+        public void waitingCountChanged(int count) {
+            clusterWaitingCount = count;
+            broadcastWaitingListSize();
+        }
+
+        public void reconnected() {
+            for (Map.Entry<String, ClientHandler> session : authenticatedUsers.entrySet()) {
+                cluster.claimSession(session.getKey());
+                cluster.publishScore(session.getKey(), session.getValue().getTotalScore());
+            }
+            for (ClientHandler waiting : clusterWaiting) {
+                enqueueInCluster(waiting);
+            }
+        }
+    }
+
+    /**
+     * Outbound side of a client connection. Implementations must accept messages from any thread.
+     */
+    interface Connection {
+        void send(String message);
+
+        // Writes already encoded bytes as they are: a binary frame, or a text line from encodeLine
+        void sendFrame(byte[] frame);
+
+        void close();
     }
 
-    private static class ClientHandler implements Runnable {
+    private static class SocketConnection implements Connection {
         private final Socket socket;
-        private final BufferedReader in;
-        private final PrintWriter out;
-        private String username;
-        private String currentWord;
-        private long startTime;
-        private boolean wordTypedCorrectly;
-        private double totalScore;
-        private boolean exitFlag = false;
+        private final OutputStream out;
+        private final OutboundQueue outbound = new OutboundQueue(OUTBOUND_MAX_QUEUED, OUTBOUND_DROP_ON_OVERFLOW);
+        private final Runnable drain = this::drain;
+        private final AtomicBoolean closed = new AtomicBoolean();
 
-        public ClientHandler(Socket socket) throws IOException {
+        SocketConnection(Socket socket) throws IOException {
             this.socket = socket;
-            this.in = new BufferedReader(new InputStreamReader(socket.getInputStream()));
-            this.out = new PrintWriter(socket.getOutputStream(), true);
+            this.out = new BufferedOutputStream(socket.getOutputStream());
+            ServerMetrics.connectionsOpened.increment();
+        }
+
+        public void send(String message) {
+            enqueue(ByteBuffer.wrap((message + "\n").getBytes(StandardCharsets.UTF_8)));
+        }
+
+        public void sendFrame(byte[] frame) {
+            enqueue(ByteBuffer.wrap(frame));
+        }
+
+        private void enqueue(ByteBuffer frame) {
+            if (closed.get()) {
+                return;
+            }
+            ServerMetrics.messagesOut.increment();
+            switch (outbound.offer(frame)) {
+                case OutboundQueue.SCHEDULE_DRAIN:
+                    outboundWriters.execute(drain);
+                    break;
+                case OutboundQueue.OVERFLOW:
+                    close();
+                    break;
+                default:
+                    break;
+            }
+        }
+
+        // Writes everything queued so far with a single flush; runs on an outbound writer thread
+        private void drain() {
+            try {
+                do {
+                    ByteBuffer frame;
+                    while ((frame = outbound.poll()) != null) {
+                        out.write(frame.array(), frame.arrayOffset() + frame.position(), frame.remaining());
+                    }
+                    out.flush();
+                } while (outbound.finishDrain());
+            } catch (IOException e) {
+                close();
+            }
+        }
+
+        public void close() {
+            // Called by the session thread and, on overflow, by whichever thread was sending
+            if (!closed.compareAndSet(false, true)) {
+                return;
+            }
+            ServerMetrics.connectionsClosed.increment();
+            outbound.clear();
+            try {
+                socket.close();
+            } catch (IOException e) {
+                Log.error("Error closing client socket", e);
+            }
+        }
+    }
+
+    /**
+     * Connection of a player of another node, as seen by the match hosting them here. The bytes are
+     * encoded for the player's protocol already and written as they are by the player's own node.
+     */
+    private static class RemoteConnection implements Connection {
+        private final String nodeId;
+        private final String username;
+
+        RemoteConnection(String nodeId, String username) {
+            this.nodeId = nodeId;
+            this.username = username;
+        }
+
+        public void send(String message) {
+            cluster.deliver(nodeId, username, encodeLine(message));
+        }
+
+        public void sendFrame(byte[] frame) {
+            cluster.deliver(nodeId, username, frame);
+        }
+
+        public void close() {
+            // The player's own node owns the socket
+        }
+    }
+
+    /**
+     * Connection of a player handed over by the previous process, until they log in here again.
+     * Everything sent to it is dropped.
+     */
+    private static class DetachedConnection implements Connection {
+        public void send(String message) {
+        }
+
+        public void sendFrame(byte[] frame) {
+        }
+
+        public void close() {
+        }
+    }
+
+    static class ClientHandler implements Runnable {
+        private static final byte[] REGISTER_CMD = ascii("REGISTER");
+        private static final byte[] LOGIN_CMD = ascii("LOGIN");
+        private static final byte[] LOGOUT_CMD = ascii("LOGOUT");
+        private static final byte[] JOIN_CMD = ascii("JOIN");
+        private static final byte[] SCOREBOARD_CMD = ascii("SCOREBOARD");
+        private static final byte[] EXIT_CMD = ascii("EXIT");
+        private static final byte[] NEGOTIATE_CMD = ascii(BinaryProtocol.NEGOTIATE_CMD);
+        private static final byte[] PING_CMD = ascii("PING");
+        private static final byte[] PONG_CMD = ascii("PONG");
+        private static final byte[] PING_LINE = encodeLine("PING");
+        private static final byte[] PONG_LINE = encodeLine("PONG");
+        private static final byte[] INCORRECT_LINE = encodeLine("Incorrect word. Try again.");
+        private static final byte[] LOGOUT_OK_LINE = encodeLine("Logout successful. Please login or register.");
+        private static final byte[] THROTTLED_LINE = encodeLine("Slow down! Messages are being ignored.");
+        private static final byte[] TOO_FAST_LINE = encodeLine("Answer rejected: typed too fast to be real.");
+        static final byte[] EXITED_LINE = encodeLine("Exiting game. Welcome to dashboard.");
+
+        private static final VarHandle RETIRED;
+
+        static {
+            try {
+                RETIRED = MethodHandles.lookup().findVarHandle(ClientHandler.class, "retired", boolean.class);
+            } catch (ReflectiveOperationException e) {
+                throw new ExceptionInInitializerError(e);
+            }
+        }
+
+        private final Connection connection;
+        private final DataInputStream in;
+        // Flags, score, activity stamp and rate limits live in the session table under this id
+        private final int sessionId = sessions.allocate();
+        // Set once the session id is released; from then on timers and late callbacks leave the table alone
+        private volatile boolean retired;
+        // Reused for every inbound line of the blocking transport
+        private byte[] lineBuffer;
+        private ByteBuffer frameBuffer;
+        // The store's own instance once logged in, so every map keyed by it shares one String
+        private volatile String username;
+        // Round this client is armed for; null once they typed its word
+        private volatile Match.Round round;
+        // Round whose word this client typed last; told apart by identity, so it never carries over
+        private volatile Match.Round solvedRound;
+        private volatile Match match;
+        // Node that hosts this player's current match when it is not this one; input goes there
+        private volatile String matchHost;
+        // Set on stand-ins for players of another node; that node stores their score
+        private final String ownerNodeId;
+        // Messages that arrived while a REGISTER or LOGIN of this session was on the auth executor,
+        // handled in order once it is done; null when none is held. Written under this.
+        private volatile ArrayDeque<Object> deferred;
+        private boolean authenticating; // Guarded by this
+        private boolean replaying;      // Guarded by this
+
+        public ClientHandler(Socket socket) throws IOException {
+            this(new SocketConnection(socket),
+                    new DataInputStream(new BufferedInputStream(socket.getInputStream(), INPUT_BUFFER_BYTES)));
+        }
+
+        // Used by transports that frame input themselves and call handleClientMessage/handleClientFrame directly
+        ClientHandler(Connection connection) {
+            this(connection, (DataInputStream) null);
+        }
+
+        private ClientHandler(Connection connection, DataInputStream in) {
+            this.connection = connection;
+            this.in = in;
+            this.ownerNodeId = null;
             sendMessage("Welcome to Typefast! Please register or login to play.");
-            totalScore = 0;
+        }
+
+        // Stand-in for a player of another node in a match hosted here
+        private ClientHandler(Connection connection, Cluster.Member member) {
+            this.connection = connection;
+            this.in = null;
+            this.ownerNodeId = member.nodeId;
+            this.username = member.username;
+            sessions.setFlag(sessionId, SessionTable.BINARY, member.binary);
+            sessions.setScore(sessionId, member.score);
+        }
+
+        // Player who counts as logged in without the user store, for simulations
+        static ClientHandler loggedIn(Connection connection, String username) {
+            ClientHandler player = new ClientHandler(connection);
+            player.username = username;
+            return player;
+        }
+
+        // Session of a handed-over player, held like one whose connection dropped
+        static ClientHandler held(String username) {
+            ClientHandler held = new ClientHandler(new DetachedConnection());
+            held.username = username;
+            sessions.setFlag(held.sessionId, SessionTable.DISCONNECTED, true);
+            return held;
         }
 
         public void setExitFlag() {
-            this.exitFlag = true;
+            sessions.setFlag(sessionId, SessionTable.EXIT_REQUESTED, true);
         }
 
         public boolean getExitFlag() {
-            return this.exitFlag;
+            return sessions.flag(sessionId, SessionTable.EXIT_REQUESTED);
         }
 
         public void resetExitFlag() {
-            this.exitFlag = false;
+            sessions.setFlag(sessionId, SessionTable.EXIT_REQUESTED, false);
+        }
+
+        // Switched on by the BINARY command; from then on both directions use BinaryProtocol frames
+        private boolean binary() {
+            return sessions.flag(sessionId, SessionTable.BINARY);
+        }
+
+        // Set once a newer login took over this session; its disconnect then has nothing to clean up
+        void supersede() {
+            sessions.setFlag(sessionId, SessionTable.SUPERSEDED, true);
+        }
+
+        /**
+         * Gives the session id back once this handler is done with, after the reuse delay. Safe to
+         * call more than once and from any thread.
+         */
+        void retire() {
+            if (!RETIRED.compareAndSet(this, false, true)) {
+                return;
+            }
+            int id = sessionId;
+            sessionTimers.schedule(() -> sessions.release(id), SESSION_REUSE_DELAY_MS);
+        }
+
+        void setTotalScore(double totalScore) {
+            sessions.setScore(sessionId, totalScore);
+            if (username != null) {
+                leaderboard.update(username, totalScore);
+                if (ownerNodeId == null) {
+                    userStore.updateScore(username, totalScore);
+                }
+                if (cluster != null) {
+                    cluster.publishScore(username, totalScore);
+                }
+            }
         }
 
-        public void resetScore() {
-            this.totalScore = 0;
+        // A score set by the node hosting this player's match; already on every leaderboard
+        void applyClusterScore(double totalScore) {
+            sessions.setScore(sessionId, totalScore);
+            String user = username;
+            if (user != null) {
+                userStore.updateScore(user, totalScore);
+            }
         }
 
         public void run() {
+            startHeartbeat();
             try {
                 while (true) {
-                    String message = in.readLine();
-                    if (message == null) {
-                        break;
+                    if (binary()) {
+                        ByteBuffer frame = BinaryProtocol.readFrame(in, frameBuffer);
+                        if (frame == null) {
+                            break;
+                        }
+                        frameBuffer = frame;
+                        handleClientFrame(frame);
+                    } else {
+                        int length = readLine();
+                        if (length < 0) {
+                            break;
+                        }
+                        handleClientLine(lineBuffer, 0, length);
                     }
-                    handleClientMessage(message);
                 }
             } catch (IOException e) {
-                e.printStackTrace();
+                Log.warn("Client connection failed: " + e);
             } finally {
-                try {
-                    socket.close();
-                } catch (IOException e) {
-                    e.printStackTrace();
+                connection.close();
+                disconnected();
+            }
+        }
+
+        /**
+         * Starts the PING and idle checks for a client connection. Only activity stamps are written
+         * per message; the check re-arms itself on the session timer from the latest stamp.
+         */
+        void startHeartbeat() {
+            sessionTimers.schedule(this::checkLiveness, HEARTBEAT_INTERVAL_MS);
+        }
+
+        private void checkLiveness() {
+            if (retired || sessions.flag(sessionId, SessionTable.DISCONNECTED)) {
+                return;
+            }
+            long idleMs = (System.nanoTime() - sessions.lastActivity(sessionId)) / 1000000;
+            if (idleMs >= IDLE_TIMEOUT_MS) {
+                ServerMetrics.sessionsReaped.increment();
+                Log.info("Closing session" + (username != null ? " of " + username : "") + " after " + idleMs
+                        + " ms without a message");
+                connection.close();
+                disconnected();
+                return;
+            }
+            long nextCheckMs = HEARTBEAT_INTERVAL_MS - idleMs;
+            if (nextCheckMs <= 0) {
+                sendEvent(BinaryProtocol.SERVER_PING, PING_LINE);
+                nextCheckMs = HEARTBEAT_INTERVAL_MS;
+            }
+            sessionTimers.schedule(this::checkLiveness, Math.min(nextCheckMs, IDLE_TIMEOUT_MS - idleMs));
+        }
+
+        /**
+         * Called by the transport once the connection is gone, however it ended. A player in a running
+         * match keeps their place for the resume window; anyone else is logged out right away.
+         */
+        void disconnected() {
+            if (retired || !sessions.setFlagOnce(sessionId, SessionTable.DISCONNECTED)) {
+                return;
+            }
+            String user = username;
+            if (user == null || sessions.flag(sessionId, SessionTable.SUPERSEDED)) {
+                retire();
+                return;
+            }
+            if (RESUME_WINDOW_MS > 0 && inMatch()) {
+                suspendedSessions.put(user, this);
+                sessionTimers.schedule(() -> abandon(user), RESUME_WINDOW_MS);
+                Log.info(user + " dropped out of a match; holding their place for " + RESUME_WINDOW_MS + " ms");
+            } else {
+                removeClientFromWaitingList(this);
+                logoutUser(user, this);
+                retire();
+            }
+        }
+
+        // The resume window ended without a new login
+        private void abandon(String user) {
+            if (!suspendedSessions.remove(user, this)) {
+                return;
+            }
+            if (inMatch()) {
+                exit();
+            }
+            logoutUser(user, this);
+            retire();
+        }
+
+        boolean inMatch() {
+            return match != null || matchHost != null;
+        }
+
+        /**
+         * Takes the place of a dropped session of the same user in its match, if that is still running.
+         */
+        void resume(ClientHandler dropped) {
+            dropped.supersede();
+            dropped.connection.close();
+            dropped.retire();
+            boolean resumed = false;
+            Match droppedMatch = dropped.match;
+            String host = dropped.matchHost;
+            if (droppedMatch != null) {
+                resumed = droppedMatch.replace(dropped, this);
+            } else if (host != null) {
+                // Hosted on another node, which keeps sending to whoever holds this username here
+                dropped.matchHost = null;
+                matchHost = host;
+                sendMessage("Rejoined your match.");
+                resumed = true;
+            }
+            if (resumed) {
+                ServerMetrics.sessionsResumed.increment();
+                Log.info(username + " rejoined their match");
+            }
+        }
+
+        /**
+         * Carries the round in progress over from a dropped session; called by the match under its monitor.
+         */
+        void takeOverRound(ClientHandler dropped) {
+            round = dropped.round;
+            solvedRound = dropped.solvedRound;
+            dropped.match = null;
+        }
+
+        // Reads a text line into lineBuffer straight from the stream, so no bytes are buffered past a
+        // protocol switch; returns its length without the line terminator, or -1 at end of stream
+        private int readLine() throws IOException {
+            if (lineBuffer == null) {
+                lineBuffer = new byte[128];
+            }
+            int length = 0;
+            int b;
+            while ((b = in.read()) != '\n') {
+                if (b < 0) {
+                    return length == 0 ? -1 : length;
                 }
+                if (length == lineBuffer.length) {
+                    lineBuffer = Arrays.copyOf(lineBuffer, length * 2);
+                }
+                lineBuffer[length++] = (byte) b;
             }
+            return length > 0 && lineBuffer[length - 1] == '\r' ? length - 1 : length;
         }
 
-        private void handleClientMessage(String message) {
-            String[] tokens = message.split(" ");
-            String command = tokens[0];
-            switch (command) {
-                case "REGISTER":
-                    if (tokens.length == 3) {
-                        String username = tokens[1];
-                        String password = tokens[2];
-                        registerUser(username, password, this);
-                    } else {
-                        sendMessage("Invalid registration command.");
-                    }
-                    break;
-                case "LOGIN":
-                    if (tokens.length == 3) {
-                        String username = tokens[1];
-                        String password = tokens[2];
-                        authenticateUser(username, password, this);
-                    } else {
-                        sendMessage("Invalid login command.");
-                    }
-                    break;
-                case "LOGOUT":
-                    if (username != null) {
-                        logoutUser(username);
-                        sendMessage("Logout successful. Please login or register.");
-                        username = null;
-                        wordTypedCorrectly = false;
-                    } else {
-                        sendMessage("You are not logged in.");
-                    }
-                    break;
-                case "JOIN":
-                    if (username != null) {
-                        addClientToWaitingList(this);
-                    } else {
-                        sendMessage("You must be logged in to join the game.");
+        boolean isBinary() {
+            return binary();
+        }
+
+        void handleClientMessage(String message) {
+            byte[] line = message.getBytes(StandardCharsets.UTF_8);
+            handleClientLine(line, 0, line.length);
+        }
+
+        /**
+         * Handles one text line, given without its terminator, straight from the transport's buffer.
+         * Commands are matched and answers checked on the raw bytes; only commands with arguments,
+         * which are rare next to typed answers, are decoded into Strings.
+         */
+        void handleClientLine(byte[] line, int offset, int length) {
+            ServerMetrics.messagesIn.increment();
+            long now = System.nanoTime();
+            sessions.touch(sessionId, now);
+            if (!admit(SessionTable.MESSAGE_BUCKET, MESSAGES_PER_SECOND, MESSAGE_BURST, now)
+                    || deferLine(line, offset, length)) {
+                return;
+            }
+            dispatchLine(line, offset, length);
+        }
+
+        private void dispatchLine(byte[] line, int offset, int length) {
+            int end = offset + length;
+            int commandEnd = offset;
+            while (commandEnd < end && line[commandEnd] != ' ') {
+                commandEnd++;
+            }
+            if (isCommand(line, offset, commandEnd, REGISTER_CMD)) {
+                String[] tokens = new String(line, offset, length, StandardCharsets.UTF_8).split(" ");
+                if (tokens.length == 3) {
+                    String username = tokens[1];
+                    String password = tokens[2];
+                    registerUser(username, password, this);
+                } else {
+                    sendMessage("Invalid registration command.");
+                }
+            } else if (isCommand(line, offset, commandEnd, LOGIN_CMD)) {
+                String[] tokens = new String(line, offset, length, StandardCharsets.UTF_8).split(" ");
+                if (tokens.length == 3) {
+                    String username = tokens[1];
+                    String password = tokens[2];
+                    authenticateUser(username, password, this);
+                } else {
+                    sendMessage("Invalid login command.");
+                }
+            } else if (isCommand(line, offset, commandEnd, LOGOUT_CMD)) {
+                logout();
+            } else if (isCommand(line, offset, commandEnd, JOIN_CMD)) {
+                join();
+            } else if (isCommand(line, offset, commandEnd, SCOREBOARD_CMD)) {
+                int page = 0;
+                if (commandEnd < end) {
+                    String[] tokens = new String(line, offset, length, StandardCharsets.UTF_8).split(" ");
+                    if (tokens.length == 2) {
+                        try {
+                            page = Math.max(0, Integer.parseInt(tokens[1]) - 1);
+                        } catch (NumberFormatException e) {
+                            sendMessage("Invalid scoreboard command.");
+                            return;
+                        }
                     }
-                    break;
-                case "SCOREBOARD":
-                    sendScoreboard(this);
-                    break;
-                case "EXIT":
-                    setExitFlag();
-                    resetScore();
-                    sendMessage("Exiting game. Welcome to dashboard.");
-                    break;
-                default:
-                    if (currentWord != null && message.equals(currentWord)) {
-                        long endTime = System.currentTimeMillis();
-                        long timeTaken = endTime - startTime;
-                        int timeTakenInSeconds = (int) (timeTaken / 1000); // Convert milliseconds to whole seconds
-                        wordTypedCorrectly = true;
-                        sendMessage("Correct! Time taken: " + timeTakenInSeconds + " s.");
-                        double score = calculateScore(timeTaken); // Call calculateScore method here
-                        totalScore += score;
-                        sendMessage("Correct! Your score for this word: " + score);
-
-                        currentWord = null;
-                    } else {
-                        sendMessage("Incorrect word. Try again.");
+                }
+                sendScoreboard(this, page);
+            } else if (isCommand(line, offset, commandEnd, EXIT_CMD)) {
+                exit();
+            } else if (isCommand(line, offset, commandEnd, PONG_CMD)) {
+                // Heartbeat reply; receiving it was the point
+            } else if (isCommand(line, offset, commandEnd, PING_CMD)) {
+                sendEvent(BinaryProtocol.SERVER_PONG, PONG_LINE);
+            } else if (isCommand(line, offset, commandEnd, NEGOTIATE_CMD)) {
+                sendMessage(BinaryProtocol.NEGOTIATE_ACK);
+                sessions.setFlag(sessionId, SessionTable.BINARY, true);
+            } else {
+                answer(line, offset, length);
+            }
+        }
+
+        /**
+         * Takes a token for one message, or drops it before it is parsed or answered. Only the first
+         * dropped message of a run is answered, so a flood costs no writes; one that goes on is closed.
+         * Each bucket has its own run, so messages the other bucket admits do not cut a flood short.
+         * Stand-ins are not limited, since their node already admitted everything it forwards.
+         */
+        private boolean admit(int bucket, double perSecond, int burst, long now) {
+            if (ownerNodeId != null || sessions.tryAcquire(sessionId, bucket, perSecond, burst, now)) {
+                sessions.reset(sessionId, SessionTable.THROTTLED_IN_A_ROW + bucket);
+                return true;
+            }
+            ServerMetrics.messagesThrottled.increment();
+            int throttledInARow = sessions.increment(sessionId, SessionTable.THROTTLED_IN_A_ROW + bucket);
+            if (throttledInARow == 1) {
+                sendEvent(BinaryProtocol.THROTTLED, THROTTLED_LINE);
+            } else if (throttledInARow == MAX_THROTTLED) {
+                closeForAbuse("kept flooding after " + MAX_THROTTLED + " dropped messages");
+            }
+            return false;
+        }
+
+        private void closeForAbuse(String reason) {
+            ServerMetrics.abuseDisconnects.increment();
+            Log.warn("Closing connection" + (username != null ? " of " + username : "") + ": " + reason);
+            connection.close();
+        }
+
+        private static boolean isCommand(byte[] line, int from, int to, byte[] command) {
+            return Arrays.equals(line, from, to, command, 0, command.length);
+        }
+
+        private static byte[] ascii(String command) {
+            return command.getBytes(StandardCharsets.US_ASCII);
+        }
+
+        void handleClientFrame(ByteBuffer frame) {
+            ServerMetrics.messagesIn.increment();
+            long now = System.nanoTime();
+            sessions.touch(sessionId, now);
+            if (!admit(SessionTable.MESSAGE_BUCKET, MESSAGES_PER_SECOND, MESSAGE_BURST, now) || deferFrame(frame)) {
+                return;
+            }
+            dispatchFrame(frame);
+        }
+
+        private void dispatchFrame(ByteBuffer frame) {
+            try {
+                int opcode = frame.get() & 0xFF;
+                switch (opcode) {
+                    case BinaryProtocol.REGISTER:
+                        registerUser(BinaryProtocol.getString(frame), BinaryProtocol.getString(frame), this);
+                        break;
+                    case BinaryProtocol.LOGIN:
+                        authenticateUser(BinaryProtocol.getString(frame), BinaryProtocol.getString(frame), this);
+                        break;
+                    case BinaryProtocol.LOGOUT:
+                        logout();
+                        break;
+                    case BinaryProtocol.JOIN:
+                        join();
+                        break;
+                    case BinaryProtocol.SCOREBOARD:
+                        sendScoreboard(this, BinaryProtocol.getUnsignedShort(frame));
+                        break;
+                    case BinaryProtocol.EXIT:
+                        exit();
+                        break;
+                    case BinaryProtocol.ANSWER:
+                        int length = BinaryProtocol.getUnsignedShort(frame);
+                        if (length > frame.remaining()) {
+                            throw new BufferUnderflowException();
+                        }
+                        answer(frame.array(), frame.arrayOffset() + frame.position(), length);
+                        break;
+                    case BinaryProtocol.PONG:
+                        break;
+                    case BinaryProtocol.PING:
+                        connection.sendFrame(BinaryProtocol.event(BinaryProtocol.SERVER_PONG));
+                        break;
+                    default:
+                        sendMessage("Unknown opcode: " + opcode);
+                        break;
+                }
+            } catch (BufferUnderflowException | IndexOutOfBoundsException e) {
+                sendMessage("Malformed frame.");
+            }
+        }
+
+        private boolean deferLine(byte[] line, int offset, int length) {
+            if (deferred == null) {
+                return false;
+            }
+            synchronized (this) {
+                return deferred != null && deferred.add(Arrays.copyOfRange(line, offset, offset + length));
+            }
+        }
+
+        private boolean deferFrame(ByteBuffer frame) {
+            if (deferred == null) {
+                return false;
+            }
+            synchronized (this) {
+                if (deferred == null) {
+                    return false;
+                }
+                byte[] copy = new byte[frame.remaining()];
+                frame.get(copy);
+                return deferred.add(ByteBuffer.wrap(copy));
+            }
+        }
+
+        // Called before a REGISTER or LOGIN of this session goes to the auth executor
+        synchronized void holdMessages() {
+            authenticating = true;
+            if (deferred == null) {
+                deferred = new ArrayDeque<>();
+            }
+        }
+
+        /**
+         * Called once the auth command is done: handles the messages held meanwhile, in order, on
+         * this thread, unless one of them starts another auth command, whose end goes on with the rest.
+         */
+        void releaseMessages() {
+            synchronized (this) {
+                authenticating = false;
+                if (replaying) {
+                    // Rejected while replaying; the replay on this thread goes on
+                    return;
+                }
+                replaying = true;
+            }
+            while (true) {
+                Object message;
+                synchronized (this) {
+                    message = authenticating ? null : deferred.poll();
+                    if (message == null) {
+                        if (!authenticating) {
+                            deferred = null;
+                        }
+                        replaying = false;
+                        return;
                     }
-                    break;
+                }
+                if (message instanceof byte[] line) {
+                    dispatchLine(line, 0, line.length);
+                } else {
+                    dispatchFrame((ByteBuffer) message);
+                }
+            }
+        }
+
+        private void logout() {
+            if (username != null) {
+                leaveGame();
+                logoutUser(username, this);
+                sendEvent(BinaryProtocol.LOGOUT_OK, LOGOUT_OK_LINE);
+                username = null;
+            } else {
+                sendMessage("You are not logged in.");
+            }
+        }
+
+        // Takes the player out of the waiting list, or out of their match wherever it is hosted
+        private void leaveGame() {
+            String host = matchHost;
+            if (host != null) {
+                matchHost = null;
+                cluster.forwardExit(host, username);
+                return;
+            }
+            removeClientFromWaitingList(this);
+            Match current = match;
+            if (current != null) {
+                current.onExit(this);
+            }
+        }
+
+        private void join() {
+            if (draining.get()) {
+                sendMessage("Server is restarting. Please join again in a moment.");
+            } else if (username != null) {
+                // An EXIT sent from the dashboard must not drop the player from the match this joins
+                resetExitFlag();
+                addClientToWaitingList(this);
+            } else {
+                sendMessage("You must be logged in to join the game.");
+            }
+        }
+
+        private void exit() {
+            String host = matchHost;
+            if (host != null) {
+                cluster.forwardExit(host, username);
+                return;
+            }
+            removeClientFromWaitingList(this);
+            // Also read by Match.start, in case a match was being formed with this player
+            setExitFlag();
+            sendEvent(BinaryProtocol.EXITED, EXITED_LINE);
+            Match exitedMatch = match;
+            if (exitedMatch != null) {
+                exitedMatch.onExit(this);
+            }
+        }
+
+        // Checks an answer in its UTF-8 form against the bytes of the current word
+        private void answer(byte[] answer, int offset, int length) {
+            if (!admit(SessionTable.ANSWER_BUCKET, ANSWERS_PER_SECOND, ANSWER_BURST, System.nanoTime())) {
+                return;
+            }
+            String host = matchHost;
+            if (host != null) {
+                // Checked and scored by the stand-in on the hosting node
+                cluster.forwardAnswer(host, username, Arrays.copyOfRange(answer, offset, offset + length));
+                return;
+            }
+            long received = System.nanoTime();
+            Match.Round current = round;
+            if (current != null && Arrays.equals(answer, offset, offset + length,
+                    current.wordBytes, 0, current.wordBytes.length)) {
+                long endTime = System.currentTimeMillis();
+                long timeTaken = endTime - current.startTime;
+                if (timeTaken < MIN_REACTION_MS + MIN_MS_PER_CHAR * current.word.length()) {
+                    // The word went out in plain text, so this was pasted or scripted; the round stays open
+                    rejectTooFast(current, timeTaken);
+                } else {
+                    accept(current, timeTaken);
+                }
+            } else {
+                sendEvent(BinaryProtocol.INCORRECT, INCORRECT_LINE);
+            }
+            ServerMetrics.answerAckMicros.record((System.nanoTime() - received) / 1000);
+        }
+
+        private void accept(Match.Round current, long timeTaken) {
+            round = null;
+            // Marked before it is counted: a match that sees every solve counted sees who made them
+            solvedRound = current;
+            int placement = current.solved.incrementAndGet();
+            Match currentMatch = match;
+            int players = currentMatch != null ? Math.max(placement, currentMatch.playerCount()) : 1;
+            double score = calculateScore(timeTaken, placement, players);
+            setTotalScore(getTotalScore() + score);
+            sendCorrect(timeTaken, score, placement, players);
+
+            if (currentMatch != null) {
+                // Announces the winner, and ends the round now if this was the last player to type it
+                currentMatch.onWordTyped(current, placement, this, timeTaken, score);
+            }
+        }
+
+        private void rejectTooFast(Match.Round current, long timeTaken) {
+            ServerMetrics.answersTooFast.increment();
+            sendEvent(BinaryProtocol.TOO_FAST, TOO_FAST_LINE);
+            int tooFastFlags = sessions.increment(sessionId, SessionTable.TOO_FAST_FLAGS);
+            if (Log.isEnabled(Log.Level.DEBUG)) {
+                Log.debug(username + " typed \"" + current.word + "\" in " + timeTaken + " ms");
+            }
+            if (tooFastFlags == MAX_TOO_FAST_FLAGS) {
+                closeForAbuse(tooFastFlags + " answers faster than a person can type");
+            }
+        }
+
+        private void sendCorrect(long timeTaken, double score, int placement, int players) {
+            if (binary()) {
+                connection.sendFrame(new BinaryProtocol.Writer(BinaryProtocol.CORRECT)
+                        .putInt((int) timeTaken).putDouble(score).putInt(placement).putInt(players).toFrame());
+            } else {
+                int timeTakenInSeconds = (int) (timeTaken / 1000); // Convert milliseconds to whole seconds
+                connection.send("Correct! Time taken: " + timeTakenInSeconds + " s.");
+                if (players > 1) {
+                    connection.send("You placed " + placement + " of " + players + ".");
+                }
+                connection.send("Correct! Your score for this word: " + score);
             }
         }
 
         public void sendMessage(String message) {
-            out.println(message);
+            if (binary()) {
+                connection.sendFrame(BinaryProtocol.text(BinaryProtocol.TEXT, message));
+            } else {
+                connection.send(message);
+            }
+        }
+
+        /**
+         * Sends a message that callers have already encoded for both protocols, e.g. once for a whole group.
+         */
+        void send(String text, byte[] frame) {
+            if (binary()) {
+                connection.sendFrame(frame);
+            } else {
+                connection.send(text);
+            }
+        }
+
+        /**
+         * Same as send(String, byte[]) for a line already encoded with encodeLine.
+         */
+        void send(byte[] line, byte[] frame) {
+            connection.sendFrame(binary() ? frame : line);
+        }
+
+        void sendEvent(int opcode, byte[] line) {
+            send(line, BinaryProtocol.event(opcode));
         }
 
         public void setUsername(String username) {
             this.username = username;
         }
 
-        public void setWord(String word) {
-            this.currentWord = word;
-            this.wordTypedCorrectly = false;
+        public String getUsername() {
+            return username;
+        }
+
+        boolean isRemote() {
+            return ownerNodeId != null;
         }
 
-        public void setStartTime(long startTime) {
-            this.startTime = startTime;
+        /**
+         * Arms the client for a new round, which is shared by the whole group.
+         */
+        void arm(Match.Round round) {
+            this.round = round;
         }
 
-        public boolean isWordTypedCorrectly() {
-            return wordTypedCorrectly;
+        void setMatch(Match match) {
+            this.match = match;
+        }
+
+        void clearMatch(Match finished) {
+            if (match == finished) {
+                match = null;
+                // A player out of the match can no longer answer its round or count towards ending it
+                round = null;
+                solvedRound = null;
+                if (ownerNodeId != null && remotePlayers.remove(username, this)) {
+                    cluster.matchEnded(ownerNodeId, username);
+                    retire();
+                }
+            }
+        }
+
+        void setMatchHost(String nodeId) {
+            this.matchHost = nodeId;
+        }
+
+        /**
+         * Whether this client typed the word of the given round.
+         */
+        boolean hasSolved(Match.Round round) {
+            return round != null && solvedRound == round;
         }
 
         public double getTotalScore() {
-            return totalScore;
+            return sessions.score(sessionId);
+        }
+
+        static double calculateScore(long timeTaken, int placement, int players) {
+            double score = calculateScore(timeTaken);
+            if (players > 1) {
+                score += PLACEMENT_BONUS * (players - placement) / (players - 1);
+            }
+            return score;
         }
 
-        private static double calculateScore(long timeTaken) {
+        static double calculateScore(long timeTaken) {
             // Max marks for the word
             int maxMarks = 3;
 
             // Calculate deducted score
             double deductedScore = (timeTaken / 1000.0) / 10.0; // Convert milliseconds to seconds, then divide by 10
-            System.out.println("Time taken (seconds): " + timeTaken / 1000.0);
-            System.out.println("Deducted score: " + deductedScore);
 
             // Calculate final score
             double score = maxMarks - deductedScore;
-            System.out.println("Score before adjustment: " + score);
 
             // Ensure the score does not go below 0
             score = Math.max(0, score);
-            System.out.println("Final score: " + score);
+            if (Log.isEnabled(Log.Level.DEBUG)) {
+                Log.debug("Time taken (seconds): " + timeTaken / 1000.0 + ", deducted score: " + deductedScore
+                        + ", final score: " + score);
+            }
 
             return (double) score;
         }
 
-        public static synchronized void sendScoreboard(ClientHandler clientHandler) {
-            StringBuilder scoreboard = new StringBuilder("Scoreboard: ");
-            for (Map.Entry<String, ClientHandler> entry : authenticatedUsers.entrySet()) {
-                String username = entry.getKey();
-                ClientHandler handler = entry.getValue();
-                scoreboard.append(username).append(": ").append(handler.getTotalScore()).append("\n");
-            }
-            String formattedScoreboard = scoreboard.toString().trim();
-
-            // Add debug statement to print the formatted scoreboard
-            System.out.println("Sending scoreboard data: " + formattedScoreboard);
+        public static void sendScoreboard(ClientHandler clientHandler, int page) {
+            sendScoreboard(clientHandler, leaderboard, page);
+        }
 
-            clientHandler.sendMessage(formattedScoreboard);
+        static void sendScoreboard(ClientHandler clientHandler, Leaderboard leaderboard, int page) {
+            if (clientHandler.binary()) {
+                clientHandler.connection.sendFrame(leaderboard.pageFrame(page));
+            } else {
+                clientHandler.connection.send(leaderboard.page(page));
+            }
+            if (clientHandler.username != null) {
+                int rank = leaderboard.rankOf(clientHandler.username);
+                if (rank > 0) {
+                    int ranked = leaderboard.size();
+                    if (clientHandler.binary()) {
+                        clientHandler.connection.sendFrame(new BinaryProtocol.Writer(BinaryProtocol.RANK)
+                                .putInt(rank).putInt(ranked).toFrame());
+                    } else {
+                        clientHandler.connection.send("Your rank: " + rank + " of " + ranked);
+                    }
+                }
+            }
         }
     }
 }
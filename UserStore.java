@@ -0,0 +1,412 @@
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.security.*;
+import java.security.spec.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.UnaryOperator;
+import java.util.zip.CRC32;
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.PBEKeySpec;
+
+/**
+ * Crash-safe account and score store. Lookups are served from memory. Every change is also
+ * appended to a write-ahead log by a single writer thread, which group-commits whatever is queued
+ * with one fsync. Every snapshotEvery records the writer compacts the log into a snapshot, written
+ * to a temporary file and atomically renamed into place. On startup the snapshot and then the log
+ * are replayed through read-only memory maps. A torn record at the end of the log, detected by its
+ * CRC, marks where replay stops and the log is truncated. A batch whose write fails is cut off the
+ * log right away, so later batches never land behind a tear that replay would stop at. The rename of
+ * a snapshot is made durable, with an fsync of the directory, before the log it replaces is emptied.
+ *
+ * Passwords are kept only as salted PBKDF2 hashes.
+ */
+class UserStore {
+    private static final String SNAPSHOT_FILE = "users.snapshot";
+    private static final String LOG_FILE = "users.log";
+    private static final int SNAPSHOT_MAGIC = 0x54465331; // "TFS1"
+    private static final byte USER_RECORD = 1;  // username, iterations, salt, hash, score
+    private static final byte SCORE_RECORD = 2; // username, score
+    private static final int SALT_BYTES = 16;
+    private static final int HASH_BITS = 256;
+
+    private final Path directory;
+    private final UnaryOperator<FileChannel> logChannel;
+    private final int iterations;
+    private final long snapshotEvery;
+    private final SecureRandom random = new SecureRandom();
+    private final ConcurrentMap<String, Account> accounts = new ConcurrentHashMap<>();
+    private final BlockingQueue<PendingRecord> pending = new LinkedBlockingQueue<>();
+    // Set by close under pending's lock, so no record is queued behind the writer's last batch
+    private boolean closed;
+    private FileChannel log;
+    private long recordsSinceSnapshot;
+
+    private UserStore(Path directory, UnaryOperator<FileChannel> logChannel, int iterations, long snapshotEvery) {
+        this.directory = directory;
+        this.logChannel = logChannel;
+        this.iterations = iterations;
+        this.snapshotEvery = snapshotEvery;
+    }
+
+    /**
+     * Recovers the store from the directory, creating it if needed, and starts the log writer.
+     */
+    static UserStore open(Path directory, int iterations, long snapshotEvery) throws IOException {
+        return open(directory, iterations, snapshotEvery, UnaryOperator.identity());
+    }
+
+    /**
+     * Same as open(directory, iterations, snapshotEvery), with the log's channel passed through
+     * logChannel first, e.g. so a test can make its writes fail.
+     */
+    static UserStore open(Path directory, int iterations, long snapshotEvery, UnaryOperator<FileChannel> logChannel)
+            throws IOException {
+        Files.createDirectories(directory);
+        UserStore store = new UserStore(directory, logChannel, iterations, snapshotEvery);
+        store.recover();
+        Thread writer = new Thread(store::writeLoop, "typefast-user-store");
+        writer.setDaemon(true);
+        writer.start();
+        return store;
+    }
+
+    int size() {
+        return accounts.size();
+    }
+
+    /**
+     * Creates the account and waits until it is durable; returns false if the name is taken.
+     */
+    boolean register(String username, String password) {
+        if (accounts.containsKey(username)) {
+            return false;
+        }
+        byte[] salt = new byte[SALT_BYTES];
+        random.nextBytes(salt);
+        Account account = new Account(username, iterations, salt, hash(password, salt, iterations));
+        if (accounts.putIfAbsent(username, account) != null) {
+            return false;
+        }
+        PendingRecord record = new PendingRecord(encodeUser(username, account), true);
+        if (!offer(record)) {
+            accounts.remove(username, account);
+            throw new IllegalStateException("The user store is closed");
+        }
+        try {
+            record.durable.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            // The account stays usable in memory; it will be written with the next snapshot
+            Log.error("Could not log new account " + username, e.getCause());
+        }
+        return true;
+    }
+
+    boolean authenticate(String username, String password) {
+        Account account = accounts.get(username);
+        if (account == null) {
+            return false;
+        }
+        return MessageDigest.isEqual(account.hash, hash(password, account.salt, account.iterations));
+    }
+
+    /**
+     * The store's own instance of a known username, so sessions, the leaderboard and the login map
+     * can share it instead of each keeping the copy parsed from a message; null if there is no account.
+     */
+    String canonicalName(String username) {
+        Account account = accounts.get(username);
+        return account == null ? null : account.username;
+    }
+
+    double score(String username) {
+        Account account = accounts.get(username);
+        return account == null ? 0 : account.score;
+    }
+
+    /**
+     * Records the player's new total; written with the next group commit without waiting for it.
+     */
+    void updateScore(String username, double score) {
+        Account account = accounts.get(username);
+        if (account == null || account.score == score) {
+            return;
+        }
+        account.score = score;
+        offer(new PendingRecord(encodeScore(username, score), false));
+    }
+
+    /**
+     * Waits until everything queued so far is durable, then stops the writer without compacting,
+     * so another process can open the directory. Later scores stay in memory only, and registering
+     * fails with an IllegalStateException rather than waiting for a writer that is gone.
+     */
+    void close() throws IOException {
+        PendingRecord last = new PendingRecord(null, true);
+        synchronized (pending) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            pending.add(last);
+        }
+        try {
+            last.durable.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            throw new IOException("Could not flush the user store", e.getCause());
+        }
+    }
+
+    // Queues a record for the writer; false once the store is closed
+    private boolean offer(PendingRecord record) {
+        synchronized (pending) {
+            if (closed) {
+                return false;
+            }
+            pending.add(record);
+            return true;
+        }
+    }
+
+    private static byte[] hash(String password, byte[] salt, int iterations) {
+        try {
+            PBEKeySpec spec = new PBEKeySpec(password.toCharArray(), salt, iterations, HASH_BITS);
+            return SecretKeyFactory.getInstance("PBKDF2WithHmacSHA256").generateSecret(spec).getEncoded();
+        } catch (NoSuchAlgorithmException | InvalidKeySpecException e) {
+            throw new IllegalStateException("PBKDF2WithHmacSHA256 is not available", e);
+        }
+    }
+
+    private void writeLoop() {
+        List<PendingRecord> batch = new ArrayList<>();
+        while (true) {
+            try {
+                batch.add(pending.take());
+                pending.drainTo(batch);
+                IOException failure = null;
+                boolean closing = false;
+                long start = log.position();
+                try {
+                    for (PendingRecord record : batch) {
+                        if (record.body == null) {
+                            closing = true;
+                            continue;
+                        }
+                        writeFully(log, frame(record.body));
+                    }
+                    log.force(false);
+                    recordsSinceSnapshot += batch.size();
+                } catch (IOException e) {
+                    failure = e;
+                    // Nothing of the batch was acknowledged; its torn bytes would hide every later batch from replay
+                    try {
+                        log.truncate(start);
+                        log.position(start);
+                    } catch (IOException truncateFailure) {
+                        e.addSuppressed(truncateFailure);
+                    }
+                }
+                for (PendingRecord record : batch) {
+                    if (record.durable == null) {
+                        continue;
+                    }
+                    if (failure == null) {
+                        record.durable.complete(null);
+                    } else {
+                        record.durable.completeExceptionally(failure);
+                    }
+                }
+                batch.clear();
+                if (closing) {
+                    log.close();
+                    return;
+                }
+                if (recordsSinceSnapshot >= snapshotEvery) {
+                    snapshot();
+                }
+            } catch (InterruptedException e) {
+                return;
+            } catch (IOException e) {
+                Log.error("User store write failed", e);
+            }
+        }
+    }
+
+    /**
+     * Writes every account to a new snapshot and starts an empty log. Runs on the writer thread, so
+     * every logged record is already reflected in the map; records queued meanwhile are replayed on
+     * top of the snapshot, which is harmless because every record sets an absolute value.
+     */
+    private void snapshot() throws IOException {
+        Path temp = directory.resolve(SNAPSHOT_FILE + ".tmp");
+        try (FileChannel out = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+             OutputStream stream = new BufferedOutputStream(Channels.newOutputStream(out), 1 << 16)) {
+            ByteBuffer header = ByteBuffer.allocate(4).putInt(SNAPSHOT_MAGIC);
+            stream.write(header.array());
+            for (Map.Entry<String, Account> entry : accounts.entrySet()) {
+                ByteBuffer record = frame(encodeUser(entry.getKey(), entry.getValue()));
+                stream.write(record.array(), 0, record.limit());
+            }
+            stream.flush();
+            out.force(true);
+        }
+        Files.move(temp, directory.resolve(SNAPSHOT_FILE), StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+        // Until the rename is on disk a crash would bring back the old snapshot, which needs the log
+        syncDirectory(directory);
+        log.truncate(0);
+        log.force(true);
+        recordsSinceSnapshot = 0;
+    }
+
+    private void recover() throws IOException {
+        Path snapshotPath = directory.resolve(SNAPSHOT_FILE);
+        if (Files.exists(snapshotPath)) {
+            try (FileChannel channel = FileChannel.open(snapshotPath, StandardOpenOption.READ)) {
+                MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+                if (buffer.remaining() < 4 || buffer.getInt() != SNAPSHOT_MAGIC) {
+                    throw new IOException("Not a Typefast user snapshot: " + snapshotPath);
+                }
+                replay(buffer);
+            }
+        }
+        recordsSinceSnapshot = 0;
+        log = logChannel.apply(FileChannel.open(directory.resolve(LOG_FILE), StandardOpenOption.CREATE,
+                StandardOpenOption.READ, StandardOpenOption.WRITE));
+        long size = log.size();
+        if (size > 0) {
+            MappedByteBuffer buffer = log.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            long valid = replay(buffer);
+            if (valid < size) {
+                // Drop the record that was being written when the process died
+                log.truncate(valid);
+            }
+        }
+        log.position(log.size());
+    }
+
+    // Applies framed records until the end or the first incomplete or corrupt one; returns its offset
+    private long replay(ByteBuffer buffer) {
+        CRC32 crc = new CRC32();
+        while (buffer.remaining() >= 8) {
+            int start = buffer.position();
+            int length = buffer.getInt();
+            int checksum = buffer.getInt();
+            if (length <= 0 || length > buffer.remaining()) {
+                return start;
+            }
+            ByteBuffer body = buffer.slice();
+            body.limit(length);
+            crc.reset();
+            crc.update(body.duplicate());
+            if ((int) crc.getValue() != checksum) {
+                return start;
+            }
+            apply(body);
+            recordsSinceSnapshot++;
+            buffer.position(buffer.position() + length);
+        }
+        return buffer.position();
+    }
+
+    private void apply(ByteBuffer body) {
+        byte type = body.get();
+        String username = readString(body);
+        if (type == USER_RECORD) {
+            int recordIterations = body.getInt();
+            byte[] salt = new byte[body.get() & 0xFF];
+            body.get(salt);
+            byte[] hash = new byte[body.get() & 0xFF];
+            body.get(hash);
+            Account account = new Account(username, recordIterations, salt, hash);
+            account.score = body.getDouble();
+            accounts.put(username, account);
+        } else if (type == SCORE_RECORD) {
+            Account account = accounts.get(username);
+            if (account != null) {
+                account.score = body.getDouble();
+            }
+        }
+    }
+
+    private static byte[] encodeUser(String username, Account account) {
+        byte[] name = username.getBytes(StandardCharsets.UTF_8);
+        ByteBuffer body = ByteBuffer.allocate(1 + 2 + name.length + 4 + 1 + account.salt.length + 1
+                + account.hash.length + 8);
+        body.put(USER_RECORD).putShort((short) name.length).put(name).putInt(account.iterations);
+        body.put((byte) account.salt.length).put(account.salt);
+        body.put((byte) account.hash.length).put(account.hash);
+        body.putDouble(account.score);
+        return body.array();
+    }
+
+    private static byte[] encodeScore(String username, double score) {
+        byte[] name = username.getBytes(StandardCharsets.UTF_8);
+        ByteBuffer body = ByteBuffer.allocate(1 + 2 + name.length + 8);
+        body.put(SCORE_RECORD).putShort((short) name.length).put(name).putDouble(score);
+        return body.array();
+    }
+
+    // [i32 body length][i32 CRC32 of body][body]
+    private static ByteBuffer frame(byte[] body) {
+        CRC32 crc = new CRC32();
+        crc.update(body);
+        ByteBuffer framed = ByteBuffer.allocate(8 + body.length);
+        framed.putInt(body.length).putInt((int) crc.getValue()).put(body);
+        framed.flip();
+        return framed;
+    }
+
+    private static String readString(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.getShort() & 0xFFFF];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    static void syncDirectory(Path directory) throws IOException {
+        try (FileChannel channel = FileChannel.open(directory, StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (AccessDeniedException e) {
+            // Windows cannot open a directory; NTFS journals the rename itself
+        }
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    private static final class Account {
+        final String username;
+        final int iterations;
+        final byte[] salt;
+        final byte[] hash;
+        volatile double score;
+
+        Account(String username, int iterations, byte[] salt, byte[] hash) {
+            this.username = username;
+            this.iterations = iterations;
+            this.salt = salt;
+            this.hash = hash;
+        }
+    }
+
+    private static final class PendingRecord {
+        final byte[] body;
+        final CompletableFuture<Void> durable;
+
+        PendingRecord(byte[] body, boolean awaited) {
+            this.body = body;
+            this.durable = awaited ? new CompletableFuture<>() : null;
+        }
+    }
+}
@@ -0,0 +1,80 @@
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+import java.util.function.*;
+
+/**
+ * Coalesces waiting-room size updates. A JOIN only marks the size as changed; a periodic task on
+ * a scheduler of its own sends the latest size to every waiting client at most once per interval,
+ * so a burst of N joins costs one frame per client instead of N, no socket write happens on the
+ * joining thread, and a long fan-out never delays the game scheduler's round timers. Each broadcast
+ * encodes its text line and binary frame once and hands the same bytes to every client.
+ *
+ * The count and the clients it goes to are looked up on each broadcast: on its own a node counts
+ * its matchmaker, while in a cluster it sends the hub's count of every node's waiting players to
+ * the ones waiting here.
+ */
+class WaitingRoomBroadcaster {
+    private final IntSupplier waitingCount;
+    private final Supplier<Iterable<TypefastServer.ClientHandler>> waitingClients;
+    private final ScheduledExecutorService scheduler;
+    private final long intervalMs;
+    private final AtomicBoolean dirty = new AtomicBoolean();
+    private final LongAdder updatesRequested = new LongAdder();
+    private final LongAdder broadcasts = new LongAdder();
+    private final LongAdder framesSent = new LongAdder();
+
+    WaitingRoomBroadcaster(IntSupplier waitingCount, Supplier<Iterable<TypefastServer.ClientHandler>> waitingClients,
+                           ScheduledExecutorService scheduler, long intervalMs) {
+        this.waitingCount = waitingCount;
+        this.waitingClients = waitingClients;
+        this.scheduler = scheduler;
+        this.intervalMs = intervalMs;
+    }
+
+    void start() {
+        scheduler.scheduleAtFixedRate(() -> {
+            try {
+                flush();
+            } catch (RuntimeException e) {
+                // An exception would cancel the periodic task for good
+                Log.error("Waiting room broadcast failed", e);
+            }
+        }, intervalMs, intervalMs, TimeUnit.MILLISECONDS);
+    }
+
+    void requestUpdate() {
+        updatesRequested.increment();
+        dirty.set(true);
+    }
+
+    private void flush() {
+        if (!dirty.getAndSet(false)) {
+            return;
+        }
+        broadcasts.increment();
+        int size = waitingCount.getAsInt();
+        byte[] line = TypefastServer.encodeLine("Players in waiting list: " + size);
+        byte[] frame = new BinaryProtocol.Writer(BinaryProtocol.WAITING).putInt(size).toFrame();
+        int sent = 0;
+        for (TypefastServer.ClientHandler client : waitingClients.get()) {
+            client.send(line, frame);
+            sent++;
+        }
+        framesSent.add(sent);
+    }
+
+    long getUpdatesRequested() {
+        return updatesRequested.sum();
+    }
+
+    /**
+     * Update requests that were folded into an already pending broadcast.
+     */
+    long getUpdatesCoalesced() {
+        return updatesRequested.sum() - broadcasts.sum();
+    }
+
+    long getFramesSent() {
+        return framesSent.sum();
+    }
+}
@@ -0,0 +1,145 @@
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * The dictionaries the server draws words from, one per language. Each plain-text word list is
+ * packed next to itself as a .tfd file named after the list's modification time, which is rebuilt
+ * only when the list is newer, and then memory-mapped. A periodic check picks up edited word lists
+ * and swaps the new dictionary in with a single volatile write. Running games keep drawing words and
+ * are never paused, and words already sent stay valid because they are plain Strings.
+ *
+ * A rebuild never overwrites the file the running dictionary has mapped, which Windows refuses.
+ * The replaced file is deleted once it is no longer mapped. Until then, each check tries again.
+ */
+class WordLibrary {
+    private final Map<String, Path> sources;
+    private final double[] difficultyWeights;
+    private final ConcurrentMap<String, Dictionary> dictionaries = new ConcurrentHashMap<>();
+    // Packed files no longer in use, deleted once nothing maps them
+    private final Set<Path> retired = ConcurrentHashMap.newKeySet();
+
+    /**
+     * @param sources word list per language code, e.g. "en" to words.txt
+     */
+    WordLibrary(Map<String, Path> sources, double[] difficultyWeights) {
+        this.sources = sources;
+        this.difficultyWeights = difficultyWeights;
+    }
+
+    /**
+     * Parses "en:words.txt,de:woerter.txt"; an entry without a language code is the given default language.
+     */
+    static Map<String, Path> parseSources(String spec, String defaultLanguage) {
+        Map<String, Path> sources = new LinkedHashMap<>();
+        for (String entry : spec.split(",")) {
+            int colon = entry.indexOf(':');
+            if (colon > 0) {
+                sources.put(entry.substring(0, colon).trim(), Paths.get(entry.substring(colon + 1).trim()));
+            } else if (!entry.trim().isEmpty()) {
+                sources.put(defaultLanguage, Paths.get(entry.trim()));
+            }
+        }
+        return sources;
+    }
+
+    void loadAll() {
+        for (Map.Entry<String, Path> source : sources.entrySet()) {
+            try {
+                Dictionary dictionary = load(source.getValue());
+                dictionaries.put(source.getKey(), dictionary);
+                retireOthers(source.getValue(), dictionary);
+                Log.info("Loaded " + dictionary.size() + " " + source.getKey() + " words from " + source.getValue());
+            } catch (IOException e) {
+                Log.error("Error loading words from file: " + source.getValue(), e);
+            }
+        }
+    }
+
+    /**
+     * Checks every word list at the given period and swaps in rebuilt dictionaries.
+     */
+    void startReloading(ScheduledExecutorService scheduler, long periodSeconds) {
+        scheduler.scheduleWithFixedDelay(this::reloadChanged, periodSeconds, periodSeconds, TimeUnit.SECONDS);
+    }
+
+    String nextWord(String language) {
+        Dictionary dictionary = dictionaries.get(language);
+        if (dictionary == null || dictionary.size() == 0) {
+            throw new IllegalStateException("No words loaded for language " + language);
+        }
+        return dictionary.word(dictionary.pick());
+    }
+
+    Dictionary dictionary(String language) {
+        return dictionaries.get(language);
+    }
+
+    void reloadChanged() {
+        for (Map.Entry<String, Path> source : sources.entrySet()) {
+            try {
+                Dictionary current = dictionaries.get(source.getKey());
+                long modified = Files.getLastModifiedTime(source.getValue()).toMillis();
+                if (current == null || current.sourceModified() != modified) {
+                    Dictionary reloaded = load(source.getValue());
+                    dictionaries.put(source.getKey(), reloaded);
+                    retireOthers(source.getValue(), reloaded);
+                    Log.info("Reloaded " + reloaded.size() + " " + source.getKey() + " words from " + source.getValue());
+                }
+            } catch (IOException | RuntimeException e) {
+                // Keep serving the previous dictionary
+                Log.error("Error reloading words from file: " + source.getValue(), e);
+            }
+        }
+        deleteRetired();
+    }
+
+    private Dictionary load(Path source) throws IOException {
+        long modified = Files.getLastModifiedTime(source).toMillis();
+        Path packed = packedFile(source, modified);
+        if (Files.exists(packed)) {
+            try {
+                Dictionary existing = Dictionary.open(packed, difficultyWeights);
+                if (existing.sourceModified() == modified) {
+                    return existing;
+                }
+            } catch (IOException e) {
+                Log.error("Rebuilding unreadable packed dictionary: " + packed, e);
+            }
+        }
+        Dictionary.build(source, packed);
+        return Dictionary.open(packed, difficultyWeights);
+    }
+
+    static Path packedFile(Path source, long sourceModified) {
+        return source.resolveSibling(source.getFileName() + "." + sourceModified + ".tfd");
+    }
+
+    /**
+     * Marks every packed file of source other than the one dictionary maps for deletion.
+     */
+    private void retireOthers(Path source, Dictionary dictionary) throws IOException {
+        Path current = packedFile(source, dictionary.sourceModified());
+        Path directory = source.toAbsolutePath().getParent();
+        try (DirectoryStream<Path> packed = Files.newDirectoryStream(directory, source.getFileName() + "{.tfd,.*.tfd}")) {
+            for (Path file : packed) {
+                if (!file.getFileName().equals(current.getFileName())) {
+                    retired.add(file);
+                }
+            }
+        }
+        deleteRetired();
+    }
+
+    private void deleteRetired() {
+        for (Path file : retired) {
+            try {
+                Files.deleteIfExists(file);
+                retired.remove(file);
+            } catch (IOException e) {
+                // Still mapped by a dictionary not yet collected; try again on the next check
+            }
+        }
+    }
+}
@@ -0,0 +1,142 @@
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.atomic.LongAdder;
+import typefast.bench.ServerBridge;
+
+/**
+ * Gives the benchmarks in typefast.bench access to the package-private server classes; see ServerBridge.
+ */
+public class BenchmarkBridge implements ServerBridge {
+    public Client newClient(String username) {
+        SinkConnection connection = new SinkConnection();
+        TypefastServer.ClientHandler handler = new TypefastServer.ClientHandler(connection);
+        if (username != null) {
+            handler.setUsername(username);
+        }
+        return new BridgedClient(handler, connection);
+    }
+
+    public double calculateScore(long timeTakenMs) {
+        return TypefastServer.ClientHandler.calculateScore(timeTakenMs);
+    }
+
+    public long messagesThrottled() {
+        return ServerMetrics.messagesThrottled.sum();
+    }
+
+    public Scoreboard newScoreboard(int users, int pageSize, long seed) {
+        Leaderboard leaderboard = new Leaderboard(pageSize);
+        String[] usernames = new String[users];
+        Random random = new Random(seed);
+        for (int i = 0; i < users; i++) {
+            usernames[i] = "player" + i;
+            leaderboard.update(usernames[i], random.nextInt(1000000) / 100.0);
+        }
+        return new Scoreboard() {
+            public String username(int index) {
+                return usernames[index];
+            }
+
+            public void update(String username, double score) {
+                leaderboard.update(username, score);
+            }
+
+            public void send(Client client, int page) {
+                TypefastServer.ClientHandler.sendScoreboard(((BridgedClient) client).handler, leaderboard, page);
+            }
+        };
+    }
+
+    public WaitingList newWaitingList(String matchmaking, int groupSize, int shards) {
+        Matchmaker<TypefastServer.ClientHandler> matchmaker = "skill".equals(matchmaking)
+                ? Matchmaker.skillBucketed(groupSize, shards, 15)
+                : Matchmaker.shared(groupSize, shards);
+        LongAdder groups = new LongAdder();
+        return new WaitingList() {
+            public void add(Client client) {
+                TypefastServer.addClientToWaitingList(((BridgedClient) client).handler, matchmaker,
+                        group -> groups.increment());
+            }
+
+            public long groupsStarted() {
+                return groups.sum();
+            }
+        };
+    }
+
+    public WordSource newWordSource(Path wordList, String language) throws IOException {
+        double[] weights = new double[Dictionary.MAX_DIFFICULTY];
+        Arrays.fill(weights, 1);
+        WordLibrary library = new WordLibrary(Map.of(language, wordList), weights);
+        library.loadAll();
+        if (library.dictionary(language) == null) {
+            throw new IOException("Could not load " + wordList);
+        }
+        return () -> library.nextWord(language);
+    }
+
+    public Accounts openAccounts(Path directory, int pbkdf2Iterations) throws IOException {
+        UserStore store = UserStore.open(directory, pbkdf2Iterations, 100000);
+        return new Accounts() {
+            public boolean register(String username, String password) {
+                return store.register(username, password);
+            }
+
+            public boolean authenticate(String username, String password) {
+                return store.authenticate(username, password);
+            }
+
+            public void close() throws IOException {
+                store.close();
+            }
+        };
+    }
+
+    private static final class BridgedClient implements Client {
+        final TypefastServer.ClientHandler handler;
+        final SinkConnection connection;
+
+        BridgedClient(TypefastServer.ClientHandler handler, SinkConnection connection) {
+            this.handler = handler;
+            this.connection = connection;
+        }
+
+        public void setWord(String word) {
+            handler.arm(new Match.Round(1, word, System.currentTimeMillis()));
+        }
+
+        public void setTotalScore(double totalScore) {
+            handler.setTotalScore(totalScore);
+        }
+
+        public void handleLine(byte[] line, int offset, int length) {
+            handler.handleClientLine(line, offset, length);
+        }
+
+        public void handleMessage(String message) {
+            handler.handleClientMessage(message);
+        }
+
+        public long bytesSent() {
+            return connection.bytesSent;
+        }
+    }
+
+    // Pays for encoding like the real connections do, but queues and writes nothing
+    private static final class SinkConnection implements TypefastServer.Connection {
+        long bytesSent;
+
+        public void send(String message) {
+            bytesSent += TypefastServer.encodeLine(message).length;
+        }
+
+        public void sendFrame(byte[] frame) {
+            bytesSent += frame.length;
+        }
+
+        public void close() {
+        }
+    }
+}
@@ -0,0 +1,72 @@
+package typefast.bench;
+
+import java.io.IOException;
+import java.nio.file.*;
+import java.util.Comparator;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Registrations and logins per second against the user store, with several threads at once, as after
+ * a deploy when every player logs in again. One iteration isolates the store's own locking and group
+ * commit; the server's default iteration count shows what the password hash adds.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(4)
+@State(Scope.Benchmark)
+public class AuthBenchmark {
+    private static final int USERS = 1024;
+    private static final String PASSWORD = "secret";
+
+    @Param({"1", "10000"})
+    public int pbkdf2Iterations;
+
+    private Path directory;
+    private ServerBridge.Accounts accounts;
+    private final AtomicLong registered = new AtomicLong();
+
+    @State(Scope.Thread)
+    public static class Logins {
+        int next;
+
+        String nextUser() {
+            next = (next + 1) % USERS;
+            return "player" + next;
+        }
+    }
+
+    @Setup
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("typefast-auth-bench");
+        accounts = ServerBridge.load().openAccounts(directory, pbkdf2Iterations);
+        for (int i = 0; i < USERS; i++) {
+            accounts.register("player" + i, PASSWORD);
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        accounts.close();
+        try (Stream<Path> files = Files.walk(directory)) {
+            for (Path file : (Iterable<Path>) files.sorted(Comparator.reverseOrder())::iterator) {
+                Files.delete(file);
+            }
+        }
+    }
+
+    @Benchmark
+    public boolean register() {
+        return accounts.register("new" + registered.incrementAndGet(), PASSWORD);
+    }
+
+    @Benchmark
+    public boolean login(Logins logins) {
+        return accounts.authenticate(logins.nextUser(), PASSWORD);
+    }
+}
@@ -0,0 +1,58 @@
+package typefast.bench;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * One inbound line through ClientHandler dispatch, for a client in the middle of a round. Run with
+ * -prof gc to see allocations per message; the byte path should stay close to zero.
+ *
+ * One thread sends far more messages than the per-connection rate limits let through, so the fork
+ * raises them out of reach; otherwise nearly every call would measure the throttled drop instead.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = {
+        "-Dtypefast.limit.messagesPerSecond=1e12", "-Dtypefast.limit.messageBurst=1000000000",
+        "-Dtypefast.limit.answersPerSecond=1e12", "-Dtypefast.limit.answerBurst=1000000000"})
+@State(Scope.Thread)
+public class DispatchBenchmark {
+    private static final byte[] WRONG_ANSWER = "bananb".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] JOIN = "JOIN".getBytes(StandardCharsets.UTF_8);
+
+    private ServerBridge server;
+    private ServerBridge.Client client;
+
+    @Setup
+    public void setUp() {
+        server = ServerBridge.load();
+        client = server.newClient(null);
+        client.setWord("banana");
+    }
+
+    @TearDown(Level.Iteration)
+    public void checkNothingThrottled() {
+        if (server.messagesThrottled() > 0) {
+            throw new IllegalStateException(server.messagesThrottled()
+                    + " messages were throttled, so the run measured the rate limits instead of dispatch");
+        }
+    }
+
+    @Benchmark
+    public void incorrectAnswer() {
+        client.handleLine(WRONG_ANSWER, 0, WRONG_ANSWER.length);
+    }
+
+    @Benchmark
+    public void incorrectAnswerFromString() {
+        client.handleMessage("bananb");
+    }
+
+    @Benchmark
+    public void joinWhileLoggedOut() {
+        client.handleLine(JOIN, 0, JOIN.length);
+    }
+}
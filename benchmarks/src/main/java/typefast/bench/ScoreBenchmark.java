@@ -0,0 +1,39 @@
+package typefast.bench;
+
+import java.io.*;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * ClientHandler.calculateScore for answer times spread over a round.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ScoreBenchmark {
+    private ServerBridge server;
+    private PrintStream stdout;
+    private long timeTaken;
+
+    @Setup
+    public void setUp() {
+        server = ServerBridge.load();
+        // Whatever calculateScore prints is still formatted and written, just not shown
+        stdout = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+    }
+
+    @TearDown
+    public void tearDown() {
+        System.setOut(stdout);
+    }
+
+    @Benchmark
+    public double calculateScore() {
+        timeTaken = (timeTaken + 37) % 30000;
+        return server.calculateScore(timeTaken);
+    }
+}
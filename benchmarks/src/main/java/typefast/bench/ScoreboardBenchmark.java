@@ -0,0 +1,57 @@
+package typefast.bench;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * sendScoreboard for a logged-in player, who also gets their rank, on leaderboards of 10k to 1M users.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+@State(Scope.Benchmark)
+public class ScoreboardBenchmark {
+    private static final int PAGE_SIZE = 20;
+
+    @Param({"10000", "100000", "1000000"})
+    public int users;
+
+    @Param({"text", "binary"})
+    public String protocol;
+
+    private ServerBridge.Scoreboard scoreboard;
+    private ServerBridge.Client client;
+    private int middlePage;
+
+    @Setup
+    public void setUp() {
+        ServerBridge server = ServerBridge.load();
+        scoreboard = server.newScoreboard(users, PAGE_SIZE, 42);
+        client = server.newClient(scoreboard.username(users / 2));
+        if ("binary".equals(protocol)) {
+            client.handleMessage("BINARY");
+        }
+        middlePage = users / PAGE_SIZE / 2;
+    }
+
+    @Benchmark
+    public void topPage() {
+        scoreboard.send(client, 0);
+    }
+
+    @Benchmark
+    public void middlePage() {
+        scoreboard.send(client, middlePage);
+    }
+
+    // A score change invalidates the cached top page, as it does between games
+    @Benchmark
+    public void topPageAfterScoreUpdate() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        scoreboard.update(scoreboard.username(random.nextInt(users)), random.nextInt(1000000) / 100.0);
+        scoreboard.send(client, 0);
+    }
+}
@@ -0,0 +1,87 @@
+package typefast.bench;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Path;
+
+/**
+ * The server operations the benchmarks drive. The server is written in the unnamed package, which
+ * code in a named package cannot refer to, while JMH only accepts benchmarks in a named package. So
+ * BenchmarkBridge, in the unnamed package, implements this interface and is looked up by name once
+ * per trial; the measured calls are then plain interface calls.
+ */
+public interface ServerBridge {
+    static ServerBridge load() {
+        try {
+            return (ServerBridge) Class.forName("BenchmarkBridge").getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("BenchmarkBridge is not on the classpath", e);
+        }
+    }
+
+    /**
+     * A client whose connection encodes what it is sent the way a real one does, then discards it.
+     * A null username leaves it logged out.
+     */
+    Client newClient(String username);
+
+    double calculateScore(long timeTakenMs);
+
+    /**
+     * Messages the per-connection rate limits have dropped so far in this JVM, from every client.
+     */
+    long messagesThrottled();
+
+    /**
+     * A leaderboard holding users players named username(0) to username(users - 1) with random scores.
+     */
+    Scoreboard newScoreboard(int users, int pageSize, long seed);
+
+    /**
+     * A waiting list using the given typefast.matchmaking mode; formed groups are counted, not played.
+     */
+    WaitingList newWaitingList(String matchmaking, int groupSize, int shards);
+
+    WordSource newWordSource(Path wordList, String language) throws IOException;
+
+    /**
+     * The user store kept in directory, hashing passwords with the given number of PBKDF2 iterations.
+     */
+    Accounts openAccounts(Path directory, int pbkdf2Iterations) throws IOException;
+
+    interface Client {
+        void setWord(String word);
+
+        void setTotalScore(double totalScore);
+
+        void handleLine(byte[] line, int offset, int length);
+
+        void handleMessage(String message);
+
+        long bytesSent();
+    }
+
+    interface Scoreboard {
+        String username(int index);
+
+        void update(String username, double score);
+
+        void send(Client client, int page);
+    }
+
+    interface WaitingList {
+        void add(Client client);
+
+        long groupsStarted();
+    }
+
+    interface WordSource {
+        String nextWord();
+    }
+
+    interface Accounts extends Closeable {
+        boolean register(String username, String password);
+
+        boolean authenticate(String username, String password);
+    }
+}
@@ -0,0 +1,58 @@
+package typefast.bench;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * addClientToWaitingList with several threads joining at once, as when many players press JOIN
+ * together. Formed groups are counted instead of started, so only queueing and grouping are measured.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(4)
+@State(Scope.Benchmark)
+public class WaitingListBenchmark {
+    private static final int GROUP_SIZE = 4;
+    private static final int SHARDS = 4;
+    private static final int CLIENTS_PER_THREAD = 64;
+
+    @Param({"default", "skill"})
+    public String matchmaking;
+
+    private ServerBridge.WaitingList waitingList;
+
+    @State(Scope.Thread)
+    public static class Players {
+        ServerBridge.Client[] clients;
+        int next;
+
+        @Setup
+        public void setUp() {
+            ServerBridge server = ServerBridge.load();
+            clients = new ServerBridge.Client[CLIENTS_PER_THREAD];
+            for (int i = 0; i < clients.length; i++) {
+                clients[i] = server.newClient(null);
+                // Spread players over several skill buckets
+                clients[i].setTotalScore(i % 8 * 15);
+            }
+        }
+
+        ServerBridge.Client next() {
+            next = (next + 1) % clients.length;
+            return clients[next];
+        }
+    }
+
+    @Setup
+    public void setUp() {
+        waitingList = ServerBridge.load().newWaitingList(matchmaking, GROUP_SIZE, SHARDS);
+    }
+
+    @Benchmark
+    public void addClientToWaitingList(Players players) {
+        waitingList.add(players.next());
+    }
+}
@@ -0,0 +1,57 @@
+package typefast.bench;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * The word draw startGame's matches make for every round, from generated word lists.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class WordSelectionBenchmark {
+    @Param({"1000", "1000000"})
+    public int words;
+
+    private Path directory;
+    private ServerBridge.WordSource source;
+
+    @Setup
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("typefast-words");
+        Path wordList = directory.resolve("words.txt");
+        Random random = new Random(42);
+        try (Writer out = Files.newBufferedWriter(wordList, StandardCharsets.UTF_8)) {
+            for (int i = 0; i < words; i++) {
+                int length = 3 + random.nextInt(10);
+                for (int c = 0; c < length; c++) {
+                    out.write('a' + random.nextInt(26));
+                }
+                out.write('\n');
+            }
+        }
+        source = ServerBridge.load().newWordSource(wordList, "en");
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory)) {
+            for (Path file : files) {
+                Files.delete(file);
+            }
+        }
+        Files.delete(directory);
+    }
+
+    @Benchmark
+    public String nextWord() {
+        return source.nextWord();
+    }
+}
@@ -0,0 +1,61 @@
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Logins on the nio transport with a single event loop, and password hashing slow enough to notice
+ * if it ran on that loop.
+ */
+class AuthTest {
+    private static TestServer server;
+
+    @BeforeAll
+    static void startServer() throws Exception {
+        server = TestServer.start("transport=nio", "nio.threads=1", "store.pbkdf2Iterations=200000",
+                "anticheat.minReactionMs=0", "anticheat.minMsPerChar=0");
+    }
+
+    @Test
+    void loginDoesNotHoldUpOtherConnectionsOnTheEventLoop() throws Exception {
+        try (TestClient slow = server.connect(); TestClient other = server.connect()) {
+            slow.register("hasher", "secret");
+            slow.send("LOGIN hasher secret");
+            other.send("PING");
+            other.expect("PONG");
+            // The loop answered the PING while the hash was still running
+            assertNull(slow.next(0), "login finished before the other connection was served");
+            slow.expect("Login successful.");
+        }
+    }
+
+    @Test
+    void pipelinedCommandsAreHandledInOrder() throws Exception {
+        try (TestClient client = server.connect()) {
+            client.send("REGISTER piper secret\nLOGIN piper secret\nJOIN");
+            client.expect("Registration successful.");
+            client.expect("Login successful.");
+            client.expect("Added to waiting list.");
+        }
+    }
+
+    @Test
+    void exitKeepsTheStoredScore() throws Exception {
+        try (TestClient client = server.connect()) {
+            client.register("scorer", "secret");
+            client.login("scorer", "secret");
+            client.send("JOIN");
+            client.send(client.nextWord());
+            client.expect("Correct! Your score for this word: ");
+            client.send("EXIT");
+            client.expect("Exiting game.");
+        }
+        try (TestClient again = server.connect()) {
+            again.login("scorer", "secret");
+            again.send("SCOREBOARD");
+            String scoreboard = again.expect("Scoreboard: ");
+            double score = Double.parseDouble(scoreboard.substring(scoreboard.lastIndexOf(' ') + 1));
+            assertTrue(score > 0, scoreboard);
+        }
+    }
+}
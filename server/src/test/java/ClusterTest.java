@@ -0,0 +1,215 @@
+import org.junit.jupiter.api.Test;
+
+import java.io.*;
+import java.net.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Hub behaviour with recording nodes, plus one cluster of two real servers: this test's JVM runs
+ * the node with the hub, and a spawned process joins it.
+ */
+class ClusterTest {
+
+    @Test
+    void dequeuedPlayerIsNotGrouped() {
+        ClusterHub hub = new ClusterHub(4);
+        RecordingNode node = new RecordingNode();
+        hub.register("a", node);
+        hub.enqueue(member("a", "alice"), 0, 2);
+        hub.dequeue("a", "alice");
+        assertTrue(node.groups.isEmpty());
+
+        hub.enqueue(member("a", "bob"), 0, 2);
+        hub.enqueue(member("a", "carol"), 0, 2);
+        assertEquals(1, node.groups.size());
+        List<String> names = new ArrayList<>();
+        for (Cluster.Member member : node.groups.peek()) {
+            names.add(member.username);
+        }
+        assertEquals(Set.of("bob", "carol"), new HashSet<>(names));
+    }
+
+    @Test
+    void repeatedEnqueueOfAWaitingPlayerIsIgnored() {
+        ClusterHub hub = new ClusterHub(4);
+        RecordingNode node = new RecordingNode();
+        hub.register("a", node);
+        hub.enqueue(member("a", "alice"), 0, 2);
+        hub.enqueue(member("a", "alice"), 0, 2);
+        assertTrue(node.groups.isEmpty(), "grouped a player with themselves");
+    }
+
+    @Test
+    void everyNodeHearsTheClusterWideWaitingCount() {
+        ClusterHub hub = new ClusterHub(4);
+        RecordingNode a = new RecordingNode();
+        RecordingNode b = new RecordingNode();
+        hub.register("a", a);
+        hub.register("b", b);
+        hub.enqueue(member("a", "alice"), 0, 3);
+        hub.enqueue(member("b", "bob"), 0, 3);
+        assertEquals(2, a.lastWaitingCount());
+        assertEquals(2, b.lastWaitingCount());
+
+        hub.dequeue("a", "alice");
+        assertEquals(1, a.lastWaitingCount());
+        hub.enqueue(member("a", "alice"), 0, 3);
+        hub.enqueue(member("b", "carol"), 0, 3);
+        assertEquals(1, a.groups.size());
+        assertEquals(0, a.lastWaitingCount());
+        assertEquals(0, b.lastWaitingCount());
+    }
+
+    @Test
+    void playersQueuedOnTwoNodesPlayOneMatch() throws Exception {
+        int hubPort = TestServer.freePort();
+        String[] settings = {"groupSize=3", "anticheat.minReactionMs=0", "anticheat.minMsPerChar=0"};
+        List<String> first = new ArrayList<>(List.of(settings));
+        first.addAll(List.of("cluster.node=first", "cluster.listen=" + hubPort));
+        TestServer hubNode = TestServer.start(first.toArray(new String[0]));
+        hubNode.connect().close();
+
+        List<String> second = new ArrayList<>(List.of(settings));
+        second.addAll(List.of("cluster.node=second", "cluster.join=localhost:" + hubPort));
+        int port = TestServer.freePort();
+        Path log = Files.createTempFile("typefast-server", ".log");
+        Process node = TestServer.spawn(log, Files.createTempDirectory("typefast-test"), port, TestServer.freePort(),
+                second.toArray(new String[0]));
+        try (TestClient alice = hubNode.connect(); TestClient bob = new TestClient(port);
+             TestClient carol = new TestClient(port)) {
+            TestServer.awaitLine(log, "Typefast Server started");
+            // Each node has a user store of its own
+            alice.register("alice", "secret");
+            alice.login("alice", "secret");
+            bob.register("bob", "secret");
+            bob.login("bob", "secret");
+            carol.register("carol", "secret");
+            carol.login("carol", "secret");
+
+            alice.send("JOIN");
+            alice.expect("Added to waiting list.");
+            bob.send("JOIN");
+            bob.expect("Added to waiting list.");
+            // Counts include the players waiting on the other node
+            alice.expect("Players in waiting list: 2");
+            bob.expect("Players in waiting list: 2");
+
+            carol.send("JOIN");
+            String word = alice.nextWord();
+            assertEquals(word, bob.nextWord());
+            assertEquals(word, carol.nextWord());
+            // The match runs on the first node; answers from the second are forwarded to it
+            bob.send(word);
+            bob.expect("You placed 1 of 3.");
+            alice.expect("bob typed it first!");
+            carol.send(word);
+            carol.expect("You placed 2 of 3.");
+            alice.send(word);
+            alice.expect("You placed 3 of 3.");
+        } finally {
+            node.destroyForcibly();
+        }
+    }
+
+    @Test
+    void answersAreForwardedAsAnswersNotCommands() throws Exception {
+        ClusterHub hub = new ClusterHub(4);
+        RecordingNode host = new RecordingNode();
+        hub.register("host", host);
+        int port = TestServer.freePort();
+        SocketCluster.serveHub(hub, InetAddress.getLoopbackAddress(), port, 1024);
+        Cluster node = SocketCluster.connect("localhost:" + port, "node", new RecordingNode(), 1024);
+
+        node.forwardAnswer("host", "alice", "LOGOUT".getBytes(StandardCharsets.UTF_8));
+        node.forwardExit("host", "alice");
+        assertEquals("answer alice LOGOUT", host.forwarded.poll(TestClient.TIMEOUT_MS, TimeUnit.MILLISECONDS));
+        assertEquals("exit alice", host.forwarded.poll(TestClient.TIMEOUT_MS, TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    void nodeReconnectsAfterLosingTheHub() throws Exception {
+        try (ServerSocket hub = new ServerSocket(0)) {
+            long reconnects = SocketCluster.reconnects.sum();
+            RecordingNode listener = new RecordingNode();
+            SocketCluster node = SocketCluster.connect("localhost:" + hub.getLocalPort(), "node", listener, 1024);
+            hub.accept().close();
+            try (Socket again = hub.accept()) {
+                assertTrue(listener.reconnected.await(TestClient.TIMEOUT_MS, TimeUnit.MILLISECONDS));
+                assertTrue(node.isConnected());
+                assertTrue(SocketCluster.reconnects.sum() > reconnects);
+            }
+        }
+    }
+
+    @Test
+    void linkToAPeerThatStoppedReadingIsClosed() throws Exception {
+        try (ServerSocket hub = new ServerSocket(0)) {
+            long overflows = SocketCluster.overflowDisconnects.sum();
+            SocketCluster node = SocketCluster.connect("localhost:" + hub.getLocalPort(), "node", new RecordingNode(), 4);
+            try (Socket stalled = hub.accept()) {
+                byte[] answer = new byte[1 << 20];
+                long deadline = System.currentTimeMillis() + TestClient.TIMEOUT_MS;
+                while (SocketCluster.overflowDisconnects.sum() == overflows && System.currentTimeMillis() < deadline) {
+                    node.forwardAnswer("host", "alice", answer);
+                }
+                assertEquals(overflows + 1, SocketCluster.overflowDisconnects.sum());
+                assertFalse(node.isConnected());
+            }
+        }
+    }
+
+    private static Cluster.Member member(String nodeId, String username) {
+        return new Cluster.Member(nodeId, username, false, 0);
+    }
+
+    private static final class RecordingNode implements Cluster.Listener {
+        final Queue<List<Cluster.Member>> groups = new ConcurrentLinkedQueue<>();
+        final BlockingQueue<String> forwarded = new LinkedBlockingQueue<>();
+        final CountDownLatch reconnected = new CountDownLatch(1);
+        final List<Integer> waitingCounts = new CopyOnWriteArrayList<>();
+
+        int lastWaitingCount() {
+            return waitingCounts.get(waitingCounts.size() - 1);
+        }
+
+        public void sessionRevoked(String username) {
+        }
+
+        public void scoreChanged(String username, double score) {
+        }
+
+        public void scoreRemoved(String username) {
+        }
+
+        public void matchFormed(String hostNodeId, List<Cluster.Member> members) {
+            groups.add(members);
+        }
+
+        public void delivered(String username, byte[] bytes) {
+        }
+
+        public void answerForwarded(String username, byte[] answer) {
+            forwarded.add("answer " + username + " " + new String(answer, StandardCharsets.UTF_8));
+        }
+
+        public void exitForwarded(String username) {
+            forwarded.add("exit " + username);
+        }
+
+        public void matchEnded(String username) {
+        }
+
+        public void waitingCountChanged(int count) {
+            waitingCounts.add(count);
+        }
+
+        public void reconnected() {
+            reconnected.countDown();
+        }
+    }
+}
@@ -0,0 +1,31 @@
+import org.junit.jupiter.api.Test;
+
+import java.nio.file.*;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class DictionaryTest {
+
+    @Test
+    void picksAWordOfTheRequestedDifficultyAndLength() throws Exception {
+        Path directory = Files.createTempDirectory("typefast-words");
+        Path source = directory.resolve("words.txt");
+        Files.write(source, List.of("cat", "dog", "apple", "pizza", "zigzag", "jukebox", "quiz"));
+        Path packed = directory.resolve("words.txt.tfd");
+        Dictionary.build(source, packed);
+        Dictionary dictionary = Dictionary.open(packed, new double[]{1, 1, 1, 1, 1});
+
+        for (String expected : List.of("cat", "apple", "zigzag", "jukebox", "quiz")) {
+            int difficulty = Dictionary.difficultyOf(expected);
+            for (int i = 0; i < 20; i++) {
+                String word = dictionary.word(dictionary.pick(difficulty, expected.length()));
+                assertEquals(expected.length(), word.length(), word);
+                assertEquals(difficulty, Dictionary.difficultyOf(word), word);
+            }
+        }
+        assertEquals(-1, dictionary.pick(Dictionary.MAX_DIFFICULTY, 3));
+        assertEquals(-1, dictionary.pick(1, 40));
+        assertEquals(-1, dictionary.pick(0, 3));
+    }
+}
@@ -0,0 +1,129 @@
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Three-player matches, so one player can leave and the other two play on.
+ */
+class ExitTest {
+    private static TestServer server;
+
+    @BeforeAll
+    static void startServer() throws Exception {
+        server = TestServer.start("groupSize=3", "anticheat.minReactionMs=0", "anticheat.minMsPerChar=0");
+    }
+
+    @Test
+    void exitAtTheDashboardDoesNotDropTheNextJoin() throws Exception {
+        try (TestClient a = server.connect(); TestClient b = server.connect(); TestClient c = server.connect()) {
+            a.register("ada", "secret");
+            a.login("ada", "secret");
+            a.send("EXIT");
+            a.expect("Exiting game.");
+            b.register("bea", "secret");
+            b.login("bea", "secret");
+            c.register("cy", "secret");
+            c.login("cy", "secret");
+
+            a.send("JOIN");
+            a.expect("Added to waiting list.");
+            b.send("JOIN");
+            c.send("JOIN");
+            a.nextWord();
+        }
+    }
+
+    @Test
+    void roundWaitsForThePlayersLeftAfterASolverExits() throws Exception {
+        try (TestClient a = server.connect(); TestClient b = server.connect(); TestClient c = server.connect()) {
+            a.register("dee", "secret");
+            a.login("dee", "secret");
+            b.register("eve", "secret");
+            b.login("eve", "secret");
+            c.register("fay", "secret");
+            c.login("fay", "secret");
+            a.send("JOIN");
+            b.send("JOIN");
+            c.send("JOIN");
+            String word = a.nextWord();
+            b.nextWord();
+            c.nextWord();
+
+            a.send(word);
+            a.expect("Correct! Your score for this word: ");
+            a.send("EXIT");
+            a.expect("Exiting game.");
+            c.expect("A player left the match.");
+            b.send(word);
+            b.expect("Correct! Your score for this word: ");
+            // Two solves against two players left, but one of them came from the player who exited
+            String line;
+            while ((line = c.next(1000)) != null) {
+                assertFalse(line.startsWith("Time's up!"), "round ended before every remaining player typed the word");
+            }
+            c.send(word);
+            c.expect("Correct! Your score for this word: ");
+        }
+    }
+
+    @Test
+    void wordTypedAfterExitIsNotScoredAndDoesNotEndTheRound() throws Exception {
+        try (TestClient a = server.connect(); TestClient b = server.connect(); TestClient c = server.connect()) {
+            a.register("gil", "secret");
+            a.login("gil", "secret");
+            b.register("hal", "secret");
+            b.login("hal", "secret");
+            c.register("ivy", "secret");
+            c.login("ivy", "secret");
+            a.send("JOIN");
+            b.send("JOIN");
+            c.send("JOIN");
+            String word = a.nextWord();
+            b.nextWord();
+            c.nextWord();
+
+            a.send("EXIT");
+            a.expect("Exiting game.");
+            a.send(word);
+            a.expect("Incorrect word.");
+            c.expect("A player left the match.");
+            b.send(word);
+            // The exited player's answer took no placement: b is the first of the two still playing
+            b.expect("You placed 1 of 2.");
+            String line;
+            while ((line = c.next(1000)) != null) {
+                assertFalse(line.startsWith("Time's up!"), "round ended before every remaining player typed the word");
+            }
+            c.send(word);
+            c.expect("You placed 2 of 2.");
+        }
+    }
+
+    @Test
+    void droppedPlayerRejoinsTheRoundWithItsTimeLeft() throws Exception {
+        try (TestClient b = server.connect(); TestClient c = server.connect()) {
+            String word;
+            try (TestClient a = server.connect()) {
+                a.register("jo", "secret");
+                a.login("jo", "secret");
+                b.register("kit", "secret");
+                b.login("kit", "secret");
+                c.register("lou", "secret");
+                c.login("lou", "secret");
+                a.send("JOIN");
+                b.send("JOIN");
+                c.send("JOIN");
+                word = a.nextWord();
+            }
+            try (TestClient a = server.connect()) {
+                a.login("jo", "secret");
+                a.expect("Rejoined your match.");
+                assertEquals("New word: " + word, a.next(TestClient.TIMEOUT_MS));
+                // Sent in the same write as the word; the match's own ticks are seconds apart
+                String tick = a.next(200);
+                assertTrue(tick != null && tick.startsWith("Time remaining: "), "no time left with the word: " + tick);
+            }
+        }
+    }
+}
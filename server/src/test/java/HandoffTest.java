@@ -0,0 +1,149 @@
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.*;
+import java.net.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Servers in processes of their own, since a drain ends with System.exit.
+ */
+class HandoffTest {
+    private final List<Process> servers = new ArrayList<>();
+
+    @AfterEach
+    void stopServers() {
+        for (Process server : servers) {
+            server.destroyForcibly();
+        }
+    }
+
+    @Test
+    void closedUserStoreRefusesToRegister() throws Exception {
+        UserStore store = UserStore.open(Files.createTempDirectory("typefast-store"), 1, 100000);
+        store.register("before", "secret");
+        store.close();
+        assertTimeoutPreemptively(java.time.Duration.ofSeconds(5), () -> {
+            assertThrows(IllegalStateException.class, () -> store.register("after", "secret"));
+            store.updateScore("before", 1);
+        });
+        assertFalse(store.authenticate("after", "secret"));
+        assertEquals(1, store.score("before"));
+    }
+
+    @Test
+    void secondServerOnTheSameDataDirectoryStops() throws Exception {
+        Path dataDir = Files.createTempDirectory("typefast-test");
+        Path firstLog = spawn(dataDir, TestServer.freePort(), 0);
+        TestServer.awaitLine(firstLog, "Typefast Server started");
+        Path secondLog = spawn(dataDir, TestServer.freePort(), 0);
+        TestServer.awaitLine(secondLog, "Another server is using");
+    }
+
+    @Test
+    void handoffNeedsTheTokenAndKeepsAccounts() throws Exception {
+        Path dataDir = Files.createTempDirectory("typefast-test");
+        int port = TestServer.freePort();
+        int metricsPort = TestServer.freePort();
+        Path firstLog = spawn(dataDir, port, metricsPort, "handoff=true", "drain.token=s3cret");
+        TestServer.awaitLine(firstLog, "Typefast Server started");
+        try (TestClient client = new TestClient(port)) {
+            client.register("mover", "secret");
+        }
+        assertEquals(403, drain(metricsPort));
+
+        Process first = servers.get(0);
+        spawn(dataDir, port, metricsPort, "handoff=true", "drain.token=s3cret");
+        assertTrue(first.waitFor(TestClient.TIMEOUT_MS * 3, TimeUnit.MILLISECONDS), "old server did not drain");
+        try (TestClient client = new TestClient(port)) {
+            client.login("mover", "secret");
+        }
+    }
+
+    @Test
+    void handoffResumesMatchesAndRequeuesWaitingPlayers() throws Exception {
+        Path dataDir = Files.createTempDirectory("typefast-test");
+        int port = TestServer.freePort();
+        int metricsPort = TestServer.freePort();
+        String[] settings = {"handoff=true", "groupSize=2", "anticheat.minReactionMs=0", "anticheat.minMsPerChar=0"};
+        Path firstLog = spawn(dataDir, port, metricsPort, settings);
+        TestServer.awaitLine(firstLog, "Typefast Server started");
+        try (TestClient a = new TestClient(port); TestClient b = new TestClient(port); TestClient c = new TestClient(port)) {
+            for (String player : List.of("ann", "ben", "cat", "dan")) {
+                a.register(player, "secret");
+            }
+            a.login("ann", "secret");
+            b.login("ben", "secret");
+            a.send("JOIN");
+            b.send("JOIN");
+            String word = a.nextWord();
+            b.nextWord();
+            a.send(word);
+            a.expect("Correct! Your score for this word: ");
+            b.send(word);
+            b.expect("Correct! Your score for this word: ");
+            // Alone in the waiting list, since the match above took the first two
+            c.login("cat", "secret");
+            c.send("JOIN");
+            c.expect("Added to waiting list.");
+
+            Process first = servers.get(0);
+            spawn(dataDir, port, metricsPort, settings);
+            assertTrue(first.waitFor(TestClient.TIMEOUT_MS * 3, TimeUnit.MILLISECONDS), "old server did not drain");
+            assertTrue(a.closedWithin(TestClient.TIMEOUT_MS), "old server left a connection open");
+        }
+
+        try (TestClient a = new TestClient(port); TestClient b = new TestClient(port);
+             TestClient c = new TestClient(port); TestClient d = new TestClient(port)) {
+            a.login("ann", "secret");
+            a.expect("Rejoined your match.");
+            b.login("ben", "secret");
+            b.expect("Rejoined your match.");
+            // The match goes on with the four words left of its five, then ends
+            for (int round = 0; round < 4; round++) {
+                String word = a.nextWord();
+                b.nextWord();
+                a.send(word);
+                a.expect("Correct! Your score for this word: ");
+                b.send(word);
+                b.expect("Correct! Your score for this word: ");
+            }
+            a.expect("Game over.");
+            String line;
+            while ((line = a.next(1000)) != null) {
+                assertFalse(line.startsWith("New word: "), "resumed match played more than five words");
+            }
+
+            // Logging in queues the waiting player again, so the next player to join makes a match with them
+            c.login("cat", "secret");
+            c.expect("Added to waiting list.");
+            d.login("dan", "secret");
+            d.send("JOIN");
+            c.nextWord();
+            d.nextWord();
+        }
+    }
+
+    private Path spawn(Path dataDir, int port, int metricsPort, String... settings) throws IOException {
+        List<String> all = new ArrayList<>(List.of("drain.timeoutMs=0", "drain.reconnectSpreadMs=0"));
+        all.addAll(List.of(settings));
+        Path log = Files.createTempFile("typefast-server", ".log");
+        servers.add(TestServer.spawn(log, dataDir, port, metricsPort, all.toArray(new String[0])));
+        return log;
+    }
+
+    private static int drain(int metricsPort) throws IOException {
+        HttpURLConnection request = (HttpURLConnection) URI.create(
+                "http://localhost:" + metricsPort + "/drain").toURL().openConnection();
+        request.setRequestMethod("POST");
+        try {
+            return request.getResponseCode();
+        } finally {
+            request.disconnect();
+        }
+    }
+}
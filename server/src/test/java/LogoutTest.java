@@ -0,0 +1,61 @@
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Two-player matches, so a player who logs out mid-match or while queued leaves a visible gap.
+ */
+class LogoutTest {
+    private static TestServer server;
+
+    @BeforeAll
+    static void startServer() throws Exception {
+        server = TestServer.start("groupSize=2");
+    }
+
+    @Test
+    void logoutWhileWaitingLeavesTheQueue() throws Exception {
+        try (TestClient leaving = server.connect(); TestClient waiting = server.connect()) {
+            leaving.register("quitter", "secret");
+            leaving.login("quitter", "secret");
+            leaving.send("JOIN");
+            leaving.expect("Added to waiting list.");
+            leaving.send("LOGOUT");
+            leaving.expect("Logout successful.");
+
+            waiting.register("stayer", "secret");
+            waiting.login("stayer", "secret");
+            waiting.send("JOIN");
+            waiting.expect("Added to waiting list.");
+            // A match with the logged-out player would send its first word after 3 s
+            String line;
+            while ((line = waiting.next(4500)) != null) {
+                assertFalse(line.startsWith("New word: "), "matched with a player who logged out");
+            }
+
+            leaving.login("quitter", "secret");
+            leaving.send("JOIN");
+            waiting.nextWord();
+        }
+    }
+
+    @Test
+    void logoutInAMatchLeavesIt() throws Exception {
+        try (TestClient leaving = server.connect(); TestClient staying = server.connect()) {
+            leaving.register("dropper", "secret");
+            leaving.login("dropper", "secret");
+            staying.register("keeper", "secret");
+            staying.login("keeper", "secret");
+            leaving.send("JOIN");
+            staying.send("JOIN");
+            leaving.nextWord();
+            staying.nextWord();
+
+            leaving.send("LOGOUT");
+            leaving.expect("Logout successful.");
+            // Too few players are left, so the match ends instead of running out its rounds
+            staying.expect("Game over.");
+        }
+    }
+}
@@ -0,0 +1,152 @@
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * The match journal on its own, and a server on the nio transport with a single event loop, where a
+ * record that fails to encode would stop every connection.
+ */
+class MatchJournalTest {
+    private static TestServer server;
+
+    @BeforeAll
+    static void startServer() throws Exception {
+        server = TestServer.start("transport=nio", "nio.threads=1", "groupSize=2",
+                "anticheat.minReactionMs=0", "anticheat.minMsPerChar=0");
+    }
+
+    @Test
+    void recordLongerThanTheMaximumIsATornTail() throws Exception {
+        Path directory = Files.createTempDirectory("typefast-journal");
+        MatchJournal journal = MatchJournal.open(directory, 1 << 20, 16);
+        journal.wordDispatched(1, 1, "kiwi");
+        journal.matchEnded(1, true);
+        awaitWritten(journal, 2);
+
+        Path segment;
+        try (DirectoryStream<Path> segments = Files.newDirectoryStream(directory)) {
+            segment = segments.iterator().next();
+        }
+        try (DataOutputStream out = new DataOutputStream(Files.newOutputStream(segment, StandardOpenOption.APPEND))) {
+            out.writeInt(Integer.MAX_VALUE - 8);
+            out.writeInt(0);
+            out.write(new byte[64]);
+        }
+        assertEquals(2, MatchJournal.read(directory, new MatchJournal.Visitor() {
+        }));
+    }
+
+    @Test
+    void batchesAfterAFailedWriteAreRead() throws Exception {
+        Path directory = Files.createTempDirectory("typefast-journal");
+        TearingChannel[] segment = new TearingChannel[1];
+        MatchJournal journal = MatchJournal.open(directory, 1 << 20, 16,
+                channel -> segment[0] = new TearingChannel(channel));
+        journal.wordDispatched(1, 1, "kiwi");
+        awaitWritten(journal, 1);
+        segment[0].tearNextWrite = true;
+        journal.wordDispatched(1, 2, "plum");
+        long deadline = System.currentTimeMillis() + TestClient.TIMEOUT_MS;
+        while (journal.dropped.sum() == 0 && System.currentTimeMillis() < deadline) {
+            TestClient.sleep(10);
+        }
+        assertEquals(1, journal.dropped.sum());
+        journal.matchEnded(1, true);
+        awaitWritten(journal, 2);
+
+        List<String> read = new ArrayList<>();
+        assertEquals(2, MatchJournal.read(directory, new MatchJournal.Visitor() {
+            public void wordDispatched(long matchId, long time, int round, String word) {
+                read.add(word);
+            }
+
+            public void matchEnded(long matchId, long time, boolean completed) {
+                read.add("ended");
+            }
+        }));
+        assertEquals(List.of("kiwi", "ended"), read);
+    }
+
+    @Test
+    void nullStringIsRejected() throws Exception {
+        MatchJournal journal = MatchJournal.open(Files.createTempDirectory("typefast-journal"), 1 << 20, 16);
+        assertThrows(IllegalArgumentException.class, () -> journal.playerExited(1, null));
+    }
+
+    @Test
+    void playersWhoLoggedOutBeforeTheStartAreLeftOut() throws Exception {
+        Path directory = Files.createTempDirectory("typefast-journal");
+        MatchJournal journal = MatchJournal.open(directory, 1 << 20, 16);
+        TypefastServer.ClientHandler present = TypefastServer.ClientHandler.held("ada");
+        // No name: logged out between being taken from the waiting list and the match starting
+        TypefastServer.ClientHandler gone = TypefastServer.ClientHandler.held(null);
+        ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+        try {
+            new Match(List.of(present, gone), scheduler, () -> "kiwi", 30, 1, 5, journal).start();
+        } finally {
+            scheduler.shutdownNow();
+        }
+        awaitWritten(journal, 2);
+        List<List<String>> started = new ArrayList<>();
+        MatchJournal.read(directory, new MatchJournal.Visitor() {
+            public void matchStarted(long matchId, long time, List<String> players) {
+                started.add(players);
+            }
+        });
+        assertEquals(List.of(List.of("ada")), started);
+    }
+
+    @Test
+    void logoutRightAfterAnAnswerKeepsTheLoopServing() throws Exception {
+        try (TestClient leaving = server.connect(); TestClient staying = server.connect()) {
+            leaving.register("solver", "secret");
+            leaving.login("solver", "secret");
+            staying.register("stayer", "secret");
+            staying.login("stayer", "secret");
+            leaving.send("JOIN");
+            staying.send("JOIN");
+            String word = leaving.nextWord();
+            staying.nextWord();
+
+            leaving.send(word + "\nLOGOUT\n" + word);
+            leaving.expect("Logout successful.");
+            staying.expect("Game over.");
+        }
+        try (TestClient other = server.connect()) {
+            other.send("PING");
+            other.expect("PONG");
+        }
+        Set<String> solvers = ConcurrentHashMap.newKeySet();
+        Set<String> exited = ConcurrentHashMap.newKeySet();
+        long deadline = System.currentTimeMillis() + TestClient.TIMEOUT_MS;
+        while (!exited.contains("solver") && System.currentTimeMillis() < deadline) {
+            TestClient.sleep(100);
+            MatchJournal.read(server.dataDir.resolve("journal"), new MatchJournal.Visitor() {
+                public void wordSolved(long matchId, long time, int round, String username, int timeTaken,
+                                       int placement, double score) {
+                    solvers.add(username);
+                }
+
+                public void playerExited(long matchId, long time, String username) {
+                    exited.add(username);
+                }
+            });
+        }
+        assertEquals(Set.of("solver"), solvers);
+        assertEquals(Set.of("solver"), exited);
+    }
+
+    private static void awaitWritten(MatchJournal journal, long records) {
+        long deadline = System.currentTimeMillis() + TestClient.TIMEOUT_MS;
+        while (journal.written.sum() < records && System.currentTimeMillis() < deadline) {
+            TestClient.sleep(10);
+        }
+        assertEquals(records, journal.written.sum());
+    }
+}
@@ -0,0 +1,95 @@
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Runs 10k two-player matches at once on a scheduler of a few threads, with every player answering
+ * each word shortly after it arrives, and checks that all of them finish with no round timing out.
+ * Both players of a match answer at the same moment, so their solves race to end each round; every
+ * run must still tell each of them their answer was correct and never that time was up.
+ */
+class MatchSchedulerSimulationTest {
+    private static final int MATCHES = 10_000;
+    private static final int SCHEDULER_THREADS = 4;
+    private static final int WORDS_PER_GAME = 2;
+    private static final int TIME_LIMIT_SECONDS = 30;
+    private static final long ANSWER_DELAY_MS = 400;
+    private static final String WORD = "kiwi";
+
+    private final ScheduledExecutorService scheduler = Executors.newScheduledThreadPool(SCHEDULER_THREADS);
+    private final ScheduledExecutorService typists = Executors.newScheduledThreadPool(SCHEDULER_THREADS);
+    private final CountDownLatch gamesOver = new CountDownLatch(2 * MATCHES);
+    private final AtomicInteger correct = new AtomicInteger();
+    private final AtomicInteger timedOut = new AtomicInteger();
+    private final AtomicInteger players = new AtomicInteger();
+
+    // Scoring reads the server's leaderboard and user store, which are ready once it greets a client.
+    // The answers come faster than a person types, so anti-cheat is off
+    @BeforeAll
+    static void startServer() throws Exception {
+        TestServer.start("anticheat.minReactionMs=0", "anticheat.minMsPerChar=0").connect().close();
+    }
+
+    @AfterEach
+    void shutDown() {
+        scheduler.shutdownNow();
+        typists.shutdownNow();
+    }
+
+    @Test
+    void tenThousandMatchesFinishOnAFewSchedulerThreads() throws InterruptedException {
+        for (int i = 0; i < MATCHES; i++) {
+            List<TypefastServer.ClientHandler> group = List.of(player(), player());
+            new Match(group, scheduler, () -> WORD, TIME_LIMIT_SECONDS, WORDS_PER_GAME, 5, null).start();
+        }
+
+        // Rounds end as soon as both players typed the word: a game whose round ran out its time limit
+        // could not be over within that limit
+        assertTrue(gamesOver.await(TIME_LIMIT_SECONDS, TimeUnit.SECONDS),
+                gamesOver.getCount() + " players still waiting for their game to end");
+        assertEquals(0, timedOut.get());
+        assertEquals(2 * MATCHES * WORDS_PER_GAME, correct.get());
+    }
+
+    // A name is all Match.start needs, and the scores reach the leaderboard; with no account behind
+    // the name, the user store looks each one up and records nothing
+    private TypefastServer.ClientHandler player() {
+        SimulatedPlayer connection = new SimulatedPlayer();
+        connection.handler = TypefastServer.ClientHandler.loggedIn(connection, "player" + players.incrementAndGet());
+        return connection.handler;
+    }
+
+    private final class SimulatedPlayer implements TypefastServer.Connection {
+        volatile TypefastServer.ClientHandler handler;
+
+        public void send(String message) {
+            received(message);
+        }
+
+        public void sendFrame(byte[] frame) {
+            received(new String(frame, StandardCharsets.UTF_8));
+        }
+
+        public void close() {
+        }
+
+        private void received(String text) {
+            if (text.startsWith("New word: ")) {
+                typists.schedule(() -> handler.handleClientMessage(WORD), ANSWER_DELAY_MS, TimeUnit.MILLISECONDS);
+            } else if (text.startsWith("Correct! Time taken")) {
+                correct.incrementAndGet();
+            } else if (text.startsWith("Time's up!")) {
+                timedOut.incrementAndGet();
+            } else if (text.startsWith("Game over.")) {
+                gamesOver.countDown();
+            }
+        }
+    }
+}
@@ -0,0 +1,54 @@
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MatchmakerTest {
+
+    @Test
+    void removeFindsPlayerWhoseScoreChangedWhileQueued() {
+        Matchmaker<TypefastServer.ClientHandler> matchmaker = Matchmaker.skillBucketed(2, 4, 100);
+        TypefastServer.ClientHandler leaving = player(250);
+        assertTrue(matchmaker.enqueue(leaving));
+
+        // A new score can arrive while the player waits, e.g. from a match hosted on another node
+        leaving.setTotalScore(0);
+        assertTrue(matchmaker.remove(leaving));
+        assertEquals(0, matchmaker.waitingCount());
+
+        TypefastServer.ClientHandler other = player(250);
+        assertTrue(matchmaker.enqueue(other));
+        assertTrue(matchmaker.formGroups().isEmpty(), "matched against a player who already left");
+    }
+
+    @Test
+    void repeatedJoinIsRejected() {
+        Matchmaker<TypefastServer.ClientHandler> matchmaker = Matchmaker.shared(2, 4);
+        TypefastServer.ClientHandler client = player(0);
+        assertTrue(matchmaker.enqueue(client));
+        assertFalse(matchmaker.enqueue(client));
+
+        TypefastServer.ClientHandler other = player(0);
+        assertTrue(matchmaker.enqueue(other));
+        List<List<TypefastServer.ClientHandler>> groups = matchmaker.formGroups();
+        assertEquals(1, groups.size());
+        assertEquals(2, groups.get(0).size());
+        assertFalse(matchmaker.remove(client));
+    }
+
+    private static TypefastServer.ClientHandler player(double score) {
+        TypefastServer.ClientHandler client = new TypefastServer.ClientHandler(new TypefastServer.Connection() {
+            public void send(String message) {
+            }
+
+            public void sendFrame(byte[] frame) {
+            }
+
+            public void close() {
+            }
+        });
+        client.setTotalScore(score);
+        return client;
+    }
+}
@@ -0,0 +1,62 @@
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.io.*;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * The nio transport, spoken to over a raw socket since TestClient only speaks the text protocol.
+ */
+class NioTransportTest {
+    private static TestServer server;
+
+    @BeforeAll
+    static void startServer() throws Exception {
+        server = TestServer.start("transport=nio");
+        server.connect().close();
+    }
+
+    @Test
+    void frameLongerThanALineIsAnswered() throws Exception {
+        try (Socket socket = new Socket("localhost", server.port)) {
+            socket.setSoTimeout((int) TestClient.TIMEOUT_MS);
+            DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            DataOutputStream out = new DataOutputStream(socket.getOutputStream());
+            out.write((BinaryProtocol.NEGOTIATE_CMD + "\n").getBytes(StandardCharsets.UTF_8));
+            while (!readLine(in).equals(BinaryProtocol.NEGOTIATE_ACK)) {
+                // Skips the greeting
+            }
+
+            // Well over the 8 KiB a text line may take, but within what a frame's u16 length allows
+            byte[] answer = "x".repeat(20000).getBytes(StandardCharsets.UTF_8);
+            out.writeShort(1 + 2 + answer.length);
+            out.writeByte(BinaryProtocol.ANSWER);
+            out.writeShort(answer.length);
+            out.write(answer);
+            out.flush();
+
+            int opcode;
+            do {
+                byte[] frame = new byte[in.readUnsignedShort()];
+                in.readFully(frame);
+                opcode = frame[0] & 0xFF;
+            } while (opcode == BinaryProtocol.SERVER_PING);
+            assertEquals(BinaryProtocol.INCORRECT, opcode);
+        }
+    }
+
+    private static String readLine(DataInputStream in) throws IOException {
+        ByteArrayOutputStream line = new ByteArrayOutputStream();
+        int b;
+        while ((b = in.read()) != '\n') {
+            if (b < 0) {
+                throw new EOFException("Connection closed");
+            }
+            line.write(b);
+        }
+        return line.toString(StandardCharsets.UTF_8);
+    }
+}
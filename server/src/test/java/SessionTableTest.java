@@ -0,0 +1,109 @@
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+/**
+ * Heap taken per session, measured as the growth of the used heap after a full collection over enough
+ * sessions to drown out the noise.
+ */
+class SessionTableTest {
+    private static final int SESSIONS = 100_000;
+    private static final int PLAYERS = 2000;
+    // Measured the same way, on JDK 21, on the tree before SessionTable and its per-player fields and
+    // objects; 1413 with it. About 600 of either is the JDK's socket channel, which no layout saves.
+    private static final long BEFORE_BYTES_PER_PLAYER = 1715;
+
+    @Test
+    void footprintIsTheHeapTheTableTakes() {
+        long before = usedHeap();
+        SessionTable table = new SessionTable();
+        for (int i = 0; i < SESSIONS; i++) {
+            table.allocate();
+        }
+        long taken = usedHeap() - before;
+
+        assertEquals(SESSIONS, table.size());
+        assertEquals(table.footprint(), taken, table.footprint() * 0.2, "heap taken by the table");
+        assertTrue(table.footprint() / SESSIONS <= 80, table.footprint() / SESSIONS + " bytes per session");
+    }
+
+    /**
+     * Players connected and logged in over the NIO transport, to a server in a process of its own, so
+     * its connections, outbound queues and read buffers are counted and the test's sockets are not.
+     */
+    @Test
+    void connectedPlayerTakesLessHeapThanBeforeTheTable() throws Exception {
+        Path dataDir = Files.createTempDirectory("typefast-test");
+        UserStore accounts = UserStore.open(dataDir, 1, Long.MAX_VALUE);
+        for (int i = 0; i < PLAYERS; i++) {
+            accounts.register("player" + i, "secret");
+        }
+        accounts.close();
+        Path log = Files.createTempFile("typefast-server", ".log");
+        int port = TestServer.freePort();
+        Process server = TestServer.spawn(log, dataDir, port, TestServer.freePort(), "transport=nio",
+                "session.heartbeatMs=600000", "session.idleTimeoutMs=600000");
+        List<Socket> players = new ArrayList<>();
+        try {
+            TestServer.awaitLine(log, "Typefast Server started");
+            // Loads the session, login and transport classes outside the measurement
+            players.add(login(port, "player0"));
+
+            long before = liveHeap(server);
+            for (int i = 1; i < PLAYERS; i++) {
+                players.add(login(port, "player" + i));
+            }
+            long perPlayer = (liveHeap(server) - before) / (PLAYERS - 1);
+
+            assertTrue(perPlayer <= BEFORE_BYTES_PER_PLAYER - 256,
+                    perPlayer + " bytes per player, " + BEFORE_BYTES_PER_PLAYER + " before the session table");
+        } finally {
+            for (Socket player : players) {
+                player.close();
+            }
+            server.destroy();
+        }
+    }
+
+    private static Socket login(int port, String username) throws IOException {
+        Socket socket = new Socket("localhost", port);
+        socket.getOutputStream().write(("LOGIN " + username + " secret\n").getBytes(StandardCharsets.UTF_8));
+        StringBuilder received = new StringBuilder();
+        byte[] buffer = new byte[256];
+        while (received.indexOf("Login successful.") < 0) {
+            int read = socket.getInputStream().read(buffer);
+            if (read < 0) {
+                fail("Closed before login: " + received);
+            }
+            received.append(new String(buffer, 0, read, StandardCharsets.UTF_8));
+        }
+        return socket;
+    }
+
+    // Bytes of live objects in the process, from a class histogram, which collects garbage first
+    private static long liveHeap(Process process) throws Exception {
+        Path jcmd = Paths.get(System.getProperty("java.home"), "bin", "jcmd");
+        assumeTrue(Files.isExecutable(jcmd), "no jcmd in this Java runtime");
+        Process histogram = new ProcessBuilder(jcmd.toString(), Long.toString(process.pid()), "GC.class_histogram")
+                .redirectErrorStream(true).start();
+        String output = new String(histogram.getInputStream().readAllBytes(), StandardCharsets.UTF_8);
+        assertEquals(0, histogram.waitFor(), output);
+        String[] total = output.substring(output.lastIndexOf("Total")).trim().split("\\s+");
+        return Long.parseLong(total[2]);
+    }
+
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 5; i++) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
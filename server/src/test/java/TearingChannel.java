@@ -0,0 +1,94 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.*;
+
+/**
+ * Passes everything to the channel it wraps, except that it can write half of a buffer and then
+ * fail, like a disk that fills up mid-record.
+ */
+final class TearingChannel extends FileChannel {
+    private final FileChannel channel;
+    volatile boolean tearNextWrite;
+
+    TearingChannel(FileChannel channel) {
+        this.channel = channel;
+    }
+
+    public int write(ByteBuffer src) throws IOException {
+        if (tearNextWrite) {
+            tearNextWrite = false;
+            ByteBuffer half = src.duplicate();
+            half.limit(half.position() + half.remaining() / 2);
+            channel.write(half);
+            throw new IOException("No space left on device");
+        }
+        return channel.write(src);
+    }
+
+    public int read(ByteBuffer dst) throws IOException {
+        return channel.read(dst);
+    }
+
+    public long read(ByteBuffer[] dsts, int offset, int length) throws IOException {
+        return channel.read(dsts, offset, length);
+    }
+
+    public long write(ByteBuffer[] srcs, int offset, int length) throws IOException {
+        return channel.write(srcs, offset, length);
+    }
+
+    public long position() throws IOException {
+        return channel.position();
+    }
+
+    public FileChannel position(long newPosition) throws IOException {
+        channel.position(newPosition);
+        return this;
+    }
+
+    public long size() throws IOException {
+        return channel.size();
+    }
+
+    public FileChannel truncate(long size) throws IOException {
+        channel.truncate(size);
+        return this;
+    }
+
+    public void force(boolean metaData) throws IOException {
+        channel.force(metaData);
+    }
+
+    public long transferTo(long position, long count, WritableByteChannel target) throws IOException {
+        return channel.transferTo(position, count, target);
+    }
+
+    public long transferFrom(ReadableByteChannel src, long position, long count) throws IOException {
+        return channel.transferFrom(src, position, count);
+    }
+
+    public int read(ByteBuffer dst, long position) throws IOException {
+        return channel.read(dst, position);
+    }
+
+    public int write(ByteBuffer src, long position) throws IOException {
+        return channel.write(src, position);
+    }
+
+    public MappedByteBuffer map(MapMode mode, long position, long size) throws IOException {
+        return channel.map(mode, position, size);
+    }
+
+    public FileLock lock(long position, long size, boolean shared) throws IOException {
+        return channel.lock(position, size, shared);
+    }
+
+    public FileLock tryLock(long position, long size, boolean shared) throws IOException {
+        return channel.tryLock(position, size, shared);
+    }
+
+    protected void implCloseChannel() throws IOException {
+        channel.close();
+    }
+}
@@ -0,0 +1,152 @@
+import java.io.*;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.*;
+
+/**
+ * A text-protocol client for behaviour tests. A reader thread answers the server's heartbeat PINGs,
+ * so a test can wait as long as it needs to, and queues every other line for expect.
+ */
+final class TestClient implements Closeable {
+    static final long TIMEOUT_MS = 10000;
+    private static final String CLOSED = "\u0000closed";
+
+    private final Socket socket;
+    private final Writer out;
+    private final BlockingQueue<String> lines = new LinkedBlockingQueue<>();
+
+    TestClient(int port) throws IOException {
+        socket = connect(port);
+        out = new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8);
+        Thread reader = new Thread(this::read, "test-client-" + socket.getLocalPort());
+        reader.setDaemon(true);
+        reader.start();
+        expect("Welcome to Typefast!");
+    }
+
+    private static Socket connect(int port) throws IOException {
+        long deadline = System.currentTimeMillis() + TIMEOUT_MS;
+        while (true) {
+            try {
+                return new Socket("localhost", port);
+            } catch (IOException e) {
+                // The server thread may not have bound the port yet
+                if (System.currentTimeMillis() > deadline) {
+                    throw e;
+                }
+                sleep(50);
+            }
+        }
+    }
+
+    private void read() {
+        try {
+            BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+            String line;
+            while ((line = in.readLine()) != null) {
+                if (line.equals("PING")) {
+                    send("PONG");
+                } else {
+                    lines.add(line);
+                }
+            }
+        } catch (IOException e) {
+            // Closed by either side
+        }
+        lines.add(CLOSED);
+    }
+
+    synchronized void send(String line) {
+        try {
+            out.write(line + "\n");
+            out.flush();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    void register(String username, String password) {
+        send("REGISTER " + username + " " + password);
+        expect("Registration successful.");
+    }
+
+    void login(String username, String password) {
+        send("LOGIN " + username + " " + password);
+        expect("Login successful.");
+    }
+
+    /**
+     * Skips lines up to the first one starting with prefix and returns it; fails if the connection
+     * closes or no such line comes within TIMEOUT_MS.
+     */
+    String expect(String prefix) {
+        long deadline = System.currentTimeMillis() + TIMEOUT_MS;
+        while (true) {
+            String line = poll(deadline - System.currentTimeMillis());
+            if (line == null) {
+                throw new AssertionError("No line starting with \"" + prefix + "\" within " + TIMEOUT_MS + " ms");
+            }
+            if (line == CLOSED) {
+                throw new AssertionError("Connection closed while waiting for \"" + prefix + "\"");
+            }
+            if (line.startsWith(prefix)) {
+                return line;
+            }
+        }
+    }
+
+    /**
+     * Next line within timeoutMs; null if none came or the connection is closed.
+     */
+    String next(long timeoutMs) {
+        String line = poll(timeoutMs);
+        return line == CLOSED ? null : line;
+    }
+
+    /**
+     * Waits for the server to close the connection, ignoring whatever it sends first.
+     */
+    boolean closedWithin(long timeoutMs) {
+        long deadline = System.currentTimeMillis() + timeoutMs;
+        String line;
+        while ((line = poll(deadline - System.currentTimeMillis())) != null) {
+            if (line == CLOSED) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // A closed connection reads as CLOSED from then on
+    private String poll(long timeoutMs) {
+        try {
+            String line = lines.poll(Math.max(0, timeoutMs), TimeUnit.MILLISECONDS);
+            if (line == CLOSED) {
+                lines.add(CLOSED);
+            }
+            return line;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        }
+    }
+
+    /**
+     * The word of the next round, from its "New word: " line.
+     */
+    String nextWord() {
+        return expect("New word: ").substring("New word: ".length());
+    }
+
+    public void close() throws IOException {
+        socket.close();
+    }
+
+    static void sleep(long ms) {
+        try {
+            Thread.sleep(ms);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,105 @@
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.ServerSocket;
+import java.net.URISyntaxException;
+import java.nio.file.*;
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.fail;
+
+/**
+ * Starts TypefastServer in the test's JVM, on free ports and a fresh data directory. The server
+ * reads its settings from system properties once, when its class is loaded, so a test class starts
+ * it once with every setting its tests need; surefire runs each test class in a JVM of its own.
+ * Tests that need more than one server run the others with spawn, each in a process of its own.
+ */
+final class TestServer {
+    final int port;
+    final int metricsPort;
+    final Path dataDir;
+
+    private TestServer(int port, int metricsPort, Path dataDir) {
+        this.port = port;
+        this.metricsPort = metricsPort;
+        this.dataDir = dataDir;
+    }
+
+    /**
+     * Settings are name=value pairs of typefast properties, without the "typefast." prefix.
+     */
+    static TestServer start(String... settings) throws IOException {
+        Path dataDir = Files.createTempDirectory("typefast-test");
+        return start(dataDir, freePort(), freePort(), settings);
+    }
+
+    static TestServer start(Path dataDir, int port, int metricsPort, String... settings) {
+        System.setProperty("typefast.port", Integer.toString(port));
+        System.setProperty("typefast.metrics.port", Integer.toString(metricsPort));
+        System.setProperty("typefast.data.dir", dataDir.toString());
+        System.setProperty("typefast.words", wordsFile().toString());
+        System.setProperty("typefast.store.pbkdf2Iterations", "1");
+        System.setProperty("typefast.log.level", "WARN");
+        for (String setting : settings) {
+            int split = setting.indexOf('=');
+            System.setProperty("typefast." + setting.substring(0, split), setting.substring(split + 1));
+        }
+        Thread server = new Thread(() -> TypefastServer.main(new String[0]), "test-server");
+        server.setDaemon(true);
+        server.start();
+        return new TestServer(port, metricsPort, dataDir);
+    }
+
+    /**
+     * Starts a server in a new process, with its output in log; the caller destroys it.
+     */
+    static Process spawn(Path log, Path dataDir, int port, int metricsPort, String... settings) throws IOException {
+        String java = Paths.get(System.getProperty("java.home"), "bin", "java").toString();
+        String classes;
+        try {
+            classes = Paths.get(TypefastServer.class.getProtectionDomain().getCodeSource().getLocation().toURI()).toString();
+        } catch (URISyntaxException e) {
+            throw new IOException(e);
+        }
+        List<String> command = new ArrayList<>(List.of(java, "-cp", classes,
+                "-Dtypefast.port=" + port, "-Dtypefast.metrics.port=" + metricsPort,
+                "-Dtypefast.data.dir=" + dataDir, "-Dtypefast.words=" + wordsFile(),
+                "-Dtypefast.store.pbkdf2Iterations=1"));
+        for (String setting : settings) {
+            command.add("-Dtypefast." + setting);
+        }
+        command.add("TypefastServer");
+        return new ProcessBuilder(command).redirectErrorStream(true).redirectOutput(log.toFile()).start();
+    }
+
+    /**
+     * Waits for a spawned server to write text to its log.
+     */
+    static void awaitLine(Path log, String text) throws IOException {
+        long deadline = System.currentTimeMillis() + TestClient.TIMEOUT_MS;
+        while (System.currentTimeMillis() < deadline) {
+            if (Files.readString(log).contains(text)) {
+                return;
+            }
+            TestClient.sleep(50);
+        }
+        fail("No \"" + text + "\" in the server's output:\n" + Files.readString(log));
+    }
+
+    TestClient connect() throws IOException {
+        return new TestClient(port);
+    }
+
+    static int freePort() {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    // The word list at the top of the repository; tests run from the server module's directory
+    static Path wordsFile() {
+        Path words = Paths.get("words.txt").toAbsolutePath();
+        return Files.exists(words) ? words : words.getParent().resolveSibling("words.txt");
+    }
+}
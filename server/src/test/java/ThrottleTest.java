@@ -0,0 +1,43 @@
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * A tight answer limit under a generous message limit, so a flood of answers is only dropped by the
+ * answer bucket while the message bucket admits every line.
+ */
+class ThrottleTest {
+    private static final int MAX_THROTTLED = 20;
+
+    private static TestServer server;
+
+    @BeforeAll
+    static void startServer() throws Exception {
+        server = TestServer.start("limit.answersPerSecond=1", "limit.answerBurst=2",
+                "limit.messagesPerSecond=1000", "limit.messageBurst=1000", "limit.maxThrottled=" + MAX_THROTTLED);
+    }
+
+    @Test
+    void answerFloodIsToldOnceAndThenClosed() throws Exception {
+        try (TestClient client = server.connect()) {
+            client.register("flooder", "secret");
+            client.login("flooder", "secret");
+            // Lines that arrive while the login finishes are held and replayed without the message bucket
+            client.send("PING");
+            client.expect("PONG");
+            TestClient.sleep(100);
+            client.send("guess\n".repeat(2 * MAX_THROTTLED).trim());
+
+            int throttled = 0;
+            String line;
+            while ((line = client.next(TestClient.TIMEOUT_MS)) != null) {
+                if (line.startsWith("Slow down!")) {
+                    throttled++;
+                }
+            }
+            assertEquals(1, throttled);
+            assertTrue(client.closedWithin(0), "connection still open after the flood");
+        }
+    }
+}
@@ -0,0 +1,27 @@
+import org.junit.jupiter.api.Test;
+
+import java.nio.file.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class UserStoreTest {
+
+    @Test
+    void recordsAfterAFailedWriteSurviveRecovery() throws Exception {
+        Path directory = Files.createTempDirectory("typefast-store");
+        TearingChannel[] log = new TearingChannel[1];
+        UserStore store = UserStore.open(directory, 1, 100000, channel -> log[0] = new TearingChannel(channel));
+        assertTrue(store.register("before", "secret"));
+        log[0].tearNextWrite = true;
+        // Still usable in memory; only its log record is lost
+        assertTrue(store.register("torn", "secret"));
+        assertTrue(store.register("after", "secret"));
+        store.close();
+
+        UserStore recovered = UserStore.open(directory, 1, 100000);
+        assertTrue(recovered.authenticate("before", "secret"));
+        assertTrue(recovered.authenticate("after", "secret"), "a record acknowledged after the failure was lost");
+        assertFalse(recovered.authenticate("torn", "secret"));
+        recovered.close();
+    }
+}
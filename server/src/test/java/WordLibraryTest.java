@@ -0,0 +1,35 @@
+import org.junit.jupiter.api.Test;
+
+import java.nio.file.*;
+import java.nio.file.attribute.FileTime;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class WordLibraryTest {
+
+    @Test
+    void reloadPacksToANewFileAndDeletesTheOldOne() throws Exception {
+        Path directory = Files.createTempDirectory("typefast-words");
+        Path source = directory.resolve("words.txt");
+        Files.write(source, List.of("cat", "dog"));
+        Files.setLastModifiedTime(source, FileTime.fromMillis(1_000_000));
+        WordLibrary library = new WordLibrary(Map.of("en", source), new double[]{1, 1, 1, 1, 1});
+        library.loadAll();
+        Path before = WordLibrary.packedFile(source, 1_000_000);
+        assertTrue(Files.exists(before));
+        Dictionary old = library.dictionary("en");
+
+        Files.write(source, List.of("cat", "dog", "apple"));
+        Files.setLastModifiedTime(source, FileTime.fromMillis(2_000_000));
+        library.reloadChanged();
+
+        assertEquals(3, library.dictionary("en").size());
+        assertTrue(Files.exists(WordLibrary.packedFile(source, 2_000_000)));
+        assertFalse(Files.exists(before), "the replaced packed file was kept");
+        // A dictionary swapped out mid-draw still reads its own words
+        assertEquals(2, old.size());
+        assertTrue(List.of("cat", "dog").contains(old.word(old.pick())));
+    }
+}